@@ -16,6 +16,9 @@ public class ChatGPTConfig {
     private boolean useDummyData = false;
     private String baseUrl; // URL for uploaded files (e.g., http://localhost:8080 or https://yourdomain.com)
     private OpenAIConfig openai = new OpenAIConfig();
+    private HistoryConfig history = new HistoryConfig();
+    private PromptsConfig prompts = new PromptsConfig();
+    private IdempotencyConfig idempotency = new IdempotencyConfig();
 
     @Data
     public static class OpenAIConfig {
@@ -24,6 +27,38 @@ public class ChatGPTConfig {
         private String url;
     }
 
+    /**
+     * History sent with Chat Completions turns, newest first within a token budget.
+     */
+    @Data
+    public static class HistoryConfig {
+        private boolean enabled = true;
+        private int maxTokens = 6000;          // Window of recent messages, summary included
+        private int summaryMaxTokens = 800;    // Rolling summary of messages that left the window
+        private int maxChats = 10000;          // Chats whose rendered history is kept in memory
+        private long ttlMinutes = 120;
+    }
+
+    /**
+     * System prompt templates, see {@code PromptTemplateRegistry}.
+     */
+    @Data
+    public static class PromptsConfig {
+        private long refreshInterval = 300000; // ms between checks for specialty prompt changes
+    }
+
+    /**
+     * {@code Idempotency-Key} handling for message submission, see {@code IdempotencyStore}.
+     */
+    @Data
+    public static class IdempotencyConfig {
+        private boolean enabled = true;
+        private long maxEntries = 10000;
+        private long ttlMinutes = 1440;       // How long a completed response is replayed
+        private long waitTimeout = 610000;    // ms a duplicate waits for the original; above the request deadline
+        private int maxKeyLength = 255;
+    }
+
     @PostConstruct
     public void validate() {
         // log.info("ChatGPT Configuration: useDummyData={}, openai={}", useDummyData, openai);
@@ -1,11 +1,17 @@
 package com.drcopad.copad.config;
 
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Data
 @Component
@@ -17,10 +23,22 @@ public class OpenAIResponsesConfig {
     private boolean fallbackToChat = true;
     private String defaultModel = "o3";
     private int conversationTtlDays = 30;
+    private long requestDeadline = 600000;  // ms a synchronous or streamed turn may take before it is cancelled
     
     private ToolsConfig tools = new ToolsConfig();
     private CostConfig cost = new CostConfig();
     private RetryConfig retry = new RetryConfig();
+    private BackgroundConfig background = new BackgroundConfig();
+    private ResponseCacheConfig responseCache = new ResponseCacheConfig();
+    private SemanticCacheConfig semanticCache = new SemanticCacheConfig();
+    private ConcurrencyConfig concurrency = new ConcurrencyConfig();
+    private TokenBudgetConfig tokens = new TokenBudgetConfig();
+    private RoutingConfig routing = new RoutingConfig();
+    private CompactionConfig compaction = new CompactionConfig();
+    private PromptCacheConfig promptCache = new PromptCacheConfig();
+    private JournalConfig journal = new JournalConfig();
+    private ConversationCacheConfig conversationCache = new ConversationCacheConfig();
+    private TurnOrderingConfig turnOrdering = new TurnOrderingConfig();
     
     @Data
     public static class ToolsConfig {
@@ -33,14 +51,22 @@ public class OpenAIResponsesConfig {
     public static class CostConfig {
         private BigDecimal alertThreshold = new BigDecimal("10.00");
         private BigDecimal dailyLimit = new BigDecimal("50.00");
+        private long guestDailyTokenLimit = 100000;
+        private int estimatedOutputTokens = 2000;     // Reserved per turn until the real usage is known
+        private long ledgerReconcileInterval = 300000; // ms between spend ledger checks against usage_metrics
+        private long ledgerMaxAccounts = 100000;       // Principals tracked at once; idle ones are dropped at each check
         
-        // Pricing per 1K tokens (as of 2024)
+        // Bump whenever the tables below change; every usage row records the version it was priced with
+        private String priceVersion = "2025-06";
+        
+        // Micro-dollars per 1M tokens from OpenAI's published price list; cached input is the
+        // discounted rate for prompt-cache hits, equal to input for models without prompt caching
         private Map<String, ModelPricing> modelPricing = Map.of(
-            "o3", new ModelPricing(new BigDecimal("0.015"), new BigDecimal("0.060")),
-            "gpt-4o", new ModelPricing(new BigDecimal("0.015"), new BigDecimal("0.060")),
-            "gpt-4o-mini", new ModelPricing(new BigDecimal("0.00015"), new BigDecimal("0.0006")),
-            "gpt-4-turbo", new ModelPricing(new BigDecimal("0.01"), new BigDecimal("0.03")),
-            "gpt-3.5-turbo", new ModelPricing(new BigDecimal("0.0005"), new BigDecimal("0.0015"))
+            "o3", new ModelPricing(2_000_000, 500_000, 8_000_000),
+            "gpt-4o", new ModelPricing(2_500_000, 1_250_000, 10_000_000),
+            "gpt-4o-mini", new ModelPricing(150_000, 75_000, 600_000),
+            "gpt-4-turbo", new ModelPricing(10_000_000, 10_000_000, 30_000_000),
+            "gpt-3.5-turbo", new ModelPricing(500_000, 500_000, 1_500_000)
         );
         
         // Tool costs
@@ -53,18 +79,183 @@ public class OpenAIResponsesConfig {
     public static class RetryConfig {
         private int maxAttempts = 3;
         private long initialInterval = 1000;
-        private long maxInterval = 10000;
+        private long maxInterval = 10000;           // Also the longest Retry-After that is waited for
         private double multiplier = 2.0;
+        private double budgetRatio = 0.1;           // Retries allowed per call, on average
+        private double budgetMaxTokens = 10;        // Retries allowed in a burst
+    }
+    
+    @Data
+    public static class BackgroundConfig {
+        private boolean enabled = true;
+        private long pollInterval = 1000;          // How often the poller looks for due jobs
+        private long initialBackoff = 2000;        // First wait before polling OpenAI for a job
+        private long maxBackoff = 30000;
+        private long requestTimeout = 30000;       // Per submit/poll HTTP call
+        private long submitLeaseTimeout = 120000;  // A job stuck in "submitting" longer than this is failed, not resubmitted
+        private int maxJobAgeMinutes = 60;
+        private int batchSize = 20;
+    }
+    
+    @Data
+    public static class ResponseCacheConfig {
+        private boolean enabled = false;
+        private long ttlMinutes = 1440;
+        private long maxEntries = 10000;
+        private Set<String> disabledSpecialties = new HashSet<>();  // Per-specialty kill switch
+    }
+    
+    @Data
+    public static class SemanticCacheConfig {
+        private boolean enabled = false;
+        private String provider = "hashing";                 // hashing (local, deterministic) or openai
+        private String embeddingModel = "text-embedding-3-small";
+        private String embeddingUrl = "https://api.openai.com/v1/embeddings";
+        private int embeddingDimensions = 512;
+        private int hashingDimensions = 384;
+        private Double similarityThreshold;                  // Overrides the provider's default (hashing 0.75, openai 0.92)
+        private int maxEntriesPerIndex = 5000;               // One index per (specialty, language)
+        private long ttlMinutes = 1440;
+        private int lshTables = 8;
+        private int lshBits = 10;
+        private String snapshotPath = "cache/semantic-cache.bin";
+        private long snapshotInterval = 600000;
+        private Set<String> disabledSpecialties = new HashSet<>();
+    }
+    
+    @Data
+    public static class ConcurrencyConfig {
+        private boolean enabled = true;
+        private int initialLimit = 20;          // In-flight calls per model before any feedback
+        private int minLimit = 2;
+        private int maxLimit = 200;
+        private double backoffRatio = 0.9;      // Multiplicative decrease on 429/5xx/timeouts or slowdown
+        private double latencyTolerance = 2.0;  // Recent latency above this multiple of the baseline counts as slowdown
+        private int maxQueueSize = 100;         // Waiting callers per model before new ones are shed
+        private long maxQueueWait = 5000;       // How long a caller may wait for a slot
+        private int maxInFlightPerPrincipal = 4;  // Per user, guest session or sessionless IP; not for internal calls
+        private int maxInFlightPerIp = 8;         // Across all guest sessions from one address
+        private int maxQueuedPerPrincipal = 5;    // More waiting than this is answered with 429
+        private int authenticatedWeight = 4;      // Share of freed slots for signed-in users vs guests
+        private int guestWeight = 1;
+    }
+    
+    @Data
+    public static class TokenBudgetConfig {
+        private int maxInputTokens = 200000;       // Turns estimated above this are rejected before the call
+        private int maxAttachmentTokens = 60000;   // Extracted document text shared across a turn's documents
+        private int imageTokens = 765;             // Flat estimate per input image (high detail, 512px tiles)
     }
     
     @Data
+    public static class RoutingConfig {
+        private boolean enabled = false;
+        private int simpleMaxTokens = 12;       // Acknowledgements up to this size go to the simple tier
+        private int standardMaxTokens = 60;     // Follow-ups up to this size go to the standard tier
+        private List<String> acknowledgements = new ArrayList<>(List.of(
+            "thanks", "thank you", "thanks a lot", "thank you so much", "thx", "ok", "okay", "got it",
+            "great", "perfect", "bye", "hi", "hello",
+            "merci", "gracias", "danke", "shukran"));
+        // Tier name (simple, standard, complex) to target; a null model keeps the conversation's model
+        private Map<String, RouteTarget> tiers = Map.of(
+            "simple", new RouteTarget("gpt-4o-mini", null),
+            "standard", new RouteTarget(null, "low"),
+            "complex", new RouteTarget(null, null)
+        );
+        // Specialty code to the models it may be routed to; specialties not listed allow any model
+        private Map<String, List<String>> allowedModels = new HashMap<>();
+    }
+    
+    @Data
+    public static class CompactionConfig {
+        private boolean enabled = true;
+        private int triggerInputTokens = 24000;   // Compact once a turn's chained context reaches this size
+        private String model = "gpt-4o-mini";     // Writes the summary; reads the whole chain once
+        private int maxSummaryTokens = 1200;
+    }
+    
+    @Data
+    @NoArgsConstructor
+    public static class RouteTarget {
+        private String model;
+        private String reasoningEffort;   // low, medium or high; only sent to reasoning models
+        
+        public RouteTarget(String model, String reasoningEffort) {
+            this.model = model;
+            this.reasoningEffort = reasoningEffort;
+        }
+    }
+    
+    @Data
+    @NoArgsConstructor
     public static class ModelPricing {
-        private final BigDecimal inputCostPer1k;
-        private final BigDecimal outputCostPer1k;
+        private long inputPerMillion;          // micro-dollars per 1M uncached input tokens
+        private long cachedInputPerMillion;    // micro-dollars per 1M cached input tokens
+        private long outputPerMillion;         // micro-dollars per 1M output tokens, reasoning included
+        private List<PriceTier> tiers = new ArrayList<>();
         
-        public ModelPricing(BigDecimal inputCostPer1k, BigDecimal outputCostPer1k) {
-            this.inputCostPer1k = inputCostPer1k;
-            this.outputCostPer1k = outputCostPer1k;
+        public ModelPricing(long inputPerMillion, long cachedInputPerMillion, long outputPerMillion) {
+            this.inputPerMillion = inputPerMillion;
+            this.cachedInputPerMillion = cachedInputPerMillion;
+            this.outputPerMillion = outputPerMillion;
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * Rates that replace the base rates once a request's input exceeds {@code aboveInputTokens}
+     * (long-context pricing). The highest matching tier wins.
+     */
+    @Data
+    public static class PriceTier {
+        private long aboveInputTokens;
+        private long inputPerMillion;
+        private long cachedInputPerMillion;
+        private long outputPerMillion;
+    }
+    
+    /**
+     * OpenAI caches prompt prefixes automatically; the key keeps requests with the same
+     * (specialty, language) prefix on the same cache.
+     */
+    @Data
+    public static class PromptCacheConfig {
+        private boolean keyEnabled = true;  // Send prompt_cache_key
+    }
+    
+    /**
+     * Response and usage rows are appended to a local journal and inserted in batches by a
+     * background flusher; see TelemetryJournal. Disabled, they are inserted with the turn.
+     */
+    @Data
+    public static class JournalConfig {
+        private boolean enabled = true;
+        private String dir = "journal/telemetry";
+        private int segmentBytes = 8 * 1024 * 1024;
+        private long flushInterval = 1000;     // ms between batch inserts
+        private int batchSize = 500;
+        private boolean forceOnAppend = false;  // fsync every row; otherwise the OS writes pages back
+    }
+    
+    /**
+     * Active conversations kept in memory so a turn does not read its conversation row. Writes
+     * are versioned, so a copy another node has moved past is dropped at its next write. Assumes
+     * sticky routing by chat id, as turn ordering does.
+     */
+    @Data
+    public static class ConversationCacheConfig {
+        private boolean enabled = true;
+        private long maxEntries = 10000;
+        private long ttlMinutes = 30;
+    }
+    
+    /**
+     * Turns of one chat run one at a time, so each chains onto the previous answer; see
+     * ConversationSequencer. Per node only: several nodes need sticky routing by chat id.
+     */
+    @Data
+    public static class TurnOrderingConfig {
+        private boolean enabled = true;
+        private int maxQueued = 2;        // Turns waiting behind the running one; more get 429
+        private long maxWait = 120000;    // ms a queued turn waits before it is answered with 503
+    }
+}
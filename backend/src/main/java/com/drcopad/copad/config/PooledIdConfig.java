@@ -0,0 +1,36 @@
+package com.drcopad.copad.config;
+
+import com.drcopad.copad.entity.PooledIdAllocator;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Connections for reserving {@link com.drcopad.copad.entity.PooledId} blocks, kept apart from the
+ * application pool so a refill never waits behind the transactions that are waiting for it.
+ * <p>
+ * Only the caller holding an allocator's lock uses one, so two connections cover every table.
+ * Not exposed as a {@code DataSource} bean, which would replace the auto-configured pool.
+ */
+@Configuration
+public class PooledIdConfig {
+
+    private static final int POOL_SIZE = 2;
+
+    private final HikariDataSource connections;
+
+    public PooledIdConfig(DataSourceProperties properties) {
+        connections = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        connections.setPoolName("id-allocation");
+        connections.setMaximumPoolSize(POOL_SIZE);
+        connections.setMinimumIdle(0);
+        PooledIdAllocator.useConnections(connections);
+    }
+
+    @PreDestroy
+    public void close() {
+        PooledIdAllocator.useConnections(null);
+        connections.close();
+    }
+}
@@ -11,6 +11,7 @@ public class PublicEndpoints {
             "/api/tags/**",
             "/api/blog/**",
             "/api/v2/messages/**", // Responses API endpoints
+            "/api/v3/messages/**", // Non-blocking Responses API endpoints
             "/uploads/**", // Make uploads publicly accessible
             "/custom-error"
     );
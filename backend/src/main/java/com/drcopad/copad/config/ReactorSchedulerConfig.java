@@ -0,0 +1,22 @@
+package com.drcopad.copad.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+@Configuration
+public class ReactorSchedulerConfig {
+
+    /**
+     * Scheduler for the blocking JPA steps inside reactive chains. Sized to the JDBC pool so
+     * reactive callers queue here instead of piling up on the pool, and so database work never
+     * runs on (or starves) the Netty event loop or the shared boundedElastic pool.
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler jdbcScheduler(@Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                                   @Value("${app.reactive.jdbc-queue-capacity:10000}") int queueCapacity) {
+        return Schedulers.newBoundedElastic(poolSize, queueCapacity, "jdbc");
+    }
+}
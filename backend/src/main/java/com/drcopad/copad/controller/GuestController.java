@@ -4,14 +4,19 @@ import com.drcopad.copad.dto.FileAttachmentDTO;
 import com.drcopad.copad.dto.GuestSessionDTO;
 import com.drcopad.copad.dto.MessageRequest;
 import com.drcopad.copad.entity.FileAttachment;
+import com.drcopad.copad.exception.IdempotencyKeyConflictException;
 import com.drcopad.copad.exception.RateLimitExceededException;
+import com.drcopad.copad.exception.ServiceOverloadedException;
 import com.drcopad.copad.service.FileAttachmentService;
 import com.drcopad.copad.service.GuestSessionService;
+import com.drcopad.copad.service.IdempotencyStore;
 import com.drcopad.copad.service.RateLimiterService;
+import com.drcopad.copad.service.RequestPrincipal;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -29,6 +34,7 @@ public class GuestController {
     private final GuestSessionService guestSessionService;
     private final RateLimiterService rateLimiterService;
     private final FileAttachmentService fileAttachmentService;
+    private final IdempotencyStore idempotencyStore;
     
     @Value("${upload.public-url:http://localhost:8080}")
     private String publicUrl;
@@ -76,7 +82,41 @@ public class GuestController {
             @PathVariable String sessionId,
             @PathVariable String chatId,
             @RequestBody MessageRequest messageRequest,
-            @RequestParam(defaultValue = "general") String specialty) {
+            @RequestParam(defaultValue = "general") String specialty,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            HttpServletRequest request) {
+        request.setAttribute(RequestPrincipal.ATTRIBUTE, RequestPrincipal.guest(sessionId, request.getRemoteAddr()));
+        if (idempotencyKey == null || !idempotencyStore.isEnabled()) {
+            return processChat(sessionId, chatId, messageRequest, specialty);
+        }
+        // A resend with the same key gets the original reply instead of a second model call
+        String fingerprint = IdempotencyStore.fingerprint(messageRequest.getMessage(), specialty,
+                messageRequest.getLanguage(), messageRequest.getFileIds());
+        try {
+            IdempotencyStore.Outcome<ResponseEntity<String>> outcome = idempotencyStore.execute(
+                    "guest:" + sessionId + ":" + chatId, idempotencyKey, fingerprint,
+                    () -> processChat(sessionId, chatId, messageRequest, specialty),
+                    response -> response.getStatusCode().is2xxSuccessful());
+            if (!outcome.replayed()) {
+                return outcome.value();
+            }
+            return ResponseEntity.status(outcome.value().getStatusCode())
+                    .headers(outcome.value().getHeaders())
+                    .header("Idempotent-Replayed", "true")
+                    .body(outcome.value().getBody());
+        } catch (IdempotencyKeyConflictException e) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (ServiceOverloadedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body("The assistant is busy right now. Please try again in a moment.");
+        }
+    }
+
+    private ResponseEntity<String> processChat(String sessionId, String chatId, MessageRequest messageRequest,
+                                               String specialty) {
         log.info("Received chat request for session {} and chat {} with message: {}, specialty: {}, language: {}, and fileIds: {}", 
                  sessionId, chatId, messageRequest.getMessage(), specialty, messageRequest.getLanguage(), messageRequest.getFileIds());
         try {
@@ -89,6 +129,13 @@ public class GuestController {
                 messageRequest.getFileIds()
             );
             return ResponseEntity.ok(response);
+        } catch (RateLimitExceededException e) {
+            throw e;
+        } catch (ServiceOverloadedException e) {
+            log.warn("Shedding guest chat request for session {}: {}", sessionId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body("The assistant is busy right now. Please try again in a moment.");
         } catch (Exception e) {
             log.error("Error processing chat request", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -0,0 +1,193 @@
+package com.drcopad.copad.controller;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.dto.MessageRequest;
+import com.drcopad.copad.entity.*;
+import com.drcopad.copad.exception.RateLimitExceededException;
+import com.drcopad.copad.exception.RequestTooLargeException;
+import com.drcopad.copad.exception.ServiceOverloadedException;
+import com.drcopad.copad.repository.ChatRepository;
+import com.drcopad.copad.repository.FileAttachmentRepository;
+import com.drcopad.copad.repository.GuestSessionRepository;
+import com.drcopad.copad.repository.MessageRepository;
+import com.drcopad.copad.service.ChatGPTService;
+import com.drcopad.copad.service.OpenAIResponsesService;
+import com.drcopad.copad.service.RequestPrincipal;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous counterpart of {@link ResponsesMessageController#sendMessage}. The chat lookup, the
+ * model call and persistence are one Mono chain; Spring MVC completes the request asynchronously,
+ * so no servlet thread is parked while OpenAI is working.
+ * <p>
+ * Only the model call is non-blocking. The JPA steps still block a thread of the {@code jdbc}
+ * scheduler, and the connection pool bounds both endpoints alike: in
+ * {@code MessagePipelineBenchmark} this path answers no faster than v2 does.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/v3/messages")
+public class ReactiveMessageController {
+
+    private final ChatRepository chatRepository;
+    private final MessageRepository messageRepository;
+    private final FileAttachmentRepository fileAttachmentRepository;
+    private final GuestSessionRepository guestSessionRepository;
+    private final OpenAIResponsesService responsesService;
+    private final ChatGPTService chatGPTService;
+    private final OpenAIResponsesConfig responsesConfig;
+    private final Scheduler jdbcScheduler;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public ReactiveMessageController(ChatRepository chatRepository,
+                                     MessageRepository messageRepository,
+                                     FileAttachmentRepository fileAttachmentRepository,
+                                     GuestSessionRepository guestSessionRepository,
+                                     OpenAIResponsesService responsesService,
+                                     ChatGPTService chatGPTService,
+                                     @Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                                     @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
+                                     MeterRegistry meterRegistry) {
+        this.chatRepository = chatRepository;
+        this.messageRepository = messageRepository;
+        this.fileAttachmentRepository = fileAttachmentRepository;
+        this.guestSessionRepository = guestSessionRepository;
+        this.responsesService = responsesService;
+        this.chatGPTService = chatGPTService;
+        this.responsesConfig = responsesConfig;
+        this.jdbcScheduler = jdbcScheduler;
+        Gauge.builder("copad.v3.conversations.inflight", inFlight, AtomicInteger::get)
+                .description("v3 chat turns currently waiting on the model")
+                .register(meterRegistry);
+    }
+
+    @PostMapping("/chat/{chatId}")
+    public Mono<ResponseEntity<Object>> sendMessage(
+            @PathVariable String chatId,
+            @RequestBody MessageRequest messageRequest,
+            @AuthenticationPrincipal User user,
+            @RequestHeader(value = "X-Guest-Session-Id", required = false) String guestSessionId) {
+
+        // Resolved here, the chain below runs on other threads
+        RequestPrincipal principal = RequestPrincipal.current();
+        return Mono.fromCallable(() -> startTurn(chatId, messageRequest, user, guestSessionId))
+                .subscribeOn(jdbcScheduler)
+                .flatMap(turn -> responsesConfig.isEnabled()
+                        ? responsesService.respondReactive(
+                                messageRequest.getMessage(),
+                                messageRequest.getSpecialty(),
+                                messageRequest.getLanguage(),
+                                turn.attachments(),
+                                chatId,
+                                user,
+                                turn.guestSession())
+                            .onErrorResume(e -> responsesConfig.isFallbackToChat() && !(e instanceof RequestTooLargeException), e -> {
+                                log.warn("Responses API failed, falling back to ChatGPT API: {}", e.getMessage());
+                                return chatCompletionsTurn(turn, messageRequest);
+                            })
+                        : chatCompletionsTurn(turn, messageRequest))
+                .map(aiResponse -> ResponseEntity.<Object>ok(new MessageResponse(aiResponse, chatId)))
+                .onErrorResume(ServiceOverloadedException.class, e -> {
+                    log.warn("Shedding v3 message for chat {}: {}", chatId, e.getMessage());
+                    return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                            .header(HttpHeaders.RETRY_AFTER, "1")
+                            .body(new ErrorResponse(e.getMessage())));
+                })
+                .onErrorResume(RateLimitExceededException.class, e -> Mono.just(
+                        ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(new ErrorResponse(e.getMessage()))))
+                .onErrorResume(RequestTooLargeException.class, e -> Mono.just(
+                        ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(new ErrorResponse(e.getMessage()))))
+                .onErrorResume(e -> {
+                    log.error("Error processing v3 message for chat {}", chatId, e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                            .body(new ErrorResponse(e.getMessage())));
+                })
+                .doOnSubscribe(subscription -> inFlight.incrementAndGet())
+                .doFinally(signal -> inFlight.decrementAndGet())
+                .contextWrite(context -> context.put(RequestPrincipal.CONTEXT_KEY, principal));
+    }
+
+    /**
+     * Load the chat, guest session and attachments, snapshot the history and save the user message.
+     * Runs on the JDBC scheduler.
+     */
+    private Turn startTurn(String chatId, MessageRequest messageRequest, User user, String guestSessionId) {
+        Chat chat = chatRepository.findByChatId(chatId)
+                .orElseThrow(() -> new IllegalArgumentException("Chat not found"));
+
+        GuestSession guestSession = null;
+        if (guestSessionId != null && user == null) {
+            guestSession = guestSessionRepository.findBySessionId(guestSessionId).orElse(null);
+        }
+
+        List<FileAttachment> attachments = messageRequest.getFileIds() == null || messageRequest.getFileIds().isEmpty()
+                ? List.of()
+                : fileAttachmentRepository.findAllByFileIdIn(messageRequest.getFileIds());
+
+        // History must be read before the user message is saved, the Chat Completions path appends it itself
+        List<ChatMessage> history = messageRepository.findByChatOrderByTimestampAsc(chat);
+
+        ChatMessage userMessage = new ChatMessage();
+        userMessage.setChat(chat);
+        userMessage.setSender("USER");
+        userMessage.setMessage(messageRequest.getMessage());
+        userMessage.setTimestamp(LocalDateTime.now());
+        attachments.forEach(userMessage::addAttachment);
+        messageRepository.save(userMessage);
+
+        return new Turn(chat, guestSession, attachments, history);
+    }
+
+    private Mono<String> chatCompletionsTurn(Turn turn, MessageRequest messageRequest) {
+        return Mono.fromCallable(() -> chatGPTService.getChatResponse(
+                        messageRequest.getMessage(),
+                        turn.history(),
+                        messageRequest.getSpecialty(),
+                        messageRequest.getLanguage(),
+                        turn.attachments()))
+                // The Chat Completions client is blocking HTTP, keep it off the JDBC scheduler
+                .subscribeOn(Schedulers.boundedElastic())
+                .publishOn(jdbcScheduler)
+                .map(aiResponse -> {
+                    ChatMessage aiMessage = new ChatMessage();
+                    aiMessage.setChat(turn.chat());
+                    aiMessage.setSender("AI");
+                    aiMessage.setMessage(aiResponse);
+                    aiMessage.setTimestamp(LocalDateTime.now());
+                    messageRepository.save(aiMessage);
+                    return aiResponse;
+                });
+    }
+
+    private record Turn(Chat chat, GuestSession guestSession, List<FileAttachment> attachments,
+                        List<ChatMessage> history) {
+    }
+
+    @lombok.Data
+    @lombok.AllArgsConstructor
+    static class MessageResponse {
+        private String response;
+        private String chatId;
+    }
+
+    @lombok.Data
+    @lombok.AllArgsConstructor
+    static class ErrorResponse {
+        private String error;
+    }
+}
@@ -5,6 +5,11 @@ import com.drcopad.copad.dto.MessageRequest;
 import com.drcopad.copad.dto.BatchFileUploadRequest;
 import com.drcopad.copad.dto.ConversationStatsResponse;
 import com.drcopad.copad.entity.*;
+import com.drcopad.copad.entity.responses.LlmJob;
+import com.drcopad.copad.exception.IdempotencyKeyConflictException;
+import com.drcopad.copad.exception.RateLimitExceededException;
+import com.drcopad.copad.exception.RequestTooLargeException;
+import com.drcopad.copad.exception.ServiceOverloadedException;
 import com.drcopad.copad.repository.ChatRepository;
 import com.drcopad.copad.repository.FileAttachmentRepository;
 import com.drcopad.copad.repository.GuestSessionRepository;
@@ -14,12 +19,22 @@ import com.drcopad.copad.repository.responses.BatchFileUploadRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -33,6 +48,10 @@ import java.util.stream.Collectors;
 @RequestMapping("/api/v2/messages")
 public class ResponsesMessageController {
     
+    private static final long STREAM_TIMEOUT_MS = 600_000L;
+    // Reasoning models can think for minutes without a delta; a periodic write notices a closed tab
+    private static final Duration STREAM_HEARTBEAT = Duration.ofSeconds(15);
+    
     @Value("${upload.public-url:http://localhost:8080}")
     private String publicUrl;
     
@@ -47,6 +66,8 @@ public class ResponsesMessageController {
     private final CostCalculationService costCalculationService;
     private final BatchFileUploadRepository batchFileUploadRepository;
     private final OpenAIResponsesConfig responsesConfig;
+    private final LlmJobService llmJobService;
+    private final IdempotencyStore idempotencyStore;
     
     public ResponsesMessageController(ChatRepository chatRepository,
                                     MessageRepository messageRepository,
@@ -58,7 +79,9 @@ public class ResponsesMessageController {
                                     FileUploadService fileUploadService,
                                     CostCalculationService costCalculationService,
                                     BatchFileUploadRepository batchFileUploadRepository,
-                                    @Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig) {
+                                    @Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                                    LlmJobService llmJobService,
+                                    IdempotencyStore idempotencyStore) {
         this.chatRepository = chatRepository;
         this.messageRepository = messageRepository;
         this.fileAttachmentRepository = fileAttachmentRepository;
@@ -70,18 +93,56 @@ public class ResponsesMessageController {
         this.costCalculationService = costCalculationService;
         this.batchFileUploadRepository = batchFileUploadRepository;
         this.responsesConfig = responsesConfig;
+        this.llmJobService = llmJobService;
+        this.idempotencyStore = idempotencyStore;
     }
     
     /**
-     * Send a message using either Responses API or ChatGPT API based on configuration
+     * Send a message using either Responses API or ChatGPT API based on configuration.
+     * With {@code Prefer: respond-async} the turn runs as a background job and the call returns
+     * 202 with a job id to poll at {@code /jobs/{jobId}}.
+     * <p>
+     * A resend with the same {@code Idempotency-Key} gets the original response, marked with
+     * {@code Idempotent-Replayed: true}, instead of a second model call.
      */
     @PostMapping("/chat/{chatId}")
     public ResponseEntity<?> sendMessage(
             @PathVariable String chatId,
             @RequestBody MessageRequest messageRequest,
             @AuthenticationPrincipal User user,
-            @RequestHeader(value = "X-Guest-Session-Id", required = false) String guestSessionId) {
+            @RequestHeader(value = "X-Guest-Session-Id", required = false) String guestSessionId,
+            @RequestHeader(value = "Prefer", required = false) String prefer,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
         
+        if (idempotencyKey == null || !idempotencyStore.isEnabled()) {
+            return submitMessage(chatId, messageRequest, user, guestSessionId, prefer);
+        }
+        // The caller as the limiter sees it; anonymous callers without a guest session get their address
+        String scope = RequestPrincipal.current().flow() + ":" + chatId;
+        String fingerprint = IdempotencyStore.fingerprint(messageRequest.getMessage(), messageRequest.getSpecialty(),
+                messageRequest.getLanguage(), messageRequest.getFileIds(), prefer);
+        try {
+            IdempotencyStore.Outcome<ResponseEntity<?>> outcome = idempotencyStore.execute(scope, idempotencyKey, fingerprint,
+                    () -> submitMessage(chatId, messageRequest, user, guestSessionId, prefer),
+                    response -> response.getStatusCode().is2xxSuccessful());
+            if (!outcome.replayed()) {
+                return outcome.value();
+            }
+            return ResponseEntity.status(outcome.value().getStatusCode())
+                    .headers(outcome.value().getHeaders())
+                    .header("Idempotent-Replayed", "true")
+                    .body(outcome.value().getBody());
+        } catch (IdempotencyKeyConflictException e) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(new ErrorResponse(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage()));
+        } catch (ServiceOverloadedException e) {
+            return overloaded(e);
+        }
+    }
+    
+    private ResponseEntity<?> submitMessage(String chatId, MessageRequest messageRequest, User user,
+                                            String guestSessionId, String prefer) {
         try {
             // Get chat
             Chat chat = chatRepository.findByChatId(chatId)
@@ -98,31 +159,26 @@ public class ResponsesMessageController {
             List<ChatMessage> history = messageRepository.findByChatOrderByTimestampAsc(chat);
             
             // Get attachments if any
-            List<FileAttachment> attachments = new ArrayList<>();
-            if (messageRequest.getFileIds() != null && !messageRequest.getFileIds().isEmpty()) {
-                log.info("Message request includes {} file IDs: {}", 
-                    messageRequest.getFileIds().size(), messageRequest.getFileIds());
-                attachments = fileAttachmentRepository.findAllByFileIdIn(messageRequest.getFileIds());
-                log.info("Retrieved {} attachments from database: {}", 
-                    attachments.size(), 
-                    attachments.stream()
-                        .map(att -> String.format("%s (openaiFileId: %s)", 
-                            att.getOriginalFilename(), att.getOpenaiFileId()))
-                        .collect(Collectors.toList()));
-            } else {
-                log.info("No file IDs provided in message request");
-            }
+            List<FileAttachment> attachments = resolveAttachments(messageRequest);
             
             // Save user message
-            ChatMessage userMessage = new ChatMessage();
-            userMessage.setChat(chat);
-            userMessage.setSender("USER");
-            userMessage.setMessage(messageRequest.getMessage());
-            userMessage.setTimestamp(LocalDateTime.now());
-            if (!attachments.isEmpty()) {
-                attachments.forEach(userMessage::addAttachment);
+            saveUserMessage(chat, messageRequest, attachments);
+            
+            if (prefer != null && prefer.contains("respond-async") && llmJobService.isEnabled()) {
+                LlmJob job = llmJobService.submit(
+                    messageRequest.getMessage(),
+                    messageRequest.getSpecialty(),
+                    messageRequest.getLanguage(),
+                    attachments,
+                    chatId,
+                    user,
+                    guestSession
+                );
+                return ResponseEntity.accepted()
+                        .location(URI.create("/api/v2/messages/jobs/" + job.getJobId()))
+                        .header("Preference-Applied", "respond-async")
+                        .body(new JobStatusResponse(job.getJobId(), chatId, job.getStatus(), null, null));
             }
-            messageRepository.save(userMessage);
             
             // Get AI response
             String aiResponse;
@@ -142,6 +198,9 @@ public class ResponsesMessageController {
                         guestSession
                     );
                     usedResponsesApi = true;
+                } catch (RequestTooLargeException e) {
+                    // Chat Completions would see the same oversized input
+                    throw e;
                 } catch (Exception e) {
                     log.warn("Responses API failed, falling back to ChatGPT API: {}", e.getMessage());
                     // Fallback to ChatGPT API
@@ -180,6 +239,13 @@ public class ResponsesMessageController {
             
             return ResponseEntity.ok(new MessageResponse(aiResponse, chatId));
             
+        } catch (ServiceOverloadedException e) {
+            log.warn("Shedding message for chat {}: {}", chatId, e.getMessage());
+            return overloaded(e);
+        } catch (RateLimitExceededException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(new ErrorResponse(e.getMessage()));
+        } catch (RequestTooLargeException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(new ErrorResponse(e.getMessage()));
         } catch (Exception e) {
             log.error("Error processing message", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -187,6 +253,194 @@ public class ResponsesMessageController {
         }
     }
     
+    /**
+     * Status of a background job started with {@code Prefer: respond-async}. Once completed the
+     * response text is included; it is also saved to the chat like any other AI message. Jobs of
+     * other users or guest sessions are reported as not found.
+     */
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<?> getJobStatus(
+            @PathVariable String jobId,
+            @AuthenticationPrincipal User user,
+            @RequestHeader(value = "X-Guest-Session-Id", required = false) String guestSessionId) {
+        return llmJobService.findJob(jobId, user, guestSessionId)
+                .map(job -> ResponseEntity.ok(new JobStatusResponse(
+                    job.getJobId(),
+                    job.getChatId(),
+                    job.getStatus(),
+                    job.getResultText(),
+                    job.getErrorMessage()
+                )))
+                .orElse(ResponseEntity.notFound().build());
+    }
+    
+    /**
+     * Cancel a background job. A job already running at OpenAI is cancelled there as well.
+     */
+    @DeleteMapping("/jobs/{jobId}")
+    public ResponseEntity<?> cancelJob(
+            @PathVariable String jobId,
+            @AuthenticationPrincipal User user,
+            @RequestHeader(value = "X-Guest-Session-Id", required = false) String guestSessionId) {
+        try {
+            return llmJobService.cancel(jobId, user, guestSessionId)
+                    .map(job -> ResponseEntity.ok(new JobStatusResponse(
+                        job.getJobId(),
+                        job.getChatId(),
+                        job.getStatus(),
+                        job.getResultText(),
+                        job.getErrorMessage()
+                    )))
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (ObjectOptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ErrorResponse("Job changed while cancelling, please retry"));
+        }
+    }
+    
+    /**
+     * Stream the AI response as Server-Sent Events. Emits {@code delta} events with text chunks
+     * as the model produces them, then a single {@code done} event carrying the full response.
+     */
+    @PostMapping(value = "/chat/{chatId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamMessage(
+            @PathVariable String chatId,
+            @RequestBody MessageRequest messageRequest,
+            @AuthenticationPrincipal User user,
+            @RequestHeader(value = "X-Guest-Session-Id", required = false) String guestSessionId) {
+        
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        
+        try {
+            Chat chat = chatRepository.findByChatId(chatId)
+                    .orElseThrow(() -> new IllegalArgumentException("Chat not found"));
+            
+            GuestSession guestSession = null;
+            if (guestSessionId != null && user == null) {
+                guestSession = guestSessionRepository.findBySessionId(guestSessionId)
+                        .orElse(null);
+            }
+            
+            List<FileAttachment> attachments = resolveAttachments(messageRequest);
+            
+            if (!responsesConfig.isEnabled()) {
+                // Chat Completions path has no streaming support here, send the answer as one chunk
+                List<ChatMessage> history = messageRepository.findByChatOrderByTimestampAsc(chat);
+                saveUserMessage(chat, messageRequest, attachments);
+                String aiResponse = chatGPTService.getChatResponse(
+                    messageRequest.getMessage(),
+                    history,
+                    messageRequest.getSpecialty(),
+                    messageRequest.getLanguage(),
+                    attachments
+                );
+                ChatMessage aiMessage = new ChatMessage();
+                aiMessage.setChat(chat);
+                aiMessage.setSender("AI");
+                aiMessage.setMessage(aiResponse);
+                aiMessage.setTimestamp(LocalDateTime.now());
+                messageRepository.save(aiMessage);
+                
+                sendStreamEvent(emitter, "delta", new StreamDelta(aiResponse));
+                sendStreamEvent(emitter, "done", new MessageResponse(aiResponse, chatId));
+                emitter.complete();
+                return emitter;
+            }
+            
+            saveUserMessage(chat, messageRequest, attachments);
+            
+            Disposable subscription = responsesService.streamResponsesAPIResponse(
+                    messageRequest.getMessage(),
+                    messageRequest.getSpecialty(),
+                    messageRequest.getLanguage(),
+                    attachments,
+                    chatId,
+                    user,
+                    guestSession,
+                    delta -> sendStreamEvent(emitter, "delta", new StreamDelta(delta)))
+                .subscribe(
+                    aiResponse -> {
+                        sendStreamEvent(emitter, "done", new MessageResponse(aiResponse, chatId));
+                        emitter.complete();
+                    },
+                    error -> {
+                        log.error("Error streaming message for chat {}", chatId, error);
+                        try {
+                            sendStreamEvent(emitter, "error", new ErrorResponse(error.getMessage()));
+                        } catch (UncheckedIOException ignored) {
+                            // Client is already gone
+                        }
+                        emitter.complete();
+                    });
+            
+            Disposable heartbeat = Flux.interval(STREAM_HEARTBEAT)
+                .subscribe(tick -> {
+                    try {
+                        emitter.send(SseEmitter.event().comment("keep-alive"));
+                    } catch (IOException | IllegalStateException e) {
+                        log.info("Client left stream for chat {}, cancelling the model call", chatId);
+                        subscription.dispose();
+                        emitter.completeWithError(e);
+                    }
+                });
+            
+            // Stop reading from OpenAI once nobody is listening any more
+            emitter.onTimeout(subscription::dispose);
+            emitter.onError(error -> subscription.dispose());
+            emitter.onCompletion(heartbeat::dispose);
+            
+        } catch (Exception e) {
+            log.error("Error starting message stream", e);
+            try {
+                sendStreamEvent(emitter, "error", new ErrorResponse(e.getMessage()));
+                emitter.complete();
+            } catch (UncheckedIOException ignored) {
+                emitter.completeWithError(e);
+            }
+        }
+        
+        return emitter;
+    }
+    
+    private void sendStreamEvent(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            // Fails the reactive pipeline, which disposes the upstream call and charges the partial turn
+            throw new UncheckedIOException("Client disconnected from message stream", e);
+        }
+    }
+    
+    private List<FileAttachment> resolveAttachments(MessageRequest messageRequest) {
+        List<FileAttachment> attachments = new ArrayList<>();
+        if (messageRequest.getFileIds() != null && !messageRequest.getFileIds().isEmpty()) {
+            log.info("Message request includes {} file IDs: {}", 
+                messageRequest.getFileIds().size(), messageRequest.getFileIds());
+            attachments = fileAttachmentRepository.findAllByFileIdIn(messageRequest.getFileIds());
+            log.info("Retrieved {} attachments from database: {}", 
+                attachments.size(), 
+                attachments.stream()
+                    .map(att -> String.format("%s (openaiFileId: %s)", 
+                        att.getOriginalFilename(), att.getOpenaiFileId()))
+                    .collect(Collectors.toList()));
+        } else {
+            log.info("No file IDs provided in message request");
+        }
+        return attachments;
+    }
+    
+    private ChatMessage saveUserMessage(Chat chat, MessageRequest messageRequest, List<FileAttachment> attachments) {
+        ChatMessage userMessage = new ChatMessage();
+        userMessage.setChat(chat);
+        userMessage.setSender("USER");
+        userMessage.setMessage(messageRequest.getMessage());
+        userMessage.setTimestamp(LocalDateTime.now());
+        if (!attachments.isEmpty()) {
+            attachments.forEach(userMessage::addAttachment);
+        }
+        return messageRepository.save(userMessage);
+    }
+    
     /**
      * Upload multiple files for a chat conversation
      */
@@ -334,6 +588,12 @@ public class ResponsesMessageController {
         return ResponseEntity.ok(summary);
     }
     
+    private ResponseEntity<Object> overloaded(ServiceOverloadedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(new ErrorResponse(e.getMessage()));
+    }
+
     @lombok.Data
     @lombok.AllArgsConstructor
     static class MessageResponse {
@@ -341,6 +601,22 @@ public class ResponsesMessageController {
         private String chatId;
     }
     
+    @lombok.Data
+    @lombok.AllArgsConstructor
+    static class JobStatusResponse {
+        private String jobId;
+        private String chatId;
+        private String status;
+        private String response;
+        private String error;
+    }
+    
+    @lombok.Data
+    @lombok.AllArgsConstructor
+    static class StreamDelta {
+        private String text;
+    }
+    
     @lombok.Data
     @lombok.AllArgsConstructor
     static class ErrorResponse {
@@ -3,6 +3,7 @@ package com.drcopad.copad.dto;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import lombok.AllArgsConstructor;
@@ -52,9 +53,27 @@ public class ResponsesAPIRequest {
     @JsonProperty("background")
     private Boolean background;
 
+    @JsonProperty("stream")
+    private Boolean stream;
+
     @JsonProperty("user")
     private String user;
 
     @JsonProperty("store")
     private Boolean store;
+
+    // {"effort": "low" | "medium" | "high"}; reasoning models only
+    @JsonProperty("reasoning")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, Object> reasoning;
+
+    // Stored with the response by OpenAI; carries the routing decision through background jobs too
+    @JsonProperty("metadata")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, String> metadata;
+
+    // Routes requests sharing a prompt prefix to the same OpenAI prompt cache
+    @JsonProperty("prompt_cache_key")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String promptCacheKey;
 }
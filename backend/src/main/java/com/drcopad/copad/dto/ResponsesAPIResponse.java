@@ -1,5 +1,6 @@
 package com.drcopad.copad.dto;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -67,17 +68,75 @@ public class ResponsesAPIResponse {
         private Map<String, Object> arguments;
     }
     
+    /**
+     * Token usage. The Responses API reports input/output tokens with cached and reasoning
+     * breakdowns; the Chat Completions names are accepted as aliases.
+     */
     @Data
     @NoArgsConstructor
     @AllArgsConstructor
     public static class Usage {
         @JsonProperty("prompt_tokens")
+        @JsonAlias("input_tokens")
         private Integer promptTokens;
         
         @JsonProperty("completion_tokens")
+        @JsonAlias("output_tokens")
         private Integer completionTokens;
         
         @JsonProperty("total_tokens")
         private Integer totalTokens;
+        
+        @JsonProperty("input_tokens_details")
+        private InputTokensDetails inputTokensDetails;
+        
+        @JsonProperty("output_tokens_details")
+        private OutputTokensDetails outputTokensDetails;
+        
+        public Usage(Integer promptTokens, Integer completionTokens, Integer totalTokens) {
+            this.promptTokens = promptTokens;
+            this.completionTokens = completionTokens;
+            this.totalTokens = totalTokens;
+        }
+        
+        public int inputTokens() {
+            return promptTokens != null ? promptTokens : 0;
+        }
+        
+        public int outputTokens() {
+            return completionTokens != null ? completionTokens : 0;
+        }
+        
+        /**
+         * Part of the input served from OpenAI's prompt cache, billed at the cached rate.
+         */
+        public int cachedInputTokens() {
+            return inputTokensDetails != null && inputTokensDetails.getCachedTokens() != null
+                ? inputTokensDetails.getCachedTokens() : 0;
+        }
+        
+        /**
+         * Part of the output spent on hidden reasoning, billed as output.
+         */
+        public int reasoningTokens() {
+            return outputTokensDetails != null && outputTokensDetails.getReasoningTokens() != null
+                ? outputTokensDetails.getReasoningTokens() : 0;
+        }
+    }
+    
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class InputTokensDetails {
+        @JsonProperty("cached_tokens")
+        private Integer cachedTokens;
+    }
+    
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class OutputTokensDetails {
+        @JsonProperty("reasoning_tokens")
+        private Integer reasoningTokens;
     }
-}
\ No newline at end of file
+}
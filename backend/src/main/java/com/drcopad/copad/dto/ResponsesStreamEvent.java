@@ -0,0 +1,42 @@
+package com.drcopad.copad.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A single server-sent event from the Responses API when the request is sent with {@code stream: true}.
+ * Only the fields we act on are mapped; everything else is ignored.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ResponsesStreamEvent {
+
+    public static final String OUTPUT_TEXT_DELTA = "response.output_text.delta";
+    public static final String COMPLETED = "response.completed";
+    public static final String FAILED = "response.failed";
+    public static final String INCOMPLETE = "response.incomplete";
+    public static final String ERROR = "error";
+
+    @JsonProperty("type")
+    private String type;
+
+    @JsonProperty("sequence_number")
+    private Integer sequenceNumber;
+
+    @JsonProperty("delta")
+    private String delta;  // Only set for *.delta events
+
+    @JsonProperty("response")
+    private ResponsesAPIResponse response;  // Set for response.created / completed / failed
+
+    @JsonProperty("code")
+    private String code;  // Set for error events
+
+    @JsonProperty("message")
+    private String message;  // Set for error events
+}
@@ -11,7 +11,7 @@ import java.util.List;
 @Table(name = "chat_messages")
 public class ChatMessage {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @PooledId(table = "chat_messages")
     private Long id;
 
     @ManyToOne
@@ -3,12 +3,18 @@ package com.drcopad.copad.entity;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 @Entity
 @Data
 @NoArgsConstructor
 @Table(name = "medical_specialties")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = MedicalSpecialty.CACHE_REGION)
 public class MedicalSpecialty {
+    public static final String CACHE_REGION = "reference-specialties";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
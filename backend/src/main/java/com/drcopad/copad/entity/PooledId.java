@@ -0,0 +1,28 @@
+package com.drcopad.copad.entity;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Id assigned by {@link PooledIdAllocator} instead of AUTO_INCREMENT, so inserts of the entity can
+ * be batched.
+ */
+@IdGeneratorType(PooledIdAllocator.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface PooledId {
+
+    /**
+     * The entity's table; its ids are reserved under this name in {@code id_allocations}.
+     */
+    String table();
+
+    /**
+     * Ids reserved per round trip. Unused ids are lost on restart, leaving gaps.
+     */
+    int allocationSize() default 50;
+}
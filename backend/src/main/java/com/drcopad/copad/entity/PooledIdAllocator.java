@@ -0,0 +1,171 @@
+package com.drcopad.copad.entity;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.factory.spi.CustomIdGeneratorCreationContext;
+import org.hibernate.jdbc.AbstractReturningWork;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Member;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Hands out ids from blocks reserved in {@code id_allocations}. Hibernate cannot batch inserts
+ * into IDENTITY tables because it needs each row's key back before the next statement; with the
+ * id known up front, the inserts of a flush go out as one JDBC batch.
+ * <p>
+ * A block is reserved with a single UPDATE on its own connection and committed immediately, so a
+ * rolled back transaction only leaves a gap. That connection comes from the pool registered with
+ * {@link #useConnections}, not the application's: callers wait for the refill while holding their
+ * transaction's connection, and when all of those are taken a refill from the same pool never
+ * gets one. The first block for a table starts after its current
+ * {@code MAX(id)}, which lets existing AUTO_INCREMENT tables switch over as they are. Every insert
+ * into such a table must then go through the entity: one that leaves the id to AUTO_INCREMENT
+ * can take an id from a reserved block.
+ * <p>
+ * Ids are unique but not chronological: each instance draws from its own block, so a newer row
+ * can have a smaller id than an older one from another instance. Order such rows by their
+ * timestamp, with the id only as a tie-breaker.
+ */
+public class PooledIdAllocator implements IdentifierGenerator {
+
+    static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS id_allocations ("
+        + "table_name VARCHAR(64) NOT NULL PRIMARY KEY, next_id BIGINT NOT NULL)";
+    // Plain SQL run in the block's own transaction, so it works on MySQL and on H2 alike
+    static final String LOCK = "SELECT next_id FROM id_allocations WHERE table_name = ? FOR UPDATE";
+    static final String ADVANCE = "UPDATE id_allocations SET next_id = next_id + ? WHERE table_name = ?";
+    static final String SEED = "INSERT INTO id_allocations (table_name, next_id) SELECT ?, COALESCE(MAX(id), 0) + 1 FROM ";
+
+    private static volatile DataSource connections;
+
+    private final String table;
+    private final int allocationSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long next;
+    private long limit;  // exclusive; next == limit means the block is used up
+    // Per allocator, so a new session factory on another database creates the table there too
+    private boolean tableCreated;
+
+    public PooledIdAllocator(PooledId config, Member member, CustomIdGeneratorCreationContext context) {
+        this(config.table(), config.allocationSize());
+    }
+
+    PooledIdAllocator(String table, int allocationSize) {
+        if (!table.matches("[A-Za-z0-9_]+")) {
+            throw new IllegalArgumentException("Invalid table name for pooled ids: " + table);
+        }
+        if (allocationSize < 1) {
+            throw new IllegalArgumentException("allocationSize must be positive");
+        }
+        this.table = table;
+        this.allocationSize = allocationSize;
+    }
+
+    /**
+     * Reserve blocks on connections from {@code dataSource}; until this is called they go through
+     * Hibernate's isolation delegate on the session's own pool.
+     */
+    public static void useConnections(DataSource dataSource) {
+        connections = dataSource;
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object object) {
+        DataSource dataSource = connections;
+        if (dataSource != null) {
+            return nextId(size -> reserve(dataSource, size));
+        }
+        return nextId(size -> session.getTransactionCoordinator().createIsolationDelegate().delegateWork(
+            new AbstractReturningWork<Long>() {
+                @Override
+                public Long execute(Connection connection) throws SQLException {
+                    return reserve(connection, size);
+                }
+            }, true));
+    }
+
+    /**
+     * The next id, reserving a block of {@code allocationSize} through {@code reserveBlock} (which
+     * returns the block's first id) when the current one is used up.
+     */
+    long nextId(LongUnaryOperator reserveBlock) {
+        lock.lock();
+        try {
+            if (next == limit) {
+                long start = reserveBlock.applyAsLong(allocationSize);
+                next = start;
+                limit = start + allocationSize;
+            }
+            return next++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserve a block in its own transaction on a connection from {@code dataSource}.
+     */
+    long reserve(DataSource dataSource, long size) {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                long start = reserve(connection, size);
+                connection.commit();
+                return start;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new HibernateException("Could not reserve ids for " + table, e);
+        }
+    }
+
+    /**
+     * Reserve a block and return its first id. The caller commits: the row lock is held until then.
+     */
+    long reserve(Connection connection, long size) throws SQLException {
+        if (!tableCreated) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_TABLE);
+            }
+            tableCreated = true;
+        }
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try (PreparedStatement lock = connection.prepareStatement(LOCK)) {
+                lock.setString(1, table);
+                try (ResultSet row = lock.executeQuery()) {
+                    if (row.next()) {
+                        long start = row.getLong(1);
+                        try (PreparedStatement advance = connection.prepareStatement(ADVANCE)) {
+                            advance.setLong(1, size);
+                            advance.setString(2, table);
+                            advance.executeUpdate();
+                        }
+                        return start;
+                    }
+                }
+            }
+            // First block for this table; if another instance seeds it at the same time, its row wins
+            try (PreparedStatement seed = connection.prepareStatement(SEED + table)) {
+                seed.setString(1, table);
+                seed.executeUpdate();
+            } catch (SQLException e) {
+                if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                    throw e;
+                }
+            }
+        }
+        throw new HibernateException("Could not reserve ids for " + table);
+    }
+}
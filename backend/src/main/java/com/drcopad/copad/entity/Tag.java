@@ -3,6 +3,8 @@ package com.drcopad.copad.entity;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -10,7 +12,10 @@ import java.util.Set;
 @Entity
 @Data
 @NoArgsConstructor
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Tag.CACHE_REGION)
 public class Tag {
+    public static final String CACHE_REGION = "reference-tags";
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
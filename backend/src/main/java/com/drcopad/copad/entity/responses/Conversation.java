@@ -53,6 +53,23 @@ public class Conversation {
     @Column(name = "last_openai_response_id")
     private String lastOpenaiResponseId;
     
+    // Input tokens billed for the latest turn, i.e. the size of the chained context
+    @Column(name = "context_input_tokens")
+    @Builder.Default
+    private Integer contextInputTokens = 0;
+    
+    @Column(name = "cumulative_input_tokens")
+    @Builder.Default
+    private Long cumulativeInputTokens = 0L;
+    
+    // Summary of the chains compacted so far; sent with the instructions of every later turn
+    @Column(name = "context_summary", columnDefinition = "LONGTEXT")
+    private String contextSummary;
+    
+    @Column(name = "compaction_count")
+    @Builder.Default
+    private Integer compactionCount = 0;
+    
     @Column(nullable = false, length = 50)
     @Builder.Default
     private String model = "o3";
@@ -79,6 +96,12 @@ public class Conversation {
     @Column(nullable = false)
     private LocalDateTime expiresAt;
     
+    // Bumped by every write, including the bulk chain updates; a cached copy with an older
+    // version is stale (see ConversationStateCache)
+    @Version
+    @Column(nullable = false, columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    private Long version;
+    
     @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL, orphanRemoval = true)
     @Builder.Default
     private List<OpenAIResponse> responses = new ArrayList<>();
@@ -0,0 +1,54 @@
+package com.drcopad.copad.entity.responses;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Audit record of one compaction: the response chain that was summarized, ending at
+ * {@code compactedResponseId}, and the summary the next chain starts from. The full old chain
+ * stays reachable through {@link OpenAIResponse#getPreviousResponseId()}.
+ */
+@Entity
+@Table(name = "conversation_compactions", indexes = {
+    @Index(name = "idx_compaction_conversation_id", columnList = "conversationId")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ConversationCompaction {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "conversation_id", nullable = false)
+    private String conversationId;
+
+    // Last response of the chain that was summarized
+    @Column(name = "compacted_response_id", nullable = false)
+    private String compactedResponseId;
+
+    // Response that produced the summary (not stored by OpenAI)
+    @Column(name = "summary_response_id")
+    private String summaryResponseId;
+
+    @Column(name = "summary", nullable = false, columnDefinition = "LONGTEXT")
+    private String summary;
+
+    @Column(name = "context_input_tokens")
+    private Integer contextInputTokens;
+
+    @Column(name = "summary_model", length = 50)
+    private String summaryModel;
+
+    @CreationTimestamp
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,102 @@
+package com.drcopad.copad.entity.responses;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A chat turn submitted to the Responses API in background mode. The row is the source of truth
+ * for the poller, so jobs survive a restart and a paid-for response is never dropped.
+ * <p>
+ * Lifecycle: queued -> submitting -> in_progress -> completed | failed | cancelled.
+ */
+@Entity
+@Table(name = "llm_jobs", indexes = {
+    @Index(name = "idx_job_id", columnList = "jobId"),
+    @Index(name = "idx_job_chat_id", columnList = "chatId"),
+    @Index(name = "idx_job_status_next_poll", columnList = "status, nextPollAt")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class LlmJob {
+
+    public static final String QUEUED = "queued";
+    public static final String SUBMITTING = "submitting";
+    public static final String IN_PROGRESS = "in_progress";
+    public static final String COMPLETED = "completed";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "job_id", nullable = false, unique = true)
+    private String jobId;
+
+    @Column(name = "chat_id", nullable = false)
+    private String chatId;
+
+    @Column(name = "conversation_id", nullable = false)
+    private String conversationId;
+
+    @Column(name = "openai_response_id")
+    private String openaiResponseId;
+
+    @Column(nullable = false, length = 20)
+    @Builder.Default
+    private String status = QUEUED;
+
+    // Serialized ResponsesAPIRequest, replayed on submit and needed again to record the response
+    @Column(name = "request_payload", nullable = false, columnDefinition = "LONGTEXT")
+    private String requestPayload;
+
+    @Column(name = "result_text", columnDefinition = "LONGTEXT")
+    private String resultText;
+
+    @Column(name = "error_message", length = 1000)
+    private String errorMessage;
+
+    @Column(name = "poll_attempts", nullable = false)
+    @Builder.Default
+    private Integer pollAttempts = 0;
+
+    @Column(name = "next_poll_at", nullable = false)
+    private LocalDateTime nextPollAt;
+
+    @Column(name = "submitted_at")
+    private LocalDateTime submittedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    @CreationTimestamp
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    // Optimistic lock so only one node submits or completes a job
+    @Version
+    private Long version;
+
+    @PrePersist
+    public void prePersist() {
+        if (jobId == null) {
+            jobId = "job_" + UUID.randomUUID().toString();
+        }
+        if (nextPollAt == null) {
+            nextPollAt = LocalDateTime.now();
+        }
+    }
+
+    public boolean isFinished() {
+        return COMPLETED.equals(status) || FAILED.equals(status) || CANCELLED.equals(status);
+    }
+}
@@ -50,6 +50,20 @@ public class OpenAIResponse {
     @Column(nullable = false, length = 50)
     private String model;
     
+    // Routing decision for the turn; null when routing was disabled
+    @Column(name = "route_tier", length = 20)
+    private String routeTier;
+    
+    @Column(name = "route_reason", length = 50)
+    private String routeReason;
+    
+    @Column(name = "reasoning_effort", length = 10)
+    private String reasoningEffort;
+    
+    // Version of the system prompt template, see PromptTemplateRegistry
+    @Column(name = "prompt_version", length = 80)
+    private String promptVersion;
+    
     @Column(name = "tools_used", columnDefinition = "LONGTEXT")
     @Convert(converter = JsonListConverter.class)
     private List<String> toolsUsed;
@@ -66,6 +80,11 @@ public class OpenAIResponse {
     @Builder.Default
     private Integer totalTokens = 0;
     
+    // Part of prompt_tokens served from OpenAI's prompt cache
+    @Column(name = "cached_input_tokens")
+    @Builder.Default
+    private Integer cachedInputTokens = 0;
+    
     @Column(name = "response_time_ms")
     private Integer responseTimeMs;
     
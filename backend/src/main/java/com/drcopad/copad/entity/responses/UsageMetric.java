@@ -69,6 +69,14 @@ public class UsageMetric {
     @Builder.Default
     private Integer totalTokens = 0;
     
+    @Column(name = "cached_input_tokens")
+    @Builder.Default
+    private Integer cachedInputTokens = 0;
+    
+    @Column(name = "reasoning_tokens")
+    @Builder.Default
+    private Integer reasoningTokens = 0;
+    
     @Column(name = "input_cost", precision = 10, scale = 6)
     @Builder.Default
     private BigDecimal inputCost = BigDecimal.ZERO;
@@ -85,6 +93,14 @@ public class UsageMetric {
     @Builder.Default
     private BigDecimal toolsCost = BigDecimal.ZERO;
     
+    // Exact total in micro-dollars; the decimal columns above are derived from it
+    @Column(name = "cost_micros")
+    @Builder.Default
+    private Long costMicros = 0L;
+    
+    @Column(name = "price_version", length = 20)
+    private String priceVersion;
+    
     @Column(name = "tools_used", columnDefinition = "LONGTEXT")
     @Convert(converter = JsonListConverter.class)
     private List<String> toolsUsed;
@@ -93,6 +109,10 @@ public class UsageMetric {
     @Builder.Default
     private String apiType = "responses";
     
+    // Set when the row was written through TelemetryJournal; unique, so a replayed entry is skipped
+    @Column(name = "journal_entry_id", length = 36, unique = true)
+    private String journalEntryId;
+    
     @CreationTimestamp
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -0,0 +1,10 @@
+package com.drcopad.copad.exception;
+
+/**
+ * Thrown when an {@code Idempotency-Key} is reused for a different request. Maps to 422.
+ */
+public class IdempotencyKeyConflictException extends RuntimeException {
+    public IdempotencyKeyConflictException(String message) {
+        super(message);
+    }
+}
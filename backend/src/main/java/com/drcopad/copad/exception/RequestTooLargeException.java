@@ -0,0 +1,10 @@
+package com.drcopad.copad.exception;
+
+/**
+ * Thrown when a turn's estimated input exceeds the configured token budget. Maps to 413.
+ */
+public class RequestTooLargeException extends RuntimeException {
+    public RequestTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package com.drcopad.copad.exception;
+
+/**
+ * Thrown when a request is shed because the upstream model is saturated. Maps to 503.
+ */
+public class ServiceOverloadedException extends RuntimeException {
+    public ServiceOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,44 @@
+package com.drcopad.copad.exception;
+
+import java.time.Duration;
+
+/**
+ * Non-2xx answer from OpenAI, keeping the status so callers can tell throttling and outages
+ * (429, 5xx) apart from request errors.
+ */
+public class UpstreamHttpException extends RuntimeException {
+
+    private final int statusCode;
+    private final String responseBody;
+    private final Duration retryAfter;
+
+    public UpstreamHttpException(int statusCode, String responseBody) {
+        this(statusCode, responseBody, null);
+    }
+
+    public UpstreamHttpException(int statusCode, String responseBody, Duration retryAfter) {
+        super("OpenAI API error: " + statusCode + " - " + responseBody);
+        this.statusCode = statusCode;
+        this.responseBody = responseBody;
+        this.retryAfter = retryAfter;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getResponseBody() {
+        return responseBody;
+    }
+
+    /**
+     * Wait the server asked for before the next attempt, null if it did not say.
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    public boolean isOverload() {
+        return statusCode == 429 || statusCode >= 500;
+    }
+}
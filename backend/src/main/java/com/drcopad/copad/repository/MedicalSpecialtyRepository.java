@@ -1,12 +1,27 @@
 package com.drcopad.copad.repository;
 
 import com.drcopad.copad.entity.MedicalSpecialty;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 import java.util.List;
 import java.util.Optional;
 
 public interface MedicalSpecialtyRepository extends JpaRepository<MedicalSpecialty, Long> {
+    String QUERY_CACHE_REGION = "reference-specialty-queries";
+
     Optional<MedicalSpecialty> findByName(String name);
+
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+        @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = QUERY_CACHE_REGION)
+    })
     Optional<MedicalSpecialty> findByCode(String code);
+
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+        @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = QUERY_CACHE_REGION)
+    })
     List<MedicalSpecialty> findByIsActiveTrue();
 } 
\ No newline at end of file
@@ -0,0 +1,13 @@
+package com.drcopad.copad.repository.responses;
+
+import com.drcopad.copad.entity.responses.ConversationCompaction;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ConversationCompactionRepository extends JpaRepository<ConversationCompaction, Long> {
+
+    List<ConversationCompaction> findByConversationIdOrderByCreatedAt(String conversationId);
+}
@@ -26,9 +26,53 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
     List<Conversation> findExpiredConversations(@Param("now") LocalDateTime now);
     
     @Modifying
-    @Query("UPDATE Conversation c SET c.status = 'expired' WHERE c.expiresAt < :now AND c.status = 'active'")
+    @Query("UPDATE Conversation c SET c.status = 'expired', c.version = c.version + 1 WHERE c.expiresAt < :now AND c.status = 'active'")
     int expireOldConversations(@Param("now") LocalDateTime now);
     
+    /**
+     * Passed as {@code expectedVersion} to update whatever version the row has.
+     */
+    long ANY_VERSION = -1;
+    
+    /**
+     * Move the chain to a new response in one statement; a chained turn is billed for the whole
+     * chain, so its input tokens are the current context size. Returns 0 if the row's version is
+     * no longer {@code expectedVersion}.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE Conversation c SET c.lastOpenaiResponseId = :responseId, c.contextInputTokens = :inputTokens, " +
+           "c.cumulativeInputTokens = COALESCE(c.cumulativeInputTokens, 0) + :inputTokens, c.updatedAt = :now, " +
+           "c.version = c.version + 1 " +
+           "WHERE c.conversationId = :conversationId AND (:expectedVersion < 0 OR c.version = :expectedVersion)")
+    int advanceChain(@Param("conversationId") String conversationId, @Param("responseId") String responseId,
+                     @Param("inputTokens") int inputTokens, @Param("now") LocalDateTime now,
+                     @Param("expectedVersion") long expectedVersion);
+    
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE Conversation c SET c.lastOpenaiResponseId = :responseId, c.updatedAt = :now, " +
+           "c.version = c.version + 1 " +
+           "WHERE c.conversationId = :conversationId AND (:expectedVersion < 0 OR c.version = :expectedVersion)")
+    int updateLastResponseId(@Param("conversationId") String conversationId, @Param("responseId") String responseId,
+                             @Param("now") LocalDateTime now, @Param("expectedVersion") long expectedVersion);
+    
+    /**
+     * Give a conversation that has no chain yet a context summary, so its next turn starts a chain
+     * of its own carrying that context. Returns 0 if a chain or summary already exists.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE Conversation c SET c.contextSummary = :summary, c.updatedAt = :now, c.version = c.version + 1 " +
+           "WHERE c.conversationId = :conversationId AND c.lastOpenaiResponseId IS NULL AND c.contextSummary IS NULL")
+    int seedContextSummary(@Param("conversationId") String conversationId, @Param("summary") String summary,
+                           @Param("now") LocalDateTime now);
+    
+    /**
+     * Whether the conversation belongs to the given user or guest session; a null id matches nothing.
+     */
+    @Query("SELECT COUNT(c) > 0 FROM Conversation c LEFT JOIN c.user u LEFT JOIN c.guestSession g " +
+           "WHERE c.conversationId = :conversationId AND (u.id = :userId OR g.sessionId = :guestSessionId)")
+    boolean isOwnedBy(@Param("conversationId") String conversationId, @Param("userId") Long userId,
+                      @Param("guestSessionId") String guestSessionId);
+    
     @Query("SELECT COUNT(c) FROM Conversation c WHERE c.createdAt >= :startDate AND c.createdAt < :endDate")
     long countConversationsInDateRange(@Param("startDate") LocalDateTime startDate, @Param("endDate") LocalDateTime endDate);
     
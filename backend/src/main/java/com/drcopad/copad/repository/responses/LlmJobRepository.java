@@ -0,0 +1,22 @@
+package com.drcopad.copad.repository.responses;
+
+import com.drcopad.copad.entity.responses.LlmJob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface LlmJobRepository extends JpaRepository<LlmJob, Long> {
+
+    Optional<LlmJob> findByJobId(String jobId);
+
+    @Query("SELECT j FROM LlmJob j WHERE j.status IN ('queued', 'submitting', 'in_progress') " +
+           "AND j.nextPollAt <= :now ORDER BY j.nextPollAt")
+    List<LlmJob> findDueJobs(@Param("now") LocalDateTime now, Pageable pageable);
+}
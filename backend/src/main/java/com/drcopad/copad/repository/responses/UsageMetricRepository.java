@@ -8,6 +8,7 @@ import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -28,6 +29,22 @@ public interface UsageMetricRepository extends JpaRepository<UsageMetric, Long>
     @Query("SELECT SUM(u.totalTokens) FROM UsageMetric u WHERE u.guestSession.id = :sessionId AND u.createdAt >= :startDate")
     Long getTotalTokensForGuest(@Param("sessionId") Long sessionId, @Param("startDate") LocalDateTime startDate);
     
+    /**
+     * {@code [userId, SUM(totalCost)]} for those of the users with usage since {@code startDate}.
+     */
+    @Query("SELECT u.user.id, SUM(u.totalCost) FROM UsageMetric u " +
+           "WHERE u.user.id IN :userIds AND u.createdAt >= :startDate GROUP BY u.user.id")
+    List<Object[]> getTotalCostByUser(@Param("userIds") Collection<Long> userIds,
+                                      @Param("startDate") LocalDateTime startDate);
+    
+    /**
+     * {@code [guestSessionId, SUM(totalTokens)]} for those of the sessions with usage since {@code startDate}.
+     */
+    @Query("SELECT u.guestSession.id, SUM(u.totalTokens) FROM UsageMetric u " +
+           "WHERE u.guestSession.id IN :sessionIds AND u.createdAt >= :startDate GROUP BY u.guestSession.id")
+    List<Object[]> getTotalTokensByGuest(@Param("sessionIds") Collection<Long> sessionIds,
+                                         @Param("startDate") LocalDateTime startDate);
+    
     @Query("SELECT u.model, COUNT(u), SUM(u.totalTokens), SUM(u.totalCost) FROM UsageMetric u " +
            "WHERE u.createdAt >= :startDate GROUP BY u.model")
     List<Object[]> getUsageStatsByModel(@Param("startDate") LocalDateTime startDate);
@@ -0,0 +1,355 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.exception.RateLimitExceededException;
+import com.drcopad.copad.exception.ServiceOverloadedException;
+import com.drcopad.copad.exception.UpstreamHttpException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive in-flight limit for upstream model calls, one per model. The limit follows AIMD: every
+ * successful call while the limit is actually in use raises it by one, while throttling (429),
+ * upstream errors (5xx), timeouts and a rising latency trend cut it by {@code backoffRatio}.
+ * <p>
+ * Callers over the limit wait in a {@link FairWaitQueue}: authenticated users are served ahead of
+ * guests by weight, principals within a class take turns, and no principal may hold more than its
+ * share of slots. A principal with too many requests waiting gets a
+ * {@link RateLimitExceededException} (429); when the queue is full or the wait runs out callers get
+ * a {@link ServiceOverloadedException} (503) instead of piling more load onto a struggling upstream.
+ * Off-request work ({@link RequestPrincipal#INTERNAL}) is not capped per principal; it is bounded
+ * by the model limit and the queue alone.
+ * <p>
+ * All state is guarded by one lock rather than {@code synchronized}, so per-principal caps hold
+ * across models and callers on virtual threads never pin their carrier.
+ */
+@Slf4j
+@Service
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double SHORT_RTT_WEIGHT = 0.2;
+    private static final double LONG_RTT_WEIGHT = 0.02;
+
+    private final OpenAIResponsesConfig.ConcurrencyConfig config;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, ModelLimit> limits = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Integer> inFlightByKey = new HashMap<>();  // flow and guest IP keys, guarded by lock
+    private final Map<RequestPrincipal.Priority, Integer> weights;
+
+    public AdaptiveConcurrencyLimiter(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                                      MeterRegistry meterRegistry) {
+        this.config = responsesConfig.getConcurrency();
+        this.meterRegistry = meterRegistry;
+        this.weights = Map.of(
+                RequestPrincipal.Priority.AUTHENTICATED, config.getAuthenticatedWeight(),
+                RequestPrincipal.Priority.GUEST, config.getGuestWeight());
+    }
+
+    /**
+     * Run {@code call} once a slot for {@code model} is free. The slot is held until the call
+     * terminates or is cancelled, and its outcome feeds the limit. The caller is taken from the
+     * Reactor context, or else from the request bound to the assembling thread.
+     */
+    public <T> Mono<T> limit(String model, Mono<T> call) {
+        if (!config.isEnabled()) {
+            return call;
+        }
+        ModelLimit limit = modelLimit(model);
+        RequestPrincipal assembledFor = RequestPrincipal.current();
+        return acquire(limit, assembledFor).flatMap(permit -> call
+                .doOnSuccess(value -> permit.release(Outcome.SUCCESS))
+                .doOnError(e -> permit.release(isOverload(e) ? Outcome.DROPPED : Outcome.IGNORED))
+                .doOnCancel(() -> permit.release(Outcome.IGNORED)));
+    }
+
+    /**
+     * Streaming variant. The slot is held for the whole stream; stream duration says nothing
+     * about upstream health, so only errors feed the limit.
+     */
+    public <T> Flux<T> limitMany(String model, Flux<T> call) {
+        if (!config.isEnabled()) {
+            return call;
+        }
+        ModelLimit limit = modelLimit(model);
+        RequestPrincipal assembledFor = RequestPrincipal.current();
+        return acquire(limit, assembledFor).flatMapMany(permit -> call
+                .doOnComplete(() -> permit.release(Outcome.IGNORED))
+                .doOnError(e -> permit.release(isOverload(e) ? Outcome.DROPPED : Outcome.IGNORED))
+                .doOnCancel(() -> permit.release(Outcome.IGNORED)));
+    }
+
+    /**
+     * Current limit for {@code model}, or the initial limit if it has not been called yet.
+     */
+    public int currentLimit(String model) {
+        ModelLimit limit = limits.get(model);
+        return limit == null ? config.getInitialLimit() : (int) limit.limit;
+    }
+
+    private ModelLimit modelLimit(String model) {
+        return limits.computeIfAbsent(model == null ? "default" : model, ModelLimit::new);
+    }
+
+    private Mono<Permit> acquire(ModelLimit limit, RequestPrincipal assembledFor) {
+        return Mono.deferContextual(context -> Mono.<Permit>create(sink ->
+                        limit.enqueue(sink, context.getOrDefault(RequestPrincipal.CONTEXT_KEY, assembledFor))))
+                .timeout(Duration.ofMillis(config.getMaxQueueWait()))
+                .onErrorMap(TimeoutException.class, e -> {
+                    limit.rejectedTimeout.increment();
+                    return new ServiceOverloadedException(
+                            "Model " + limit.model + " is saturated, no slot freed up within "
+                                    + config.getMaxQueueWait() + "ms");
+                });
+    }
+
+    static boolean isOverload(Throwable e) {
+        if (e instanceof UpstreamHttpException upstream) {
+            return upstream.isOverload();
+        }
+        if (e instanceof WebClientResponseException response) {
+            return response.getStatusCode().value() == 429 || response.getStatusCode().is5xxServerError();
+        }
+        return e instanceof TimeoutException || e instanceof WebClientRequestException;
+    }
+
+    private boolean hasPrincipalCapacity(RequestPrincipal principal) {
+        if (principal.isInternal()) {
+            return true;
+        }
+        if (inFlightByKey.getOrDefault(principal.flow(), 0) >= config.getMaxInFlightPerPrincipal()) {
+            return false;
+        }
+        return principal.ip() == null
+                || inFlightByKey.getOrDefault("addr:" + principal.ip(), 0) < config.getMaxInFlightPerIp();
+    }
+
+    private void reservePrincipal(RequestPrincipal principal) {
+        inFlightByKey.merge(principal.flow(), 1, Integer::sum);
+        if (principal.ip() != null) {
+            inFlightByKey.merge("addr:" + principal.ip(), 1, Integer::sum);
+        }
+    }
+
+    private void releasePrincipal(RequestPrincipal principal) {
+        inFlightByKey.computeIfPresent(principal.flow(), (key, count) -> count > 1 ? count - 1 : null);
+        if (principal.ip() != null) {
+            inFlightByKey.computeIfPresent("addr:" + principal.ip(), (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private enum Outcome { SUCCESS, DROPPED, IGNORED }
+
+    private final class Permit {
+        private final ModelLimit owner;
+        private final RequestPrincipal principal;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(ModelLimit owner, RequestPrincipal principal) {
+            this.owner = owner;
+            this.principal = principal;
+        }
+
+        void release(Outcome outcome) {
+            if (released.compareAndSet(false, true)) {
+                owner.onRelease(this, outcome, System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final MonoSink<Permit> sink;
+        private final RequestPrincipal principal;
+        private Permit permit;  // set under the lock when the waiter is granted a slot
+
+        Waiter(MonoSink<Permit> sink, RequestPrincipal principal) {
+            this.sink = sink;
+            this.principal = principal;
+        }
+    }
+
+    /**
+     * Limit state and wait queue for one model.
+     */
+    private final class ModelLimit {
+        private final String model;
+        private final FairWaitQueue<Waiter> waiters = new FairWaitQueue<>(weights);
+        private final Counter rejectedQueueFull;
+        private final Counter rejectedTimeout;
+        private final Counter rejectedPrincipal;
+        private final Counter shedForPriority;
+        private volatile double limit;
+        private volatile int inFlight;
+        private volatile int queued;
+        private double shortRttNanos;
+        private double longRttNanos;
+
+        ModelLimit(String model) {
+            this.model = model;
+            this.limit = config.getInitialLimit();
+            Gauge.builder("llm.limiter.limit", this, l -> l.limit).tag("model", model)
+                    .description("Adaptive in-flight limit for upstream calls").register(meterRegistry);
+            Gauge.builder("llm.limiter.inflight", this, l -> l.inFlight).tag("model", model)
+                    .register(meterRegistry);
+            Gauge.builder("llm.limiter.queue", this, l -> l.queued).tag("model", model)
+                    .description("Callers waiting for a slot").register(meterRegistry);
+            this.rejectedQueueFull = rejected("queue_full");
+            this.rejectedTimeout = rejected("timeout");
+            this.rejectedPrincipal = rejected("principal_queue_full");
+            this.shedForPriority = rejected("shed_for_priority");
+        }
+
+        private Counter rejected(String reason) {
+            return Counter.builder("llm.limiter.rejected")
+                    .tag("model", model).tag("reason", reason).register(meterRegistry);
+        }
+
+        void enqueue(MonoSink<Permit> sink, RequestPrincipal principal) {
+            Waiter waiter = new Waiter(sink, principal);
+            Permit granted = null;
+            Waiter shed = null;
+            RuntimeException rejection = null;
+            lock.lock();
+            try {
+                // Slots are handed to eligible waiters as soon as they free up, so anyone still
+                // queued is blocked by their own principal cap and need not be waited behind
+                if (inFlight < (int) limit && hasPrincipalCapacity(principal)) {
+                    granted = grant(principal);
+                } else if (!principal.isInternal() && waiters.size(principal) >= config.getMaxQueuedPerPrincipal()) {
+                    rejectedPrincipal.increment();
+                    rejection = new RateLimitExceededException(
+                            "Too many requests in progress, please wait for the previous answer.");
+                } else if (waiters.size() >= config.getMaxQueueSize()) {
+                    shed = principal.priority() == RequestPrincipal.Priority.AUTHENTICATED
+                            ? waiters.pollNewest(RequestPrincipal.Priority.GUEST)
+                            : null;
+                    if (shed == null) {
+                        rejectedQueueFull.increment();
+                        rejection = new ServiceOverloadedException(
+                                "Model " + model + " is saturated, " + config.getMaxQueueSize() + " requests already waiting");
+                    } else {
+                        shedForPriority.increment();
+                        waiters.add(principal, waiter);
+                    }
+                } else {
+                    waiters.add(principal, waiter);
+                }
+                queued = waiters.size();
+            } finally {
+                lock.unlock();
+            }
+
+            if (granted != null) {
+                sink.success(granted);
+                return;
+            }
+            if (rejection != null) {
+                sink.error(rejection);
+                return;
+            }
+            sink.onCancel(() -> abandon(waiter));
+            if (shed != null) {
+                shed.sink.error(new ServiceOverloadedException("Model " + model + " is saturated, guest request shed"));
+            }
+        }
+
+        private Permit grant(RequestPrincipal principal) {
+            inFlight++;
+            reservePrincipal(principal);
+            return new Permit(this, principal);
+        }
+
+        /**
+         * The caller gave up (timeout or client went away). If a slot was granted concurrently it
+         * never reached the caller, so give it back.
+         */
+        private void abandon(Waiter waiter) {
+            Permit orphaned;
+            lock.lock();
+            try {
+                waiters.remove(waiter.principal, waiter);
+                queued = waiters.size();
+                orphaned = waiter.permit;
+            } finally {
+                lock.unlock();
+            }
+            if (orphaned != null) {
+                orphaned.release(Outcome.IGNORED);
+            }
+        }
+
+        void onRelease(Permit permit, Outcome outcome, long rttNanos) {
+            List<Waiter> granted = new ArrayList<>();
+            lock.lock();
+            try {
+                inFlight--;
+                releasePrincipal(permit.principal);
+                double previous = limit;
+                if (outcome == Outcome.DROPPED) {
+                    decrease();
+                } else if (outcome == Outcome.SUCCESS) {
+                    shortRttNanos = shortRttNanos == 0 ? rttNanos : ewma(shortRttNanos, rttNanos, SHORT_RTT_WEIGHT);
+                    longRttNanos = longRttNanos == 0 ? rttNanos : ewma(longRttNanos, rttNanos, LONG_RTT_WEIGHT);
+                    if (shortRttNanos > longRttNanos * config.getLatencyTolerance()) {
+                        decrease();
+                        // Require fresh evidence before backing off again
+                        shortRttNanos = longRttNanos;
+                    } else if ((inFlight + 1) * 2 >= limit) {
+                        limit = Math.min(config.getMaxLimit(), limit + 1);
+                    }
+                }
+                if ((int) previous != (int) limit) {
+                    log.debug("Concurrency limit for {} changed {} -> {}", model, (int) previous, (int) limit);
+                }
+                // The freed principal slot may unblock waiters on other models too
+                for (ModelLimit modelLimit : limits.values()) {
+                    modelLimit.grantWaiters(granted);
+                }
+            } finally {
+                lock.unlock();
+            }
+            // Signal outside the lock, the granted callers start their calls synchronously
+            granted.forEach(waiter -> waiter.sink.success(waiter.permit));
+        }
+
+        private void decrease() {
+            limit = Math.max(config.getMinLimit(), limit * config.getBackoffRatio());
+        }
+
+        private void grantWaiters(List<Waiter> granted) {
+            while (inFlight < (int) limit) {
+                Waiter waiter = waiters.poll(candidate -> hasPrincipalCapacity(candidate.principal));
+                if (waiter == null) {
+                    break;
+                }
+                waiter.permit = grant(waiter.principal);
+                granted.add(waiter);
+            }
+            queued = waiters.size();
+        }
+
+        private static double ewma(double current, double sample, double weight) {
+            return current + weight * (sample - current);
+        }
+    }
+}
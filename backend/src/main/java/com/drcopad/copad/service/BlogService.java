@@ -44,6 +44,7 @@ public class BlogService {
     private final TagService tagService;
     private final UserRepository userRepository;
     private final TagRepository tagRepository;
+    private final ReferenceDataCache referenceDataCache;
     
     @Value("${upload.base-dir}")
     private String uploadDir;
@@ -381,6 +382,7 @@ private String createSlug(String title) {
         tag.setSlug(slug);
         
         Tag updatedTag = tagRepository.save(tag);
+        referenceDataCache.evictTags();
         
         TagDTO dto = new TagDTO();
         dto.setId(updatedTag.getId());
@@ -406,6 +408,7 @@ private String createSlug(String title) {
         }
         
         tagRepository.delete(tag);
+        referenceDataCache.evictTags();
     }
     
     /**
@@ -542,6 +545,7 @@ private String createSlug(String title) {
         tag.setSlug(slug);
         
         Tag savedTag = tagRepository.save(tag);
+        referenceDataCache.evictTags();
         
         // Convert to DTO
         TagDTO dto = new TagDTO();
@@ -7,6 +7,8 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
 
 import org.springframework.beans.factory.annotation.Value;
@@ -20,8 +22,9 @@ import com.drcopad.copad.dto.Message;
 import com.drcopad.copad.dto.MessageContent;
 import com.drcopad.copad.entity.ChatMessage;
 import com.drcopad.copad.entity.FileAttachment;
-import com.drcopad.copad.entity.MedicalSpecialty;
-import com.drcopad.copad.repository.MedicalSpecialtyRepository;
+import com.drcopad.copad.exception.RateLimitExceededException;
+import com.drcopad.copad.exception.ServiceOverloadedException;
+import com.drcopad.copad.exception.UpstreamHttpException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import lombok.RequiredArgsConstructor;
@@ -33,12 +36,17 @@ import reactor.core.publisher.Mono;
 @RequiredArgsConstructor
 public class ChatGPTService {
 
+    private static final String NO_CONTENT_REPLY = "I apologize, but I couldn't generate a response. Please try again.";
+    private static final String ERROR_REPLY = "I apologize, but I'm having trouble processing your request at the moment. Please try again later.";
+
     private final WebClient webClient;
     private final ChatGPTConfig chatGPTConfig;
     private final ObjectMapper objectMapper;
-    private final MedicalSpecialtyRepository specialtyRepository;
-    private final LanguageMappingService languageMappingService;
+    private final PromptTemplateRegistry promptTemplateRegistry;
     private final DocumentExtractionService documentExtractionService;
+    private final ResponseCacheService responseCacheService;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final HistoryWindowBuilder historyWindowBuilder;
     
     public ChatGPTConfig getChatGPTConfig() {
         return chatGPTConfig;
@@ -57,66 +65,50 @@ public class ChatGPTService {
     public String getChatResponse(String newUserMessage, List<ChatMessage> history, String specialtyCode, String language, List<FileAttachment> attachments) {
         List<Message> messages = new ArrayList<>();
         
-        // Get specialty-specific prompt
-        MedicalSpecialty specialty = specialtyRepository.findByCode(specialtyCode)
-            .orElseThrow(() -> new IllegalArgumentException("Invalid specialty code: " + specialtyCode));
-            
-        // Add specialty-specific system prompt with language instruction
-        String fullLanguageName = languageMappingService.getFullLanguageName(language);
-
-        // Enhanced system prompt that handles files and images
-        String systemPrompt = specialty.getSystemPrompt() +
-            "\nYou are an AI doctor providing practical medical information.\n" +
-            // "\nYou are an AI doctor providing concise, practical medical information. Follow these guidelines:\n" +
-            // "1. Give direct, actionable advice without unnecessary introductions.\n" +
-            // "2. Use simple language and short sentences.\n" +
-            // "3. Format your responses as brief bullet points when possible.\n" +
-            // "4. Include this disclaimer with medical recommendations: \"These suggestions are not medical advice. Please consult your doctor.\"\n" +
-            // "5. Admit knowledge gaps directly without speculation.\n" +
-            // "6. Only share evidence-based information.\n" +
-            // "7. List common medication side effects briefly when relevant.\n" +
-            // "8. Never diagnose - describe potential conditions only.\n" +
-            // "9. Clearly flag emergency symptoms requiring immediate care.\n" +
-            // "10. Stay within your knowledge scope.\n" +
-            // "11. Prioritize the most effective solutions first.\n" +
-            // "12. For images that appear to show medical conditions, explain what you can observe but emphasize that a proper in-person medical evaluation is necessary.\n" +
-            (fullLanguageName != null ? String.format("\nPlease respond in %s.", fullLanguageName) : "");
+        // Specialty prompt with the language instruction, built once per (specialty, language)
+        String systemPrompt = promptTemplateRegistry.get(specialtyCode, language).text();
 
         // messages.add(new Message("system", systemPrompt));
 
-        // Add message history
-        // for (ChatMessage c : history) {
-        //     String role = c.getSender().equalsIgnoreCase("USER") ? "user" : "assistant";
-            
-        //     // Regular text message
-        //     if (c.getAttachments() == null || c.getAttachments().isEmpty()) {
-        //         messages.add(new Message(role, c.getMessage()));
-        //     } else {
-        //         // Message with attachments - handle differently
-        //         processMessageWithAttachments(messages, c, role);
-        //     }
-        // }
+        // Callers may already have saved the current message; it is added below with its attachments
+        List<ChatMessage> previous = history;
+        if (!history.isEmpty() && newUserMessage.equals(history.get(history.size() - 1).getMessage())) {
+            previous = history.subList(0, history.size() - 1);
+        }
+
+        // Recent history within the token budget, older messages as a rolling summary
+        messages.addAll(historyWindowBuilder.build(previous));
 
         // Process current message
-        if (history.isEmpty() || !history.get(history.size() - 1).getMessage().equals(newUserMessage)) {
-            // Only process the current user message if it's not already in history
-            // (this prevents duplicate messages in the OpenAI request)
-            
-            // Check if we have attachments for the current message
-            if (attachments != null && !attachments.isEmpty()) {
-                // Create a temporary ChatMessage to process with attachments
-                ChatMessage tempMessage = new ChatMessage();
-                tempMessage.setMessage(newUserMessage);
-                tempMessage.setSender("USER");
-                tempMessage.setAttachments(attachments);
-                processMessageWithAttachments(messages, tempMessage, "user");
-            } else {
-                // Regular text message
-                messages.add(new Message("user", newUserMessage));
+        if (attachments != null && !attachments.isEmpty()) {
+            // Create a temporary ChatMessage to process with attachments
+            ChatMessage tempMessage = new ChatMessage();
+            tempMessage.setMessage(newUserMessage);
+            tempMessage.setSender("USER");
+            tempMessage.setAttachments(attachments);
+            processMessageWithAttachments(messages, tempMessage, "user");
+        } else {
+            // Regular text message
+            messages.add(new Message("user", newUserMessage));
+        }
+
+        // Only opening questions are worth sharing across chats
+        String cacheKey = null;
+        if (previous.isEmpty() && (attachments == null || attachments.isEmpty())
+                && !chatGPTConfig.isUseDummyData() && responseCacheService.isEnabledFor(specialtyCode)) {
+            cacheKey = responseCacheService.key(systemPrompt, language, chatGPTConfig.getOpenai().getModel(), newUserMessage);
+            Optional<ResponseCacheService.CachedAnswer> cached = responseCacheService.lookup(cacheKey);
+            if (cached.isPresent()) {
+                return cached.get().text();
             }
         }
 
-        return getChatGPTResponse(messages).block();
+        String reply = getChatGPTResponse(messages).block();
+        if (cacheKey != null && reply != null && !Set.of(NO_CONTENT_REPLY, ERROR_REPLY).contains(reply)) {
+            responseCacheService.store(cacheKey, new ResponseCacheService.CachedAnswer(
+                reply, null, chatGPTConfig.getOpenai().getModel()));
+        }
+        return reply;
     }
     
     private void processMessageWithAttachments(List<Message> messages, ChatMessage chatMessage, String role) {
@@ -259,7 +251,7 @@ public class ChatGPTService {
             log.error("Error serializing request", e);
         }
 
-        return webClient.post()
+        return concurrencyLimiter.limit(request.getModel(), webClient.post()
                 .uri(chatGPTConfig.getOpenai().getUrl())
                 .header("Authorization", "Bearer " + chatGPTConfig.getOpenai().getKey())
                 .header("Content-Type", "application/json")
@@ -269,9 +261,9 @@ public class ChatGPTService {
                     response -> response.bodyToMono(String.class)
                         .flatMap(body -> {
                             log.error("OpenAI API error response: Status={}, Body={}", response.statusCode(), body);
-                            return Mono.error(new RuntimeException("OpenAI API error: " + response.statusCode() + " - " + body));
+                            return Mono.error(new UpstreamHttpException(response.statusCode().value(), body));
                         }))
-                .bodyToMono(ChatGPTResponse.class)
+                .bodyToMono(ChatGPTResponse.class))
                 .map(response -> {
                     log.info("Received response from ChatGPT API: {}", response);
                     if (response.getChoices() != null && !response.getChoices().isEmpty()) {
@@ -281,9 +273,10 @@ public class ChatGPTService {
                         }
                         log.warn("Response content is null from OpenAI API");
                     }
-                    return "I apologize, but I couldn't generate a response. Please try again.";
+                    return NO_CONTENT_REPLY;
                 })
-                .onErrorResume(e -> {
+                // Shedding by the limiter is surfaced to the caller as 429/503, not as an apology text
+                .onErrorResume(e -> !(e instanceof ServiceOverloadedException || e instanceof RateLimitExceededException), e -> {
                     log.error("Error calling ChatGPT API. Error details: {}", e.getMessage(), e);
                     if (e.getMessage() != null) {
                         log.error("Full error stack trace:", e);
@@ -295,7 +288,7 @@ public class ChatGPTService {
                             log.error("Status code: {}", responseException.getStatusCode());
                         }
                     }
-                    return Mono.just("I apologize, but I'm having trouble processing your request at the moment. Please try again later.");
+                    return Mono.just(ERROR_REPLY);
                 });
     }
 
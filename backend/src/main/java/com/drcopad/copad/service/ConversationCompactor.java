@@ -0,0 +1,207 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.dto.ResponsesAPIRequest;
+import com.drcopad.copad.dto.ResponsesAPIResponse;
+import com.drcopad.copad.entity.responses.Conversation;
+import com.drcopad.copad.entity.responses.UsageMetric;
+import com.drcopad.copad.exception.UpstreamHttpException;
+import com.drcopad.copad.repository.responses.ConversationRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps {@code previous_response_id} chains short. Every chained turn is billed for the whole
+ * stored context, so once a turn's input passes {@code compaction.triggerInputTokens} the chain is
+ * summarized by a cheap model and the conversation starts a fresh chain seeded with the summary
+ * (see {@link ConversationManager#applyCompaction}).
+ * <p>
+ * Compaction runs after the triggering turn has been committed and off the request path, so no
+ * user waits for it. If another turn lands on the chain meanwhile the summary is discarded and
+ * the next turn triggers a new attempt.
+ */
+@Slf4j
+@Service
+public class ConversationCompactor {
+
+    private static final String SUMMARY_INSTRUCTIONS = """
+        You maintain the clinical memory of a consultation between a patient and an AI doctor. \
+        Write a concise summary that lets the conversation continue without the transcript: \
+        the patient's details (age, sex, conditions, medications, allergies), symptoms with onset and \
+        course, results and documents discussed, advice already given, open questions and red flags. \
+        Keep numbers, units and drug names exact. Write in the language of the conversation. \
+        Do not add advice that was not given.""";
+
+    private final WebClient webClient;
+    private final OpenAIResponsesConfig responsesConfig;
+    private final ConversationManager conversationManager;
+    private final ConversationRepository conversationRepository;
+    private final CostCalculationService costCalculationService;
+    private final ChatGPTService chatGPTService;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final UpstreamRetry upstreamRetry;
+    private final TransactionTemplate transactionTemplate;
+    private final Scheduler jdbcScheduler;
+    private final MeterRegistry meterRegistry;
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+
+    public ConversationCompactor(WebClient webClient,
+                                 @Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                                 ConversationManager conversationManager,
+                                 ConversationRepository conversationRepository,
+                                 CostCalculationService costCalculationService,
+                                 ChatGPTService chatGPTService,
+                                 AdaptiveConcurrencyLimiter concurrencyLimiter,
+                                 UpstreamRetry upstreamRetry,
+                                 TransactionTemplate transactionTemplate,
+                                 @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
+                                 MeterRegistry meterRegistry) {
+        this.webClient = webClient;
+        this.responsesConfig = responsesConfig;
+        this.conversationManager = conversationManager;
+        this.conversationRepository = conversationRepository;
+        this.costCalculationService = costCalculationService;
+        this.chatGPTService = chatGPTService;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.upstreamRetry = upstreamRetry;
+        this.transactionTemplate = transactionTemplate;
+        this.jdbcScheduler = jdbcScheduler;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Start compaction if the turn that just ended at {@code responseId} was billed for more input
+     * than the trigger. Inside a transaction this waits for the commit.
+     */
+    public void compactIfNeeded(String conversationId, String responseId, ResponsesAPIResponse.Usage usage) {
+        OpenAIResponsesConfig.CompactionConfig config = responsesConfig.getCompaction();
+        if (!config.isEnabled() || responseId == null || usage == null
+                || usage.inputTokens() < config.getTriggerInputTokens()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    compact(conversationId, responseId).subscribe();
+                }
+            });
+        } else {
+            compact(conversationId, responseId).subscribe();
+        }
+    }
+
+    /**
+     * Summarize the chain ending at {@code responseId} and apply it. Emits whether the
+     * conversation was compacted; failures are logged and emit false.
+     */
+    Mono<Boolean> compact(String conversationId, String responseId) {
+        if (!inProgress.add(conversationId)) {
+            return Mono.just(false);
+        }
+        OpenAIResponsesConfig.CompactionConfig config = responsesConfig.getCompaction();
+        return Mono.fromCallable(() -> conversationRepository.findByConversationId(conversationId).orElse(null))
+            .subscribeOn(jdbcScheduler)
+            .flatMap(conversation -> summarize(conversation, responseId, config))
+            .publishOn(jdbcScheduler)
+            .map(response -> {
+                String summary = summaryText(response);
+                if (summary == null || summary.isBlank()) {
+                    log.warn("Compaction of conversation {} returned no summary", conversationId);
+                    return false;
+                }
+                Boolean applied = transactionTemplate.execute(status -> {
+                    recordUsage(conversationId, config.getModel(), response);
+                    return conversationManager.applyCompaction(conversationId, responseId, summary,
+                        response.getId(), config.getModel());
+                });
+                boolean compacted = Boolean.TRUE.equals(applied);
+                meterRegistry.counter("llm.compaction", "outcome", compacted ? "applied" : "superseded").increment();
+                return compacted;
+            })
+            .defaultIfEmpty(false)
+            .onErrorResume(e -> {
+                log.warn("Compaction of conversation {} failed: {}", conversationId, e.getMessage());
+                meterRegistry.counter("llm.compaction", "outcome", "failed").increment();
+                return Mono.just(false);
+            })
+            .doFinally(signal -> inProgress.remove(conversationId));
+    }
+
+    private Mono<ResponsesAPIResponse> summarize(Conversation conversation, String responseId,
+                                                 OpenAIResponsesConfig.CompactionConfig config) {
+        // Instructions are not carried along a chain, so the summary of earlier chains is passed again
+        String instructions = conversation.getContextSummary() == null ? SUMMARY_INSTRUCTIONS
+            : SUMMARY_INSTRUCTIONS + "\n\nSummary of the consultation before this part:\n" + conversation.getContextSummary();
+        ResponsesAPIRequest request = ResponsesAPIRequest.builder()
+            .model(config.getModel())
+            .previousResponseId(responseId)
+            .instructions(instructions)
+            .input("Summarize the consultation so far, merging in the earlier summary if there is one.")
+            .maxOutputTokens(config.getMaxSummaryTokens())
+            .store(false)
+            .metadata(Map.of("purpose", "compaction"))
+            .build();
+
+        return upstreamRetry.retry("compaction", concurrencyLimiter.limit(config.getModel(), webClient.post()
+                .uri(responsesConfig.getUrl())
+                .header("Authorization", "Bearer " + chatGPTService.getChatGPTConfig().getOpenai().getKey())
+                .bodyValue(request)
+                .retrieve()
+                .onStatus(status -> !status.is2xxSuccessful(),
+                    resp -> resp.bodyToMono(String.class)
+                        .defaultIfEmpty("No response body")
+                        .flatMap(body -> Mono.error(new UpstreamHttpException(resp.statusCode().value(), body,
+                            UpstreamRetry.retryAfter(resp.headers().asHttpHeaders())))))
+                .bodyToMono(ResponsesAPIResponse.class)))
+            // Housekeeping, not a user's request: keep it out of the caller's fair-share slots
+            .contextWrite(context -> context.put(RequestPrincipal.CONTEXT_KEY, RequestPrincipal.INTERNAL));
+    }
+
+    private void recordUsage(String conversationId, String model, ResponsesAPIResponse response) {
+        UsageMetric metric = costCalculationService.calculateUsageCost(model, response.getUsage(), List.of());
+        metric.setApiType("compaction");
+        metric.setConversationId(conversationId);
+        metric.setResponseId(response.getId());
+        conversationRepository.findByConversationId(conversationId).ifPresent(conversation -> {
+            metric.setUser(conversation.getUser());
+            metric.setGuestSession(conversation.getGuestSession());
+        });
+        conversationManager.recordUsage(metric);
+    }
+
+    private static String summaryText(ResponsesAPIResponse response) {
+        if (response.getOutputText() != null) {
+            return response.getOutputText();
+        }
+        if (response.getOutput() == null) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder();
+        for (ResponsesAPIResponse.Output output : response.getOutput()) {
+            if (output.getContent() instanceof List<?> parts) {
+                for (Object part : parts) {
+                    if (part instanceof Map<?, ?> map && map.get("text") instanceof String partText) {
+                        text.append(partText);
+                    }
+                }
+            } else if (output.getText() != null) {
+                text.append(output.getText());
+            }
+        }
+        return text.toString();
+    }
+}
@@ -5,12 +5,15 @@ import com.drcopad.copad.entity.Chat;
 import com.drcopad.copad.entity.GuestSession;
 import com.drcopad.copad.entity.User;
 import com.drcopad.copad.entity.responses.Conversation;
+import com.drcopad.copad.entity.responses.ConversationCompaction;
 import com.drcopad.copad.entity.responses.OpenAIResponse;
 import com.drcopad.copad.entity.responses.UsageMetric;
 import com.drcopad.copad.repository.ChatRepository;
+import com.drcopad.copad.repository.responses.ConversationCompactionRepository;
 import com.drcopad.copad.repository.responses.ConversationRepository;
 import com.drcopad.copad.repository.responses.OpenAIResponseRepository;
 import com.drcopad.copad.repository.responses.UsageMetricRepository;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -33,36 +36,62 @@ public class ConversationManager {
     private final UsageMetricRepository usageMetricRepository;
     private final ChatRepository chatRepository;
     private final OpenAIResponsesConfig responsesConfig;
+    private final SpendLedger spendLedger;
+    private final ConversationCompactionRepository compactionRepository;
+    private final TelemetryJournal telemetryJournal;
+    private final ConversationStateCache conversationCache;
+    private final MeterRegistry meterRegistry;
     
     public ConversationManager(ConversationRepository conversationRepository,
                               OpenAIResponseRepository responseRepository,
                               UsageMetricRepository usageMetricRepository,
                               ChatRepository chatRepository,
-                              @Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig) {
+                              @Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                              SpendLedger spendLedger,
+                              ConversationCompactionRepository compactionRepository,
+                              TelemetryJournal telemetryJournal,
+                              ConversationStateCache conversationCache,
+                              MeterRegistry meterRegistry) {
         this.conversationRepository = conversationRepository;
         this.responseRepository = responseRepository;
         this.usageMetricRepository = usageMetricRepository;
         this.chatRepository = chatRepository;
         this.responsesConfig = responsesConfig;
+        this.spendLedger = spendLedger;
+        this.compactionRepository = compactionRepository;
+        this.telemetryJournal = telemetryJournal;
+        this.conversationCache = conversationCache;
+        this.meterRegistry = meterRegistry;
     }
     
     /**
-     * Get or create an active conversation for a chat
+     * Get or create an active conversation for a chat. Served from the conversation cache without
+     * reading the row; writes check the copy's version instead. The result must not be modified.
      */
     public Conversation getOrCreateConversation(String chatId, User user, GuestSession guestSession, 
                                                String specialtyCode, String language) {
         // First check if there's an active conversation for this chat
-        Optional<Conversation> existingConversation = conversationRepository
-                .findByChatIdAndStatus(chatId, "active");
+        Conversation cached = conversationCache.getActive(chatId);
+        Optional<Conversation> existingConversation = cached != null ? Optional.of(cached)
+                : conversationRepository.findByChatIdAndStatus(chatId, "active");
         
         if (existingConversation.isPresent()) {
             Conversation conversation = existingConversation.get();
             // Update specialty or language if changed
             if (!conversation.getSpecialtyCode().equals(specialtyCode) || 
                 !conversation.getLanguage().equals(language)) {
-                conversation.setSpecialtyCode(specialtyCode);
-                conversation.setLanguage(language);
-                return conversationRepository.save(conversation);
+                conversationCache.evict(conversation.getConversationId());
+                Conversation current = cached != null
+                        ? conversationRepository.findByConversationId(conversation.getConversationId()).orElseThrow()
+                        : conversation;
+                current.setSpecialtyCode(specialtyCode);
+                current.setLanguage(language);
+                Conversation saved = conversationRepository.saveAndFlush(current);
+                conversationCache.putAfterCommit(saved);
+                return saved;
+            }
+            if (cached == null) {
+                conversationCache.put(conversation);
             }
             return conversation;
         }
@@ -84,57 +113,158 @@ public class ConversationManager {
                 .build();
         
         Conversation savedConversation = conversationRepository.saveAndFlush(conversation);
+        conversationCache.putAfterCommit(savedConversation);
         log.info("Created new conversation with ID: {}", savedConversation.getConversationId());
         return savedConversation;
     }
     
     /**
-     * Update conversation with latest response ID
+     * Update conversation with latest response ID. With a cached copy this only happens if the
+     * row is still at the copy's version; otherwise another node's newer chain is kept.
      */
     public void updateConversationResponse(String conversationId, String responseId) {
-        conversationRepository.findByConversationId(conversationId)
-                .ifPresent(conversation -> {
-                    conversation.setLastOpenaiResponseId(responseId);
-                    conversationRepository.save(conversation);
-                });
+        Conversation cached = conversationCache.get(conversationId);
+        int updated = conversationRepository.updateLastResponseId(conversationId, responseId,
+                LocalDateTime.now(), expectedVersion(cached));
+        if (cached == null) {
+            return;
+        }
+        if (updated == 0) {
+            keepNewerChain(conversationId, responseId);
+            return;
+        }
+        Conversation advanced = ConversationStateCache.copyOf(cached);
+        advanced.setLastOpenaiResponseId(responseId);
+        advanced.setVersion(cached.getVersion() + 1);
+        conversationCache.putAfterCommit(advanced);
     }
     
     /**
-     * Get the last response ID for a conversation (for chaining)
+     * Carry a first turn's question and answer into the conversation without a stored response of
+     * its own (see {@link ConversationRepository#seedContextSummary}). Nothing changes if the
+     * conversation already has context.
+     */
+    public boolean seedContextSummary(String conversationId, String summary) {
+        int updated = conversationRepository.seedContextSummary(conversationId, summary, LocalDateTime.now());
+        // Rare (cache hits on first turns only), so the next turn just re-reads the row
+        conversationCache.evict(conversationId);
+        return updated > 0;
+    }
+    
+    /**
+     * Get the last response ID for a conversation (for chaining). A cached copy is used as is; if
+     * another node has moved the chain since, {@link #recordResponse} keeps that newer chain.
      */
     public Optional<String> getLastResponseId(String conversationId) {
+        Conversation cached = conversationCache.get(conversationId);
+        if (cached != null) {
+            return Optional.ofNullable(cached.getLastOpenaiResponseId());
+        }
         return conversationRepository.findByConversationId(conversationId)
                 .map(Conversation::getLastOpenaiResponseId);
     }
     
     /**
-     * Record a new OpenAI response
+     * Record a new OpenAI response. The conversation's chain moves now, since the next turn
+     * continues from it; the response row itself goes through the telemetry journal. If another
+     * node moved the chain since the cached copy was made, its newer chain is kept.
      */
     public OpenAIResponse recordResponse(OpenAIResponse response) {
-        log.info("About to save OpenAIResponse with responseId: {}", response.getResponseId());
-        log.debug("OpenAIResponse details - conversationId: {}, chatMessageId: {}", 
-            response.getConversationId(), 
-            response.getChatMessage() != null ? response.getChatMessage().getId() : "null");
+        String conversationId = response.getConversationId();
+        int inputTokens = response.getPromptTokens() != null ? response.getPromptTokens() : 0;
+        Conversation cached = conversationCache.get(conversationId);
+        int updated = conversationRepository.advanceChain(conversationId, response.getResponseId(),
+                inputTokens, LocalDateTime.now(), expectedVersion(cached));
+        if (cached != null && updated == 0) {
+            keepNewerChain(conversationId, response.getResponseId());
+        } else if (cached != null) {
+            Conversation advanced = ConversationStateCache.copyOf(cached);
+            advanced.setLastOpenaiResponseId(response.getResponseId());
+            advanced.setContextInputTokens(inputTokens);
+            advanced.setCumulativeInputTokens(
+                    (cached.getCumulativeInputTokens() != null ? cached.getCumulativeInputTokens() : 0L) + inputTokens);
+            advanced.setVersion(cached.getVersion() + 1);
+            conversationCache.putAfterCommit(advanced);
+        }
         
-        try {
-            OpenAIResponse saved = responseRepository.save(response);
-            log.info("Saved OpenAIResponse with responseId: {}", saved.getResponseId());
-            
-            updateConversationResponse(response.getConversationId(), response.getResponseId());
-            log.info("Updated conversation with latest response ID");
-            
-            return saved;
-        } catch (Exception e) {
-            log.error("Error saving OpenAIResponse", e);
-            throw e;
+        if (telemetryJournal.isEnabled()) {
+            telemetryJournal.append(response);
+            log.debug("Journaled OpenAIResponse {}", response.getResponseId());
+            return response;
+        }
+        OpenAIResponse saved = responseRepository.save(response);
+        log.info("Saved OpenAIResponse with responseId: {}", saved.getResponseId());
+        return saved;
+    }
+    
+    private static long expectedVersion(Conversation cached) {
+        return cached != null ? cached.getVersion() : ConversationRepository.ANY_VERSION;
+    }
+    
+    /**
+     * Another node answered a turn of this conversation while this one was in flight. Its chain is
+     * at least as new as ours, so it stays; this turn's answer is saved but not chained onto.
+     */
+    private void keepNewerChain(String conversationId, String responseId) {
+        log.warn("Conversation {} moved on while response {} was in flight, keeping the newer chain",
+                conversationId, responseId);
+        meterRegistry.counter("conversation.chain.conflicts").increment();
+        staleCopy(conversationId);
+    }
+    
+    /**
+     * The cached copy was behind the row, so another node changed the conversation; drop it and
+     * read the row on the next turn.
+     */
+    private void staleCopy(String conversationId) {
+        log.warn("Cached state of conversation {} was stale, reloading it on the next turn", conversationId);
+        meterRegistry.counter("conversation.cache.stale").increment();
+        conversationCache.evict(conversationId);
+    }
+    
+    /**
+     * Replace the chain ending at {@code compactedResponseId} with its summary: the next turn starts
+     * a fresh chain and carries the summary in its instructions. Returns false, changing nothing,
+     * if another turn extended the chain while the summary was being written.
+     */
+    public boolean applyCompaction(String conversationId, String compactedResponseId,
+                                   String summary, String summaryResponseId, String summaryModel) {
+        Conversation conversation = conversationRepository.findByConversationId(conversationId).orElse(null);
+        if (conversation == null || !compactedResponseId.equals(conversation.getLastOpenaiResponseId())) {
+            return false;
         }
+        compactionRepository.save(ConversationCompaction.builder()
+                .conversationId(conversationId)
+                .compactedResponseId(compactedResponseId)
+                .summaryResponseId(summaryResponseId)
+                .summary(summary)
+                .contextInputTokens(conversation.getContextInputTokens())
+                .summaryModel(summaryModel)
+                .build());
+        conversation.setContextSummary(summary);
+        conversation.setLastOpenaiResponseId(null);
+        conversation.setContextInputTokens(0);
+        conversation.setCompactionCount((conversation.getCompactionCount() != null ? conversation.getCompactionCount() : 0) + 1);
+        conversationCache.evict(conversationId);
+        conversationCache.putAfterCommit(conversationRepository.saveAndFlush(conversation));
+        log.info("Compacted conversation {} at response {} (compaction #{})",
+                conversationId, compactedResponseId, conversation.getCompactionCount());
+        return true;
     }
     
     /**
-     * Record usage metrics for a conversation
+     * Record usage metrics for a conversation. The spend ledger is updated right away; the row
+     * reaches {@code usage_metrics} through the telemetry journal.
      */
     public UsageMetric recordUsage(UsageMetric metric) {
-        return usageMetricRepository.save(metric);
+        UsageMetric saved = metric;
+        if (telemetryJournal.isEnabled()) {
+            telemetryJournal.append(metric);
+        } else {
+            saved = usageMetricRepository.save(metric);
+        }
+        spendLedger.record(saved);
+        return saved;
     }
     
     /**
@@ -161,6 +291,7 @@ public class ConversationManager {
                 .ifPresent(conversation -> {
                     conversation.expire();
                     conversationRepository.save(conversation);
+                    conversationCache.evict(conversationId);
                 });
     }
     
@@ -185,6 +316,7 @@ public class ConversationManager {
     public void cleanupExpiredConversations() {
         log.info("Starting conversation cleanup task");
         int expiredCount = conversationRepository.expireOldConversations(LocalDateTime.now());
+        conversationCache.evictAll();
         log.info("Expired {} conversations", expiredCount);
     }
     
@@ -0,0 +1,192 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.exception.RateLimitExceededException;
+import com.drcopad.copad.exception.ServiceOverloadedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the turns of a chat one after another. Two messages sent in quick succession would
+ * otherwise both read the same {@code previous_response_id}, fork the chain and pay for a call
+ * whose context is lost; queued here, the second turn starts once the first has committed and
+ * chains onto its answer. Chats never wait for each other.
+ * <p>
+ * Each chat with a turn in flight has a lane holding the turns queued behind it. A turn past
+ * {@code max-queued} gets {@link RateLimitExceededException} (429), one that waits longer than
+ * {@code max-wait} gets {@link ServiceOverloadedException} (503). Lanes are dropped when idle.
+ * <p>
+ * Lanes live in this node's memory and nothing is coordinated across nodes. Two nodes answering
+ * the same chat can still fork its chain, so more than one node needs sticky routing by chat id.
+ */
+@Slf4j
+@Service
+public class ConversationSequencer {
+
+    private final OpenAIResponsesConfig.TurnOrderingConfig config;
+    private final MeterRegistry meterRegistry;
+    private final Timer waitTimer;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Only chats with a turn in flight; guarded by lock
+    private final Map<String, Deque<Waiter>> lanes = new HashMap<>();
+
+    public ConversationSequencer(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                                 MeterRegistry meterRegistry) {
+        this.config = responsesConfig.getTurnOrdering();
+        this.meterRegistry = meterRegistry;
+        this.waitTimer = Timer.builder("conversation.turns.queue.wait")
+            .description("Time a turn waited for the previous turn of its chat")
+            .register(meterRegistry);
+        meterRegistry.gauge("conversation.turns.lanes", lanes, map -> {
+            lock.lock();
+            try {
+                return map.size();
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    /**
+     * Wait until the chat's earlier turns are done. The permit must be released once the turn has
+     * committed or failed.
+     */
+    public Permit await(String chatId) {
+        CompletableFuture<Permit> turn = enqueue(chatId);
+        try {
+            return turn.get(config.getMaxWait(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            abandon(turn);
+            throw timedOut();
+        } catch (InterruptedException e) {
+            abandon(turn);
+            Thread.currentThread().interrupt();
+            throw new ServiceOverloadedException("Interrupted while waiting for the previous message of this chat");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Non-blocking {@link #await}: emits the permit when it is this turn's turn.
+     */
+    public Mono<Permit> acquire(String chatId) {
+        return Mono.defer(() -> {
+            CompletableFuture<Permit> turn = enqueue(chatId);
+            return Mono.fromFuture(turn)
+                .timeout(Duration.ofMillis(config.getMaxWait()), Mono.defer(() -> {
+                    abandon(turn);
+                    return Mono.error(timedOut());
+                }))
+                // After the cancel has reached the future, so it is not reported as a dropped error
+                .doFinally(signal -> {
+                    if (signal == SignalType.CANCEL) {
+                        abandon(turn);
+                    }
+                });
+        });
+    }
+
+    private CompletableFuture<Permit> enqueue(String chatId) {
+        if (!config.isEnabled() || chatId == null) {
+            return CompletableFuture.completedFuture(new Permit(null));
+        }
+        lock.lock();
+        try {
+            Deque<Waiter> lane = lanes.get(chatId);
+            if (lane == null) {
+                lanes.put(chatId, new ArrayDeque<>());
+                count("immediate");
+                return CompletableFuture.completedFuture(new Permit(chatId));
+            }
+            if (lane.size() >= config.getMaxQueued()) {
+                count("rejected");
+                throw new RateLimitExceededException("Earlier messages in this chat are still being answered");
+            }
+            Waiter waiter = new Waiter(new CompletableFuture<>(), System.nanoTime());
+            lane.addLast(waiter);
+            count("queued");
+            log.debug("Turn for chat {} queued behind {} others", chatId, lane.size());
+            return waiter.turn();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(String chatId) {
+        while (true) {
+            Waiter next;
+            lock.lock();
+            try {
+                Deque<Waiter> lane = lanes.get(chatId);
+                next = lane != null ? lane.pollFirst() : null;
+                if (next == null) {
+                    lanes.remove(chatId);
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            // Completed outside the lock: the next turn may continue on this thread
+            waitTimer.record(System.nanoTime() - next.enqueuedAt(), TimeUnit.NANOSECONDS);
+            if (next.turn().complete(new Permit(chatId))) {
+                return;
+            }
+            // That caller gave up while queued; hand the lane to the one behind it
+        }
+    }
+
+    private static void abandon(CompletableFuture<Permit> turn) {
+        if (!turn.cancel(false) && !turn.isCancelled()) {
+            // Granted just as the caller gave up
+            turn.join().release();
+        }
+    }
+
+    private ServiceOverloadedException timedOut() {
+        count("timed_out");
+        return new ServiceOverloadedException("The previous message of this chat is still being answered");
+    }
+
+    private void count(String outcome) {
+        meterRegistry.counter("conversation.turns.ordered", "outcome", outcome).increment();
+    }
+
+    /**
+     * A chat's turn slot. Releasing more than once has no effect.
+     */
+    public final class Permit {
+        private final String chatId;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(String chatId) {
+            this.chatId = chatId;
+        }
+
+        public void release() {
+            if (chatId != null && released.compareAndSet(false, true)) {
+                ConversationSequencer.this.release(chatId);
+            }
+        }
+    }
+
+    private record Waiter(CompletableFuture<Permit> turn, long enqueuedAt) {
+    }
+}
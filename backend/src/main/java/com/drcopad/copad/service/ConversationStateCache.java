@@ -0,0 +1,137 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.entity.responses.Conversation;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+
+/**
+ * Active conversations by chat id and conversation id, so a turn finds its conversation and
+ * previous response without reading the row. Entries are detached copies and are never modified:
+ * a change replaces the entry with a new copy once its transaction has committed.
+ * <p>
+ * Each copy carries the row's {@code version}. ConversationManager uses the copy without reading
+ * the row and moves the chain only if the row still has that version, so a copy made stale by
+ * another node is evicted at its next write and never written over the newer state.
+ */
+@Service
+public class ConversationStateCache {
+
+    private final boolean enabled;
+    private final Cache<String, Conversation> byConversationId;
+    private final Cache<String, String> activeByChatId;
+
+    public ConversationStateCache(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                                  MeterRegistry meterRegistry) {
+        OpenAIResponsesConfig.ConversationCacheConfig config = responsesConfig.getConversationCache();
+        this.enabled = config.isEnabled();
+        this.byConversationId = Caffeine.newBuilder()
+            .maximumSize(config.getMaxEntries())
+            .expireAfterWrite(Duration.ofMinutes(config.getTtlMinutes()))
+            .recordStats()
+            .build();
+        this.activeByChatId = Caffeine.newBuilder()
+            .maximumSize(config.getMaxEntries())
+            .expireAfterWrite(Duration.ofMinutes(config.getTtlMinutes()))
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, byConversationId, "conversation.state");
+    }
+
+    /**
+     * The active conversation of a chat, or null if it is not cached.
+     */
+    public Conversation getActive(String chatId) {
+        if (!enabled) {
+            return null;
+        }
+        String conversationId = activeByChatId.getIfPresent(chatId);
+        return conversationId != null ? byConversationId.getIfPresent(conversationId) : null;
+    }
+
+    /**
+     * A cached conversation, or null.
+     */
+    public Conversation get(String conversationId) {
+        return enabled ? byConversationId.getIfPresent(conversationId) : null;
+    }
+
+    /**
+     * Cache a copy of a conversation as read. Only active ones are kept.
+     */
+    public void put(Conversation conversation) {
+        if (!enabled || !"active".equals(conversation.getStatus()) || conversation.getVersion() == null) {
+            return;
+        }
+        byConversationId.put(conversation.getConversationId(), copyOf(conversation));
+        activeByChatId.put(conversation.getChatId(), conversation.getConversationId());
+    }
+
+    /**
+     * Cache a copy of a conversation as written, once the current transaction commits.
+     */
+    public void putAfterCommit(Conversation conversation) {
+        if (!enabled) {
+            return;
+        }
+        Conversation copy = copyOf(conversation);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    put(copy);
+                }
+            });
+        } else {
+            put(copy);
+        }
+    }
+
+    public void evict(String conversationId) {
+        Conversation removed = byConversationId.asMap().remove(conversationId);
+        if (removed != null) {
+            activeByChatId.asMap().remove(removed.getChatId(), conversationId);
+        }
+    }
+
+    public void evictAll() {
+        byConversationId.invalidateAll();
+        activeByChatId.invalidateAll();
+    }
+
+    /**
+     * A detached copy sharing the original's associations; its collections are never loaded.
+     */
+    static Conversation copyOf(Conversation conversation) {
+        return Conversation.builder()
+            .id(conversation.getId())
+            .conversationId(conversation.getConversationId())
+            .chatId(conversation.getChatId())
+            .user(conversation.getUser())
+            .guestSession(conversation.getGuestSession())
+            .lastOpenaiResponseId(conversation.getLastOpenaiResponseId())
+            .contextInputTokens(conversation.getContextInputTokens())
+            .cumulativeInputTokens(conversation.getCumulativeInputTokens())
+            .contextSummary(conversation.getContextSummary())
+            .compactionCount(conversation.getCompactionCount())
+            .model(conversation.getModel())
+            .specialtyCode(conversation.getSpecialtyCode())
+            .language(conversation.getLanguage())
+            .status(conversation.getStatus())
+            .createdAt(conversation.getCreatedAt())
+            .updatedAt(conversation.getUpdatedAt())
+            .expiresAt(conversation.getExpiresAt())
+            .version(conversation.getVersion())
+            .responses(conversation.getResponses())
+            .conversationFiles(conversation.getConversationFiles())
+            .usageMetrics(conversation.getUsageMetrics())
+            .build();
+    }
+}
@@ -1,6 +1,7 @@
 package com.drcopad.copad.service;
 
 import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.dto.ResponsesAPIResponse;
 import com.drcopad.copad.entity.responses.UsageMetric;
 import com.drcopad.copad.repository.responses.UsageMetricRepository;
 import lombok.extern.slf4j.Slf4j;
@@ -8,7 +9,6 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -18,11 +18,17 @@ public class CostCalculationService {
     
     private final OpenAIResponsesConfig responsesConfig;
     private final UsageMetricRepository usageMetricRepository;
+    private final SpendLedger spendLedger;
+    private final PricingEngine pricingEngine;
     
     public CostCalculationService(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
-                                 UsageMetricRepository usageMetricRepository) {
+                                 UsageMetricRepository usageMetricRepository,
+                                 SpendLedger spendLedger,
+                                 PricingEngine pricingEngine) {
         this.responsesConfig = responsesConfig;
         this.usageMetricRepository = usageMetricRepository;
+        this.spendLedger = spendLedger;
+        this.pricingEngine = pricingEngine;
     }
     
     /**
@@ -30,97 +36,55 @@ public class CostCalculationService {
      */
     public UsageMetric calculateUsageCost(String model, int inputTokens, int outputTokens, 
                                          List<String> toolsUsed) {
-        OpenAIResponsesConfig.ModelPricing pricing = responsesConfig.getCost()
-                .getModelPricing().get(model);
-        
-        if (pricing == null) {
-            log.warn("No pricing found for model: {}, using default o3 pricing", model);
-            pricing = responsesConfig.getCost().getModelPricing().get("o3");
+        return calculateUsageCost(model, inputTokens, 0, outputTokens, 0, toolsUsed);
+    }
+    
+    /**
+     * Calculate cost from the usage block OpenAI returned, including cached input and reasoning tokens
+     */
+    public UsageMetric calculateUsageCost(String model, ResponsesAPIResponse.Usage usage, List<String> toolsUsed) {
+        if (usage == null) {
+            return calculateUsageCost(model, 0, 0, toolsUsed);
         }
-        
-        // Calculate token costs (per 1K tokens)
-        BigDecimal inputCost = pricing.getInputCostPer1k()
-                .multiply(BigDecimal.valueOf(inputTokens))
-                .divide(BigDecimal.valueOf(1000), 6, RoundingMode.HALF_UP);
-        
-        BigDecimal outputCost = pricing.getOutputCostPer1k()
-                .multiply(BigDecimal.valueOf(outputTokens))
-                .divide(BigDecimal.valueOf(1000), 6, RoundingMode.HALF_UP);
-        
-        // Calculate tool costs
-        BigDecimal toolsCost = calculateToolsCost(toolsUsed);
-        
-        BigDecimal totalCost = inputCost.add(outputCost).add(toolsCost);
+        return calculateUsageCost(model, usage.inputTokens(), usage.cachedInputTokens(),
+            usage.outputTokens(), usage.reasoningTokens(), toolsUsed);
+    }
+    
+    private UsageMetric calculateUsageCost(String model, int inputTokens, int cachedInputTokens,
+                                           int outputTokens, int reasoningTokens, List<String> toolsUsed) {
+        PricingEngine.Price price = pricingEngine.price(model, inputTokens, cachedInputTokens, outputTokens, toolsUsed);
         
         return UsageMetric.builder()
                 .model(model)
                 .inputTokens(inputTokens)
                 .outputTokens(outputTokens)
                 .totalTokens(inputTokens + outputTokens)
-                .inputCost(inputCost)
-                .outputCost(outputCost)
-                .toolsCost(toolsCost)
-                .totalCost(totalCost)
+                .cachedInputTokens(cachedInputTokens)
+                .reasoningTokens(reasoningTokens)
+                .inputCost(PricingEngine.toDollars(price.inputMicros()))
+                .outputCost(PricingEngine.toDollars(price.outputMicros()))
+                .toolsCost(PricingEngine.toDollars(price.toolsMicros()))
+                .totalCost(PricingEngine.toDollars(price.totalMicros()))
+                .costMicros(price.totalMicros())
+                .priceVersion(price.priceVersion())
                 .toolsUsed(toolsUsed)
                 .apiType("responses")
                 .build();
     }
     
-    /**
-     * Calculate costs for tools used
-     */
-    private BigDecimal calculateToolsCost(List<String> toolsUsed) {
-        if (toolsUsed == null || toolsUsed.isEmpty()) {
-            return BigDecimal.ZERO;
-        }
-        
-        BigDecimal totalToolsCost = BigDecimal.ZERO;
-        OpenAIResponsesConfig.CostConfig costConfig = responsesConfig.getCost();
-        
-        for (String tool : toolsUsed) {
-            switch (tool.toLowerCase()) {
-                case "file_search":
-                    totalToolsCost = totalToolsCost.add(costConfig.getFileSearchCostPerQuery());
-                    break;
-                case "web_search":
-                case "web_search_preview":
-                case "web_search_preview_2025_03_11":
-                    totalToolsCost = totalToolsCost.add(costConfig.getWebSearchCostPerQuery());
-                    break;
-                // case "code_interpreter":
-                //     totalToolsCost = totalToolsCost.add(costConfig.getCodeInterpreterCostPerSession());
-                //     break;
-                default:
-                    log.debug("Unknown tool for cost calculation: {}", tool);
-            }
-        }
-        
-        return totalToolsCost;
-    }
-    
     /**
      * Check if user has exceeded daily cost limit
      */
     public boolean hasExceededDailyLimit(Long userId) {
-        LocalDateTime startOfDay = LocalDateTime.now().toLocalDate().atStartOfDay();
-        BigDecimal dailyTotal = usageMetricRepository.getTotalCostForUser(userId, startOfDay);
-        
-        if (dailyTotal == null) {
-            return false;
-        }
-        
-        return dailyTotal.compareTo(responsesConfig.getCost().getDailyLimit()) > 0;
+        return spendLedger.hasExceededUserLimit(userId);
     }
     
     /**
      * Check if guest has exceeded daily limit
      */
     public boolean hasGuestExceededDailyLimit(Long guestSessionId) {
-        LocalDateTime startOfDay = LocalDateTime.now().toLocalDate().atStartOfDay();
-        Long totalTokens = usageMetricRepository.getTotalTokensForGuest(guestSessionId, startOfDay);
-        
-        // For guests, use a token-based limit (e.g., 100K tokens per day)
-        return totalTokens != null && totalTokens > 100000;
+        // For guests, use a token-based limit (cost.guest-daily-token-limit)
+        return spendLedger.hasExceededGuestLimit(guestSessionId);
     }
     
     /**
@@ -0,0 +1,23 @@
+package com.drcopad.copad.service;
+
+/**
+ * Turns text into a vector for the semantic response cache. Implementations must return
+ * L2-normalized vectors of {@link #dimensions()} length so cosine similarity is a dot product.
+ */
+public interface EmbeddingProvider {
+
+    float[] embed(String text);
+
+    int dimensions();
+
+    /**
+     * Cosine similarity at which two questions count as the same in this vector space. Scores are
+     * not comparable across providers, so each one brings its own.
+     */
+    double defaultSimilarityThreshold();
+
+    /**
+     * Identifies the vector space. Persisted snapshots from a different model are discarded.
+     */
+    String modelId();
+}
@@ -0,0 +1,134 @@
+package com.drcopad.copad.service;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Wait queue that hands out slots fairly instead of first-come-first-served. Priority classes are
+ * served by smooth weighted round-robin, and within a class every principal (flow) gets its turn
+ * regardless of how many requests it has queued, so one busy guest cannot starve the others.
+ * <p>
+ * Not thread-safe; callers guard it with their own lock.
+ */
+class FairWaitQueue<T> {
+
+    private final Map<RequestPrincipal.Priority, Integer> weights;
+    private final Map<RequestPrincipal.Priority, LinkedHashMap<String, ArrayDeque<T>>> classes =
+            new EnumMap<>(RequestPrincipal.Priority.class);
+    private final Map<RequestPrincipal.Priority, Integer> currentWeights = new EnumMap<>(RequestPrincipal.Priority.class);
+    private int size;
+
+    FairWaitQueue(Map<RequestPrincipal.Priority, Integer> weights) {
+        this.weights = weights;
+        for (RequestPrincipal.Priority priority : RequestPrincipal.Priority.values()) {
+            classes.put(priority, new LinkedHashMap<>());
+            currentWeights.put(priority, 0);
+        }
+    }
+
+    void add(RequestPrincipal principal, T item) {
+        classes.get(principal.priority()).computeIfAbsent(principal.flow(), flow -> new ArrayDeque<>()).addLast(item);
+        size++;
+    }
+
+    boolean remove(RequestPrincipal principal, T item) {
+        LinkedHashMap<String, ArrayDeque<T>> flows = classes.get(principal.priority());
+        ArrayDeque<T> queue = flows.get(principal.flow());
+        if (queue == null || !queue.remove(item)) {
+            return false;
+        }
+        if (queue.isEmpty()) {
+            flows.remove(principal.flow());
+        }
+        size--;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int size(RequestPrincipal principal) {
+        ArrayDeque<T> queue = classes.get(principal.priority()).get(principal.flow());
+        return queue == null ? 0 : queue.size();
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Next item that passes {@code eligible}, or null if no flow may proceed. Only the head of
+     * each flow is tested, a flow's requests are served in order.
+     */
+    T poll(Predicate<T> eligible) {
+        // Smooth weighted round-robin over the classes that have an eligible flow
+        int total = 0;
+        RequestPrincipal.Priority chosen = null;
+        for (RequestPrincipal.Priority priority : RequestPrincipal.Priority.values()) {
+            if (firstEligible(priority, eligible) == null) {
+                continue;
+            }
+            int weight = weights.getOrDefault(priority, 1);
+            int current = currentWeights.get(priority) + weight;
+            currentWeights.put(priority, current);
+            total += weight;
+            if (chosen == null || current > currentWeights.get(chosen)) {
+                chosen = priority;
+            }
+        }
+        if (chosen == null) {
+            return null;
+        }
+        currentWeights.put(chosen, currentWeights.get(chosen) - total);
+
+        // Round-robin across flows: serve the first eligible one and move it to the back
+        LinkedHashMap<String, ArrayDeque<T>> flows = classes.get(chosen);
+        String flow = firstEligible(chosen, eligible);
+        ArrayDeque<T> queue = flows.remove(flow);
+        T item = queue.pollFirst();
+        if (!queue.isEmpty()) {
+            flows.put(flow, queue);
+        }
+        size--;
+        return item;
+    }
+
+    /**
+     * Newest item of the given class, for shedding lower-priority work when the queue is full.
+     */
+    T pollNewest(RequestPrincipal.Priority priority) {
+        LinkedHashMap<String, ArrayDeque<T>> flows = classes.get(priority);
+        if (flows.isEmpty()) {
+            return null;
+        }
+        // Shed from the flow with the most requests waiting
+        Iterator<Map.Entry<String, ArrayDeque<T>>> it = flows.entrySet().iterator();
+        Map.Entry<String, ArrayDeque<T>> longest = it.next();
+        while (it.hasNext()) {
+            Map.Entry<String, ArrayDeque<T>> entry = it.next();
+            if (entry.getValue().size() > longest.getValue().size()) {
+                longest = entry;
+            }
+        }
+        T item = longest.getValue().pollLast();
+        if (longest.getValue().isEmpty()) {
+            flows.remove(longest.getKey());
+        }
+        size--;
+        return item;
+    }
+
+    private String firstEligible(RequestPrincipal.Priority priority, Predicate<T> eligible) {
+        for (Map.Entry<String, ArrayDeque<T>> flow : classes.get(priority).entrySet()) {
+            if (eligible.test(flow.getValue().peekFirst())) {
+                return flow.getKey();
+            }
+        }
+        return null;
+    }
+}
@@ -10,6 +10,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -41,6 +42,8 @@ public class FileUploadService {
     private final FileAttachmentRepository fileAttachmentRepository;
     private final BatchFileUploadRepository batchFileUploadRepository;
     private final ObjectMapper objectMapper;
+    // Spring Boot's executor: virtual threads when spring.threads.virtual.enabled is set, a bounded pool otherwise
+    private final AsyncTaskExecutor applicationTaskExecutor;
     private final RestTemplate restTemplate = new RestTemplate();
     
     @Value("${app.chatgpt.openai.key}")
@@ -189,7 +192,6 @@ public class FileUploadService {
         });
     }
     
-    @Async
     private CompletableFuture<FileUploadResult> processFileAsync(MultipartFile file, 
                                                                  String batchId, String category) {
         return CompletableFuture.supplyAsync(() -> {
@@ -226,7 +228,7 @@ public class FileUploadService {
                         .error(e.getMessage())
                         .build();
             }
-        });
+        }, applicationTaskExecutor);
     }
     
     private void validateMedicalFile(MultipartFile file, String category) throws IllegalArgumentException {
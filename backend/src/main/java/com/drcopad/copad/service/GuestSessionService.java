@@ -18,6 +18,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
@@ -39,6 +40,7 @@ public class GuestSessionService {
     private final ChatRepository chatRepository;
     private final ChatGPTService chatGPTService;
     private final FileAttachmentService fileAttachmentService;
+    private final TransactionTemplate transactionTemplate;
     
     @Value("${upload.public-url:http://localhost:8080}")
     private String publicUrl;
@@ -73,11 +75,26 @@ public class GuestSessionService {
                 });
     }
 
-    @Transactional
+    /**
+     * Process a guest chat turn in three phases: a short transaction that records the user message,
+     * the model call with no transaction or JDBC connection held, and a short transaction that
+     * stores the AI reply.
+     */
     public String processChat(String sessionId, String message, String specialty, String language, String chatId, List<String> fileIds) {
         log.info("Processing chat message for session: {} - Chat: {} - Message: {} - Specialty: {} - Language: {} - FileIds: {}", 
                 sessionId, chatId, message, specialty, language, fileIds);
         
+        GuestTurn turn = transactionTemplate.execute(status -> prepareGuestTurn(sessionId, message, chatId, fileIds));
+
+        // Get AI response with specialty and language
+        String response = chatGPTService.getChatResponse(turn.message(), turn.history(), specialty, language, turn.attachments());
+
+        transactionTemplate.executeWithoutResult(status -> commitGuestTurn(turn, response));
+
+        return response;
+    }
+
+    private GuestTurn prepareGuestTurn(String sessionId, String message, String chatId, List<String> fileIds) {
         GuestSession session = guestSessionRepository.findBySessionId(sessionId)
                 .orElseThrow(() -> {
                     log.warn("Guest session not found for chat: {}", sessionId);
@@ -116,32 +133,39 @@ public class GuestSessionService {
         
         // Process file attachments if any
         List<FileAttachment> attachments = new ArrayList<>();
+        String enhancedMessage = message;
         if (fileIds != null && !fileIds.isEmpty()) {
             attachments = fileAttachmentService.linkFilesToMessage(fileIds, savedUserMsg);
             // Append file context to the message if needed
-            message = processAttachments(message, fileIds, savedUserMsg);
+            enhancedMessage = processAttachments(message, fileIds, savedUserMsg);
         }
 
-        // Get AI response with specialty and language
-        String response = chatGPTService.getChatResponse(message, chatHistory, specialty, language, attachments);
+        return new GuestTurn(session, chat, chatHistory, attachments, enhancedMessage);
+    }
+
+    private void commitGuestTurn(GuestTurn turn, String response) {
+        Chat chat = turn.chat();
 
         // Create and save AI message
         ChatMessage aiMsg = new ChatMessage();
         aiMsg.setMessage(response);
         aiMsg.setSender("AI");
         aiMsg.setTimestamp(LocalDateTime.now().plusSeconds(1));
-        aiMsg.setGuestSession(session);
+        aiMsg.setGuestSession(turn.session());
         aiMsg.setChat(chat);
         MessageRepository.save(aiMsg);
 
         // If this is the first message in the chat, set it as the title
-        if (chatHistory.isEmpty() && chat.getTitle() == null) {
+        if (turn.history().isEmpty() && chat.getTitle() == null) {
+            String message = turn.message();
             String title = message.length() > 50 ? message.substring(0, 47) + "..." : message;
             chat.setTitle(title);
             chatRepository.save(chat);
         }
+    }
 
-        return response;
+    private record GuestTurn(GuestSession session, Chat chat, List<ChatMessage> history,
+                             List<FileAttachment> attachments, String message) {
     }
     
     private String processAttachments(String message, List<String> fileIds, ChatMessage userMsg) {
@@ -0,0 +1,100 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Deterministic, dependency-free embedding: words and character trigrams hashed into a fixed
+ * number of signed buckets. Catches reworded questions that share vocabulary, which covers most
+ * first-turn paraphrases, and gives tests stable vectors without calling OpenAI.
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.chatgpt.openai.responses.semantic-cache", name = "provider",
+        havingValue = "hashing", matchIfMissing = true)
+public class HashingEmbeddingProvider implements EmbeddingProvider {
+
+    private static final float WORD_WEIGHT = 1.0f;
+    private static final float TRIGRAM_WEIGHT = 0.5f;
+
+    private final int dimensions;
+
+    @Autowired
+    public HashingEmbeddingProvider(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig) {
+        this(responsesConfig.getSemanticCache().getHashingDimensions());
+    }
+
+    HashingEmbeddingProvider(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimensions];
+        String normalized = Normalizer.normalize(text == null ? "" : text, Normalizer.Form.NFKC)
+                .toLowerCase(Locale.ROOT);
+        for (String word : normalized.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            add(vector, word, WORD_WEIGHT);
+            String padded = "#" + word + "#";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                add(vector, padded.substring(i, i + 3), TRIGRAM_WEIGHT);
+            }
+        }
+        return normalize(vector);
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public double defaultSimilarityThreshold() {
+        // Shared vocabulary scores lower here than in a learned embedding
+        return 0.75;
+    }
+
+    @Override
+    public String modelId() {
+        return "hashing-" + dimensions;
+    }
+
+    private void add(float[] vector, String feature, float weight) {
+        int hash = mix(feature.hashCode());
+        int bucket = Math.floorMod(hash, dimensions);
+        // Sign from an independent bit so colliding features tend to cancel rather than pile up
+        vector[bucket] += ((hash >>> 31) == 0 ? weight : -weight);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            return vector;
+        }
+        float inverse = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= inverse;
+        }
+        return vector;
+    }
+}
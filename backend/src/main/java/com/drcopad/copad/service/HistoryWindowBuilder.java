@@ -0,0 +1,234 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.ChatGPTConfig;
+import com.drcopad.copad.dto.Message;
+import com.drcopad.copad.entity.ChatMessage;
+import com.drcopad.copad.entity.FileAttachment;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Builds the history part of a Chat Completions request. The newest messages are taken until
+ * {@code history.maxTokens} is used up; everything older is condensed, one line per message, into a
+ * rolling summary that is sent ahead of the window and capped at {@code history.summaryMaxTokens}.
+ * <p>
+ * Document text is never replayed: an earlier message carries only the names of its attachments,
+ * since the answer to it already reflects their content. Rendered messages, their token counts and
+ * the summary are kept per chat, so a turn only renders and counts the messages that are new since
+ * the last one.
+ */
+@Slf4j
+@Service
+public class HistoryWindowBuilder {
+
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+    private static final int SUMMARY_LINE_CHARS = 240;
+    private static final String SUMMARY_HEADER = "Summary of earlier messages in this chat:\n";
+
+    private final ChatGPTConfig chatGPTConfig;
+    private final ChatGPTConfig.HistoryConfig config;
+    private final TokenEstimator tokenEstimator;
+    private final Cache<String, ChatWindow> windows;
+
+    public HistoryWindowBuilder(ChatGPTConfig chatGPTConfig, TokenEstimator tokenEstimator, MeterRegistry meterRegistry) {
+        this.chatGPTConfig = chatGPTConfig;
+        this.config = chatGPTConfig.getHistory();
+        this.tokenEstimator = tokenEstimator;
+        this.windows = Caffeine.newBuilder()
+                .maximumSize(config.getMaxChats())
+                .expireAfterAccess(Duration.ofMinutes(config.getTtlMinutes()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, windows, "llm.history.windows");
+    }
+
+    /**
+     * Messages to send before the current turn, oldest first. {@code history} must be in
+     * chronological (timestamp) order and must not contain the current message.
+     */
+    public List<Message> build(List<ChatMessage> history) {
+        if (!config.isEnabled() || history == null || history.isEmpty()) {
+            return List.of();
+        }
+        String key = chatKey(history);
+        ChatWindow window = key != null ? windows.get(key, k -> new ChatWindow()) : new ChatWindow();
+        window.lock.lock();
+        try {
+            return window.build(history);
+        } finally {
+            window.lock.unlock();
+        }
+    }
+
+    private static String chatKey(List<ChatMessage> history) {
+        ChatMessage first = history.get(0);
+        if (first.getChat() != null && first.getChat().getChatId() != null) {
+            return "chat:" + first.getChat().getChatId();
+        }
+        if (first.getGuestSession() != null && first.getGuestSession().getId() != null) {
+            return "guest:" + first.getGuestSession().getId();
+        }
+        return null;
+    }
+
+    private int count(String text) {
+        return tokenEstimator.count(chatGPTConfig.getOpenai().getModel(), text);
+    }
+
+    private static String role(ChatMessage message) {
+        return "USER".equalsIgnoreCase(message.getSender()) ? "user" : "assistant";
+    }
+
+    private static String attachmentNote(ChatMessage message) {
+        List<FileAttachment> attachments;
+        try {
+            attachments = message.getAttachments();
+            if (attachments == null || attachments.isEmpty()) {
+                return "";
+            }
+            return attachments.stream()
+                    .map(FileAttachment::getOriginalFilename)
+                    .collect(Collectors.joining(", ", "\n[Attached: ", "]"));
+        } catch (RuntimeException e) {
+            // Detached message whose attachments were never loaded; the text alone still helps
+            log.debug("Attachments of message {} not available: {}", message.getId(), e.getMessage());
+            return "";
+        }
+    }
+
+    private record RenderedTurn(Message message, int tokens) {
+    }
+
+    /**
+     * Where a message stands in its chat. Ids are not chronological (pooled ids come from
+     * per-instance blocks), so the timestamp orders and the id only breaks ties.
+     */
+    private record Position(LocalDateTime timestamp, long id) implements Comparable<Position> {
+        private static final Comparator<Position> ORDER =
+                Comparator.comparing(Position::timestamp).thenComparingLong(Position::id);
+
+        static Position of(ChatMessage message) {
+            if (message.getId() == null) {
+                return null;
+            }
+            return new Position(message.getTimestamp() != null ? message.getTimestamp() : LocalDateTime.MIN,
+                    message.getId());
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            return ORDER.compare(this, other);
+        }
+    }
+
+    /**
+     * Per-chat state. Everything up to {@code summarizedThrough} is in the summary and never shown
+     * verbatim again.
+     */
+    private final class ChatWindow {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<Long, RenderedTurn> rendered = new HashMap<>();
+        private final Deque<String> summaryLines = new ArrayDeque<>();
+        private final Deque<Integer> summaryLineTokens = new ArrayDeque<>();
+        private int summaryTokens;
+        private Position summarizedThrough;
+
+        List<Message> build(List<ChatMessage> history) {
+            // The summary is capped separately, so the window gets the rest of the budget
+            int budget = config.getMaxTokens() - config.getSummaryMaxTokens();
+            int used = 0;
+            int start = history.size();
+            for (int i = history.size() - 1; i >= 0; i--) {
+                ChatMessage message = history.get(i);
+                if (isSummarized(message)) {
+                    break;
+                }
+                RenderedTurn turn = render(message);
+                if (used + turn.tokens() > budget) {
+                    break;
+                }
+                used += turn.tokens();
+                start = i;
+            }
+
+            for (int i = 0; i < start; i++) {
+                ChatMessage message = history.get(i);
+                if (!isSummarized(message)) {
+                    addToSummary(message);
+                }
+            }
+            // Messages before the window are summarized now, so they are never rendered again
+            Set<Long> windowIds = new HashSet<>();
+            for (int i = start; i < history.size(); i++) {
+                windowIds.add(history.get(i).getId());
+            }
+            rendered.keySet().retainAll(windowIds);
+
+            List<Message> messages = new ArrayList<>(history.size() - start + 1);
+            if (!summaryLines.isEmpty()) {
+                messages.add(new Message("system", SUMMARY_HEADER + String.join("\n", summaryLines)));
+            }
+            for (int i = start; i < history.size(); i++) {
+                messages.add(render(history.get(i)).message());
+            }
+            return messages;
+        }
+
+        private boolean isSummarized(ChatMessage message) {
+            Position position = Position.of(message);
+            return summarizedThrough != null && position != null && position.compareTo(summarizedThrough) <= 0;
+        }
+
+        private RenderedTurn render(ChatMessage message) {
+            if (message.getId() == null) {
+                return doRender(message);
+            }
+            return rendered.computeIfAbsent(message.getId(), id -> doRender(message));
+        }
+
+        private RenderedTurn doRender(ChatMessage message) {
+            String text = (message.getMessage() != null ? message.getMessage() : "") + attachmentNote(message);
+            return new RenderedTurn(new Message(role(message), text), count(text) + MESSAGE_OVERHEAD_TOKENS);
+        }
+
+        private void addToSummary(ChatMessage message) {
+            String text = message.getMessage() != null ? message.getMessage().replaceAll("\\s+", " ").trim() : "";
+            if (text.length() > SUMMARY_LINE_CHARS) {
+                int sentenceEnd = text.lastIndexOf(". ", SUMMARY_LINE_CHARS);
+                text = sentenceEnd > SUMMARY_LINE_CHARS / 3 ? text.substring(0, sentenceEnd + 1) : text.substring(0, SUMMARY_LINE_CHARS) + "…";
+            }
+            String line = ("user".equals(role(message)) ? "- Patient: " : "- Doctor: ") + text
+                    + attachmentNote(message).replace('\n', ' ');
+            int tokens = count(line);
+            summaryLines.addLast(line);
+            summaryLineTokens.addLast(tokens);
+            summaryTokens += tokens;
+            while (summaryTokens > config.getSummaryMaxTokens() && summaryLines.size() > 1) {
+                summaryLines.removeFirst();
+                summaryTokens -= summaryLineTokens.removeFirst();
+            }
+            Position position = Position.of(message);
+            if (position != null) {
+                summarizedThrough = position;
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.ChatGPTConfig;
+import com.drcopad.copad.exception.IdempotencyKeyConflictException;
+import com.drcopad.copad.exception.ServiceOverloadedException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Makes message submission safe to resend. The first request with a given {@code Idempotency-Key}
+ * runs; a duplicate that arrives while it is still running waits for the same result instead of
+ * starting another model call, and one that arrives later gets the stored response replayed.
+ * <p>
+ * Only successful responses are kept: after a failure the entry is dropped so the client's retry
+ * runs again. Keys are scoped by the caller so two clients cannot collide, and reusing a key for a
+ * different message is rejected. The store is in memory and bounded by {@code maxEntries}.
+ */
+@Slf4j
+@Service
+public class IdempotencyStore {
+
+    private final ChatGPTConfig.IdempotencyConfig config;
+    private final Cache<String, Entry> entries;
+    private final MeterRegistry meterRegistry;
+
+    public IdempotencyStore(ChatGPTConfig chatGPTConfig, MeterRegistry meterRegistry) {
+        this.config = chatGPTConfig.getIdempotency();
+        this.meterRegistry = meterRegistry;
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(config.getMaxEntries())
+                .expireAfterWrite(Duration.ofMinutes(config.getTtlMinutes()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, entries, "idempotency.store");
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * Run {@code action} once per ({@code scope}, {@code key}). Results that fail {@code storable}
+     * are handed to requests already waiting but not kept for later ones.
+     *
+     * @throws IdempotencyKeyConflictException if the key was used for a different fingerprint
+     * @throws IllegalArgumentException if the key is longer than {@code maxKeyLength}
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Outcome<T> execute(String scope, String key, String fingerprint,
+                                  Supplier<T> action, Predicate<T> storable) {
+        if (key.isBlank() || key.length() > config.getMaxKeyLength()) {
+            throw new IllegalArgumentException("Idempotency-Key must be 1 to " + config.getMaxKeyLength() + " characters");
+        }
+        String entryKey = scope + "|" + key;
+        Entry entry = new Entry(fingerprint, new CompletableFuture<>());
+        Entry existing = entries.asMap().putIfAbsent(entryKey, entry);
+        if (existing != null) {
+            if (!existing.fingerprint().equals(fingerprint)) {
+                count("conflict");
+                throw new IdempotencyKeyConflictException("Idempotency-Key was already used for a different request");
+            }
+            count(existing.result().isDone() ? "replayed" : "joined");
+            return new Outcome<>((T) await(existing), true);
+        }
+
+        count("new");
+        try {
+            T result = action.get();
+            if (!storable.test(result)) {
+                entries.asMap().remove(entryKey, entry);
+            }
+            entry.result().complete(result);
+            return new Outcome<>(result, false);
+        } catch (RuntimeException e) {
+            entries.asMap().remove(entryKey, entry);
+            entry.result().completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private Object await(Entry entry) {
+        try {
+            return entry.result().get(config.getWaitTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new ServiceOverloadedException("The original request is still being processed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceOverloadedException("Interrupted while waiting for the original request");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void count(String outcome) {
+        meterRegistry.counter("idempotency.requests", "outcome", outcome).increment();
+    }
+
+    /**
+     * Fingerprint of a request body, to tell a resend from a different request under the same key.
+     */
+    public static String fingerprint(Object... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Object part : parts) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * A result and whether it came from an earlier request with the same key.
+     */
+    public record Outcome<T>(T value, boolean replayed) {
+    }
+
+    private record Entry(String fingerprint, CompletableFuture<Object> result) {
+    }
+}
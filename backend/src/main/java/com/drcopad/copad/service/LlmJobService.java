@@ -0,0 +1,316 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.dto.ResponsesAPIRequest;
+import com.drcopad.copad.dto.ResponsesAPIResponse;
+import com.drcopad.copad.entity.FileAttachment;
+import com.drcopad.copad.entity.GuestSession;
+import com.drcopad.copad.entity.User;
+import com.drcopad.copad.entity.responses.LlmJob;
+import com.drcopad.copad.repository.responses.ConversationRepository;
+import com.drcopad.copad.repository.responses.LlmJobRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Runs chat turns through the Responses API background mode. {@link #submit} only records the job;
+ * the scheduled poller submits it to OpenAI, polls with exponential backoff and records the answer
+ * through the same commit path as a synchronous turn. All state lives in {@code llm_jobs}, so a
+ * restarted node simply picks up where the previous one stopped.
+ * <p>
+ * A job is only submitted again when the earlier attempt certainly never reached OpenAI (see
+ * {@link UpstreamRetry#notProcessed}). A submit with an unknown outcome fails the job instead of
+ * risking a second paid background response.
+ */
+@Slf4j
+@Service
+public class LlmJobService {
+
+    private final LlmJobRepository llmJobRepository;
+    private final ConversationRepository conversationRepository;
+    private final OpenAIResponsesService responsesService;
+    private final OpenAIResponsesConfig responsesConfig;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    public LlmJobService(LlmJobRepository llmJobRepository,
+                         ConversationRepository conversationRepository,
+                         OpenAIResponsesService responsesService,
+                         @Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                         ObjectMapper objectMapper,
+                         TransactionTemplate transactionTemplate) {
+        this.llmJobRepository = llmJobRepository;
+        this.conversationRepository = conversationRepository;
+        this.responsesService = responsesService;
+        this.responsesConfig = responsesConfig;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    public boolean isEnabled() {
+        return responsesConfig.isEnabled() && responsesConfig.getBackground().isEnabled();
+    }
+
+    /**
+     * Prepare the turn and persist it as a queued job. Returns without waiting for OpenAI.
+     */
+    public LlmJob submit(String newUserMessage, String specialtyCode, String language,
+                         List<FileAttachment> attachments,
+                         String chatId, User user, GuestSession guestSession) {
+        OpenAIResponsesService.PreparedTurn turn = responsesService.prepareBackgroundTurn(
+            newUserMessage, specialtyCode, language, attachments, chatId, user, guestSession);
+
+        LlmJob job = llmJobRepository.save(LlmJob.builder()
+            .chatId(chatId)
+            .conversationId(turn.conversation().getConversationId())
+            .requestPayload(writeRequest(turn.request()))
+            .build());
+        log.info("Queued background job {} for chat {}", job.getJobId(), chatId);
+        return job;
+    }
+
+    /**
+     * The job, if the caller owns it: the signed-in user, or for guests the guest session, whose
+     * conversation it runs in. Anyone else gets nothing, as if the job did not exist.
+     */
+    public Optional<LlmJob> findJob(String jobId, User user, String guestSessionId) {
+        Long userId = user != null ? user.getId() : null;
+        String sessionId = user == null ? guestSessionId : null;
+        return llmJobRepository.findByJobId(jobId)
+            .filter(job -> conversationRepository.isOwnedBy(job.getConversationId(), userId, sessionId));
+    }
+
+    /**
+     * Cancel a job that has not finished yet. A job already running at OpenAI is cancelled there
+     * too, and whatever it consumed so far is recorded as a cancelled turn. Returns the job as it
+     * stands afterwards; finished jobs are returned unchanged. Only the owner can cancel (see
+     * {@link #findJob}). A job cancelled while it is being submitted has no response id yet; the
+     * poller cancels that response once OpenAI has returned it.
+     */
+    public Optional<LlmJob> cancel(String jobId, User user, String guestSessionId) {
+        return findJob(jobId, user, guestSessionId).map(job -> {
+            if (isFinished(job)) {
+                return job;
+            }
+            String previousStatus = job.getStatus();
+            job.setStatus(LlmJob.CANCELLED);
+            job.setErrorMessage("Cancelled by client");
+            job.setCompletedAt(LocalDateTime.now());
+            // Version-checked: if the poller advanced the job meanwhile this fails and the client can retry
+            LlmJob cancelled = llmJobRepository.saveAndFlush(job);
+            if (LlmJob.IN_PROGRESS.equals(previousStatus)) {
+                cancelAtOpenAI(cancelled, "cancelled by client");
+            }
+            log.info("Background job {} cancelled while {}", jobId, previousStatus);
+            return cancelled;
+        });
+    }
+
+    private boolean isFinished(LlmJob job) {
+        return LlmJob.COMPLETED.equals(job.getStatus())
+            || LlmJob.FAILED.equals(job.getStatus())
+            || LlmJob.CANCELLED.equals(job.getStatus());
+    }
+
+    private void cancelAtOpenAI(LlmJob job, String reason) {
+        ResponsesAPIResponse response = null;
+        try {
+            response = responsesService.cancelBackgroundResponse(job.getOpenaiResponseId())
+                .block(Duration.ofMillis(responsesConfig.getBackground().getRequestTimeout()));
+        } catch (Exception e) {
+            log.warn("Could not cancel OpenAI response {} for job {}: {}",
+                job.getOpenaiResponseId(), job.getJobId(), e.getMessage());
+        }
+        responsesService.recordCancelledTurn(job.getConversationId(), readRequest(job).getModel(),
+            job.getOpenaiResponseId(), response != null ? response.getUsage() : null, reason);
+    }
+
+    @Scheduled(fixedDelayString = "${app.chatgpt.openai.responses.background.poll-interval:1000}")
+    public void pollDueJobs() {
+        if (!isEnabled()) {
+            return;
+        }
+        OpenAIResponsesConfig.BackgroundConfig config = responsesConfig.getBackground();
+        List<LlmJob> dueJobs = llmJobRepository.findDueJobs(LocalDateTime.now(), PageRequest.of(0, config.getBatchSize()));
+        for (LlmJob job : dueJobs) {
+            try {
+                advance(job);
+            } catch (ObjectOptimisticLockingFailureException e) {
+                log.debug("Job {} was advanced by another node", job.getJobId());
+            } catch (Exception e) {
+                log.error("Failed to advance background job {}", job.getJobId(), e);
+            }
+        }
+    }
+
+    private void advance(LlmJob job) {
+        switch (job.getStatus()) {
+            case LlmJob.QUEUED -> submitToOpenAI(job);
+            // The lease ran out mid-submit (node died or hung); OpenAI may have the request already
+            case LlmJob.SUBMITTING -> fail(job, "Submit was interrupted and may have reached OpenAI; not resubmitted");
+            case LlmJob.IN_PROGRESS -> pollOpenAI(job);
+            default -> log.warn("Job {} is due but already {}", job.getJobId(), job.getStatus());
+        }
+    }
+
+    private void submitToOpenAI(LlmJob job) {
+        OpenAIResponsesConfig.BackgroundConfig config = responsesConfig.getBackground();
+
+        // Claim the job first; the version check makes sure only one node sends it to OpenAI.
+        // A claim that outlives the lease (node died mid-submit) makes the job due again, and fail.
+        job.setStatus(LlmJob.SUBMITTING);
+        job.setSubmittedAt(LocalDateTime.now());
+        job.setNextPollAt(LocalDateTime.now().plus(Duration.ofMillis(config.getSubmitLeaseTimeout())));
+        LlmJob claimed = llmJobRepository.saveAndFlush(job);
+
+        ResponsesAPIResponse response;
+        try {
+            response = responsesService.submitBackgroundRequest(readRequest(claimed))
+                .block(Duration.ofMillis(config.getRequestTimeout()));
+        } catch (Exception e) {
+            if (UpstreamRetry.notProcessed(e)) {
+                retryOrFail(claimed, LlmJob.QUEUED, "Submit failed: " + e.getMessage());
+            } else {
+                // Possibly accepted and billed already; submitting again would pay for the answer twice
+                fail(claimed, "Submit outcome unknown, not resubmitted: " + e.getMessage());
+            }
+            return;
+        }
+        if (response == null || response.getId() == null) {
+            fail(claimed, "Submit returned no response id");
+            return;
+        }
+
+        log.info("Background job {} submitted as OpenAI response {} ({})",
+            claimed.getJobId(), response.getId(), response.getStatus());
+        claimed.setOpenaiResponseId(response.getId());
+        claimed.setStatus(LlmJob.IN_PROGRESS);
+        claimed.setPollAttempts(0);
+        claimed.setNextPollAt(nextPoll(0));
+        try {
+            llmJobRepository.save(claimed);
+        } catch (ObjectOptimisticLockingFailureException e) {
+            cancelIfCancelledMeanwhile(claimed.getJobId(), response.getId(), e);
+        }
+    }
+
+    /**
+     * The job changed while its submit was in flight. If the client cancelled it, the response
+     * just started at OpenAI would otherwise run, and be billed, with nobody polling it.
+     */
+    private void cancelIfCancelledMeanwhile(String jobId, String responseId, ObjectOptimisticLockingFailureException e) {
+        LlmJob current = llmJobRepository.findByJobId(jobId).orElse(null);
+        if (current == null || !LlmJob.CANCELLED.equals(current.getStatus())) {
+            throw e;
+        }
+        current.setOpenaiResponseId(responseId);
+        cancelAtOpenAI(llmJobRepository.save(current), "cancelled by client");
+    }
+
+    private void pollOpenAI(LlmJob job) {
+        OpenAIResponsesConfig.BackgroundConfig config = responsesConfig.getBackground();
+
+        ResponsesAPIResponse response;
+        try {
+            response = responsesService.retrieveResponse(job.getOpenaiResponseId())
+                .block(Duration.ofMillis(config.getRequestTimeout()));
+        } catch (Exception e) {
+            log.warn("Polling job {} failed, will retry: {}", job.getJobId(), e.getMessage());
+            reschedule(job);
+            return;
+        }
+
+        String status = response != null && response.getStatus() != null ? response.getStatus() : "";
+        switch (status) {
+            case "completed", "incomplete" -> complete(job, response);
+            case "failed", "cancelled" -> fail(job, "OpenAI reported status " + status);
+            default -> {
+                if (job.getCreatedAt() != null
+                        && job.getCreatedAt().plusMinutes(config.getMaxJobAgeMinutes()).isBefore(LocalDateTime.now())) {
+                    fail(job, "Timed out after " + config.getMaxJobAgeMinutes() + " minutes");
+                    // Stop paying for an answer nobody will collect
+                    cancelAtOpenAI(job, "deadline exceeded");
+                } else {
+                    reschedule(job);
+                }
+            }
+        }
+    }
+
+    private void complete(LlmJob job, ResponsesAPIResponse response) {
+        transactionTemplate.executeWithoutResult(status -> {
+            String text = responsesService.commitBackgroundTurn(response, job.getConversationId(), readRequest(job),
+                job.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant());
+            job.setResultText(text);
+            job.setStatus(LlmJob.COMPLETED);
+            job.setCompletedAt(LocalDateTime.now());
+            // Version-checked at commit: if another node completed it first, the chat message rolls back too
+            llmJobRepository.save(job);
+        });
+        log.info("Background job {} completed after {} polls", job.getJobId(), job.getPollAttempts());
+    }
+
+    private void retryOrFail(LlmJob job, String retryStatus, String error) {
+        int attempts = job.getPollAttempts() + 1;
+        if (attempts >= responsesConfig.getRetry().getMaxAttempts()) {
+            fail(job, error);
+            return;
+        }
+        log.warn("Background job {}: {} (attempt {})", job.getJobId(), error, attempts);
+        job.setStatus(retryStatus);
+        job.setPollAttempts(attempts);
+        job.setErrorMessage(error);
+        job.setNextPollAt(nextPoll(attempts));
+        llmJobRepository.save(job);
+    }
+
+    private void reschedule(LlmJob job) {
+        int attempts = job.getPollAttempts() + 1;
+        job.setPollAttempts(attempts);
+        job.setNextPollAt(nextPoll(attempts));
+        llmJobRepository.save(job);
+    }
+
+    private void fail(LlmJob job, String error) {
+        log.error("Background job {} failed: {}", job.getJobId(), error);
+        job.setStatus(LlmJob.FAILED);
+        job.setErrorMessage(error.length() > 1000 ? error.substring(0, 1000) : error);
+        job.setCompletedAt(LocalDateTime.now());
+        llmJobRepository.save(job);
+    }
+
+    private LocalDateTime nextPoll(int attempts) {
+        OpenAIResponsesConfig.BackgroundConfig config = responsesConfig.getBackground();
+        long delay = config.getInitialBackoff() * (1L << Math.min(attempts, 16));
+        return LocalDateTime.now().plus(Duration.ofMillis(Math.min(delay, config.getMaxBackoff())));
+    }
+
+    private String writeRequest(ResponsesAPIRequest request) {
+        try {
+            return objectMapper.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize background request", e);
+        }
+    }
+
+    private ResponsesAPIRequest readRequest(LlmJob job) {
+        try {
+            return objectMapper.readValue(job.getRequestPayload(), ResponsesAPIRequest.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not read request of job " + job.getJobId(), e);
+        }
+    }
+}
@@ -13,6 +13,8 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class MedicalSpecialtyService {
     private final MedicalSpecialtyRepository specialtyRepository;
+    private final PromptTemplateRegistry promptTemplateRegistry;
+    private final ReferenceDataCache referenceDataCache;
 
     public List<MedicalSpecialtyDTO> getAllActiveSpecialties() {
         return specialtyRepository.findByIsActiveTrue().stream()
@@ -41,7 +43,10 @@ public class MedicalSpecialtyService {
         specialty.setIconUrl(dto.getIconUrl());
         specialty.setActive(dto.isActive());
         
-        return convertToDTO(specialtyRepository.save(specialty));
+        MedicalSpecialty saved = specialtyRepository.save(specialty);
+        referenceDataCache.evictSpecialties();
+        promptTemplateRegistry.reload();
+        return convertToDTO(saved);
     }
 
     private MedicalSpecialtyDTO convertToDTO(MedicalSpecialty specialty) {
@@ -0,0 +1,161 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Chooses the model and reasoning effort for each turn from cheap signals, so acknowledgements and
+ * short follow-ups do not wait for the full reasoning model. Anything that may be hard (a first
+ * turn, even a bare "hello", attachments, a long message) stays on the conversation's model.
+ * <p>
+ * Each tier maps to a {@link OpenAIResponsesConfig.RouteTarget}. A specialty with an allow-list is
+ * only routed to listed models; if a tier's model is not allowed the next tier up is tried, and
+ * the conversation's model is used when none fits.
+ */
+@Slf4j
+@Service
+public class ModelRouter {
+
+    public enum Tier {
+        SIMPLE, STANDARD, COMPLEX;
+
+        String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final OpenAIResponsesConfig.RoutingConfig config;
+    private final TokenEstimator tokenEstimator;
+    private final ObjectProvider<TurnClassifier> classifiers;
+    private final MeterRegistry meterRegistry;
+
+    public ModelRouter(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                       TokenEstimator tokenEstimator,
+                       ObjectProvider<TurnClassifier> classifiers,
+                       MeterRegistry meterRegistry) {
+        this.config = responsesConfig.getRouting();
+        this.tokenEstimator = tokenEstimator;
+        this.classifiers = classifiers;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Route a turn. {@code defaultModel} is the conversation's model, used whenever routing is off
+     * or no tier applies.
+     */
+    public Route route(String defaultModel, String message, String specialtyCode,
+                       int imageCount, int documentCount, boolean followUp) {
+        if (!config.isEnabled()) {
+            return Route.unrouted(defaultModel);
+        }
+        Signals signals = new Signals(message, tokenEstimator.count(defaultModel, message),
+            imageCount, documentCount, specialtyCode, followUp);
+
+        String reason = null;
+        Tier tier = classifiers.orderedStream()
+            .map(classifier -> classifier.classify(signals))
+            .filter(Objects::nonNull)
+            .findFirst()
+            .orElse(null);
+        if (tier != null) {
+            reason = "classifier";
+        } else {
+            HeuristicResult heuristic = classify(signals);
+            tier = heuristic.tier();
+            reason = heuristic.reason();
+        }
+
+        Route route = resolve(tier, reason, defaultModel, specialtyCode);
+        meterRegistry.counter("llm.router.decisions", "tier", route.tier().key(), "model", route.model()).increment();
+        log.debug("Routed turn ({} tokens, {} images, {} documents, follow-up={}) to {} ({}, effort={}): {}",
+            signals.messageTokens(), imageCount, documentCount, followUp,
+            route.model(), route.tier().key(), route.reasoningEffort(), route.reason());
+        return route;
+    }
+
+    private HeuristicResult classify(Signals signals) {
+        if (signals.imageCount() > 0 || signals.documentCount() > 0) {
+            return new HeuristicResult(Tier.COMPLEX, "attachments");
+        }
+        // "hi" is in the acknowledgements too, but the first answer of a chat stays on its model
+        if (!signals.followUp()) {
+            return new HeuristicResult(Tier.COMPLEX, "first_turn");
+        }
+        if (signals.messageTokens() <= config.getSimpleMaxTokens() && isAcknowledgement(signals.message())) {
+            return new HeuristicResult(Tier.SIMPLE, "acknowledgement");
+        }
+        if (signals.messageTokens() <= config.getStandardMaxTokens()) {
+            return new HeuristicResult(Tier.STANDARD, "short_follow_up");
+        }
+        return new HeuristicResult(Tier.COMPLEX, "long_message");
+    }
+
+    /**
+     * Whole-message match after dropping punctuation and emoji: "Thanks!!" and "ok 👍" qualify,
+     * "ok but the pain is worse" does not.
+     */
+    private boolean isAcknowledgement(String message) {
+        if (message == null) {
+            return false;
+        }
+        String normalized = message.toLowerCase(Locale.ROOT)
+            .replaceAll("[^\\p{L}\\p{N} ]", " ")
+            .replaceAll("\\s+", " ")
+            .trim();
+        if (normalized.isEmpty()) {
+            return false;
+        }
+        for (String phrase : config.getAcknowledgements()) {
+            if (normalized.equals(phrase)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Route resolve(Tier tier, String reason, String defaultModel, String specialtyCode) {
+        List<String> allowed = specialtyCode != null ? config.getAllowedModels().get(specialtyCode) : null;
+        Tier[] tiers = Tier.values();
+        for (int i = tier.ordinal(); i < tiers.length; i++) {
+            OpenAIResponsesConfig.RouteTarget target = config.getTiers().get(tiers[i].key());
+            String model = target != null && target.getModel() != null ? target.getModel() : defaultModel;
+            if (allowed == null || allowed.isEmpty() || allowed.contains(model)) {
+                String effort = target != null && isReasoningModel(model) ? target.getReasoningEffort() : null;
+                return new Route(model, effort, tiers[i], i == tier.ordinal() ? reason : reason + "+allow_list");
+            }
+        }
+        return new Route(defaultModel, null, Tier.COMPLEX, reason + "+allow_list");
+    }
+
+    private static boolean isReasoningModel(String model) {
+        return model != null && model.startsWith("o") && model.length() > 1 && Character.isDigit(model.charAt(1));
+    }
+
+    /**
+     * What a classifier sees about a turn.
+     */
+    public record Signals(String message, int messageTokens, int imageCount, int documentCount,
+                          String specialtyCode, boolean followUp) {
+    }
+
+    /**
+     * The routing decision. {@code tier} is null when routing is disabled.
+     */
+    public record Route(String model, String reasoningEffort, Tier tier, String reason) {
+
+        static Route unrouted(String model) {
+            return new Route(model, null, null, null);
+        }
+    }
+
+    private record HeuristicResult(Tier tier, String reason) {
+    }
+}
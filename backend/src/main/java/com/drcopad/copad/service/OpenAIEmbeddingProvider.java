@@ -0,0 +1,71 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.ChatGPTConfig;
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Embeddings from the OpenAI embeddings endpoint, truncated server-side to the configured size.
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.chatgpt.openai.responses.semantic-cache", name = "provider", havingValue = "openai")
+public class OpenAIEmbeddingProvider implements EmbeddingProvider {
+
+    private final WebClient webClient;
+    private final ChatGPTConfig chatGPTConfig;
+    private final OpenAIResponsesConfig.SemanticCacheConfig config;
+
+    public OpenAIEmbeddingProvider(WebClient webClient,
+                                   ChatGPTConfig chatGPTConfig,
+                                   @Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig) {
+        this.webClient = webClient;
+        this.chatGPTConfig = chatGPTConfig;
+        this.config = responsesConfig.getSemanticCache();
+    }
+
+    @Override
+    public float[] embed(String text) {
+        JsonNode response = webClient.post()
+                .uri(config.getEmbeddingUrl())
+                .header("Authorization", "Bearer " + chatGPTConfig.getOpenai().getKey())
+                .bodyValue(Map.of(
+                        "model", config.getEmbeddingModel(),
+                        "input", text,
+                        "dimensions", config.getEmbeddingDimensions()))
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .block(Duration.ofSeconds(10));
+
+        JsonNode embedding = response == null ? null : response.path("data").path(0).path("embedding");
+        if (embedding == null || !embedding.isArray() || embedding.size() != config.getEmbeddingDimensions()) {
+            throw new IllegalStateException("Unexpected embeddings response");
+        }
+        float[] vector = new float[embedding.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) embedding.get(i).asDouble();
+        }
+        return HashingEmbeddingProvider.normalize(vector);
+    }
+
+    @Override
+    public int dimensions() {
+        return config.getEmbeddingDimensions();
+    }
+
+    @Override
+    public double defaultSimilarityThreshold() {
+        return 0.92;
+    }
+
+    @Override
+    public String modelId() {
+        return config.getEmbeddingModel() + "-" + config.getEmbeddingDimensions();
+    }
+}
@@ -1,5 +1,6 @@
 package com.drcopad.copad.service;
 
+import java.math.BigDecimal;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
@@ -8,21 +9,29 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import com.drcopad.copad.config.OpenAIResponsesConfig;
 import com.drcopad.copad.dto.ResponsesAPIRequest;
 import com.drcopad.copad.dto.ResponsesAPIResponse;
+import com.drcopad.copad.dto.ResponsesStreamEvent;
 import com.drcopad.copad.entity.Chat;
 import com.drcopad.copad.entity.ChatMessage;
 import com.drcopad.copad.entity.FileAttachment;
 import com.drcopad.copad.entity.GuestSession;
-import com.drcopad.copad.entity.MedicalSpecialty;
 import com.drcopad.copad.entity.User;
 import com.drcopad.copad.entity.responses.Conversation;
 import com.drcopad.copad.entity.responses.ConversationFile;
@@ -30,30 +39,35 @@ import com.drcopad.copad.entity.responses.OpenAIResponse;
 import com.drcopad.copad.entity.responses.UsageMetric;
 import com.drcopad.copad.exception.ConversationExpiredException;
 import com.drcopad.copad.exception.CostLimitExceededException;
+import com.drcopad.copad.exception.RateLimitExceededException;
+import com.drcopad.copad.exception.RequestTooLargeException;
+import com.drcopad.copad.exception.ServiceOverloadedException;
+import com.drcopad.copad.exception.UpstreamHttpException;
 import com.drcopad.copad.repository.ChatRepository;
 import com.drcopad.copad.repository.FileAttachmentRepository;
-import com.drcopad.copad.repository.MedicalSpecialtyRepository;
 import com.drcopad.copad.repository.MessageRepository;
 import com.drcopad.copad.repository.responses.ConversationFileRepository;
 import com.drcopad.copad.repository.responses.ConversationRepository;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
-import io.github.resilience4j.ratelimiter.annotation.RateLimiter;
-import io.github.resilience4j.retry.annotation.Retry;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Scheduler;
 
 import org.springframework.beans.factory.annotation.Value;
 
 @Slf4j
 @Service
 public class OpenAIResponsesService {
+    private static final String NO_CONTENT_REPLY = "I apologize, but I couldn't generate a response. Please try again.";
+
     private final WebClient webClient;
     private final OpenAIResponsesConfig responsesConfig;
     private final ConversationManager conversationManager;
     private final CostCalculationService costCalculationService;
-    private final MedicalSpecialtyRepository specialtyRepository;
+    private final PromptTemplateRegistry promptTemplateRegistry;
     private final ChatRepository chatRepository;
     private final MessageRepository messageRepository;
     private final ConversationRepository conversationRepository;
@@ -63,6 +77,17 @@ public class OpenAIResponsesService {
     private final ObjectMapper objectMapper;
     private final ChatGPTService chatGPTService;
     private final DocumentExtractionService documentExtractionService;
+    private final TransactionTemplate transactionTemplate;
+    private final Scheduler jdbcScheduler;
+    private final ResponseCacheService responseCacheService;
+    private final SemanticResponseCache semanticResponseCache;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final SpendLedger spendLedger;
+    private final TokenEstimator tokenEstimator;
+    private final ModelRouter modelRouter;
+    private final ConversationCompactor conversationCompactor;
+    private final UpstreamRetry upstreamRetry;
+    private final ConversationSequencer conversationSequencer;
     
     @Value("${upload.public-url:http://localhost:8080}")
     private String publicUrl;
@@ -74,7 +99,7 @@ public class OpenAIResponsesService {
                                   @Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
                                   ConversationManager conversationManager,
                                   CostCalculationService costCalculationService,
-                                  MedicalSpecialtyRepository specialtyRepository,
+                                  PromptTemplateRegistry promptTemplateRegistry,
                                   ChatRepository chatRepository,
                                   MessageRepository messageRepository,
                                   ConversationRepository conversationRepository,
@@ -83,12 +108,23 @@ public class OpenAIResponsesService {
                                   FileUploadService fileUploadService,
                                   ObjectMapper objectMapper,
                                   ChatGPTService chatGPTService,
-                                  DocumentExtractionService documentExtractionService) {
+                                  DocumentExtractionService documentExtractionService,
+                                  TransactionTemplate transactionTemplate,
+                                  @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
+                                  ResponseCacheService responseCacheService,
+                                  SemanticResponseCache semanticResponseCache,
+                                  AdaptiveConcurrencyLimiter concurrencyLimiter,
+                                  SpendLedger spendLedger,
+                                  TokenEstimator tokenEstimator,
+                                  ModelRouter modelRouter,
+                                  ConversationCompactor conversationCompactor,
+                                  UpstreamRetry upstreamRetry,
+                                  ConversationSequencer conversationSequencer) {
         this.webClient = webClient;
         this.responsesConfig = responsesConfig;
         this.conversationManager = conversationManager;
         this.costCalculationService = costCalculationService;
-        this.specialtyRepository = specialtyRepository;
+        this.promptTemplateRegistry = promptTemplateRegistry;
         this.chatRepository = chatRepository;
         this.messageRepository = messageRepository;
         this.conversationRepository = conversationRepository;
@@ -98,12 +134,24 @@ public class OpenAIResponsesService {
         this.objectMapper = objectMapper;
         this.chatGPTService = chatGPTService;
         this.documentExtractionService = documentExtractionService;
+        this.transactionTemplate = transactionTemplate;
+        this.jdbcScheduler = jdbcScheduler;
+        this.responseCacheService = responseCacheService;
+        this.semanticResponseCache = semanticResponseCache;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.spendLedger = spendLedger;
+        this.tokenEstimator = tokenEstimator;
+        this.modelRouter = modelRouter;
+        this.conversationCompactor = conversationCompactor;
+        this.upstreamRetry = upstreamRetry;
+        this.conversationSequencer = conversationSequencer;
     }
 
-    @CircuitBreaker(name = "openai-responses", fallbackMethod = "fallbackToChatGPT")
-    @Retry(name = "openai-responses")
-    @RateLimiter(name = "openai-responses")
-    @Transactional
+    /**
+     * Answer a message through the Responses API. Only the HTTP exchange is retried (see
+     * {@link UpstreamRetry}); a failed turn is not replayed, and falling back to Chat Completions is
+     * left to the caller. Waits for the chat's previous turn first (see {@link ConversationSequencer}).
+     */
     public String getResponsesAPIResponse(String newUserMessage, List<ChatMessage> history,
                                           String specialtyCode, String language,
                                           List<FileAttachment> attachments,
@@ -114,25 +162,93 @@ public class OpenAIResponsesService {
             return chatGPTService.getChatResponse(newUserMessage, history, specialtyCode, language, attachments);
         }
 
-        if (user != null && costCalculationService.hasExceededDailyLimit(user.getId())) {
-            throw new CostLimitExceededException("Daily cost limit exceeded");
+        ConversationSequencer.Permit permit = conversationSequencer.await(chatId);
+        try {
+            return respond(prepareTurn(newUserMessage, specialtyCode, language, attachments,
+                chatId, user, guestSession));
+        } finally {
+            permit.release();
         }
-        if (guestSession != null && costCalculationService.hasGuestExceededDailyLimit(guestSession.getId())) {
-            throw new CostLimitExceededException("Daily token limit exceeded for guest session");
+    }
+
+    private String respond(PreparedTurn turn) {
+        Conversation conversation = turn.conversation();
+        ResponsesAPIRequest request = turn.request();
+
+        Optional<ResponseCacheService.CachedAnswer> cached = lookupCachedAnswer(turn);
+        if (cached.isPresent()) {
+            try {
+                return commitCachedTurn(turn, cached.get());
+            } finally {
+                turn.reservation().release();
+            }
         }
 
-        Conversation conversation = conversationManager.getOrCreateConversation(
-            chatId, user, guestSession, specialtyCode, language
-        );
-        
-        log.info("Created/Retrieved conversation with ID: {}", conversation.getConversationId());
+        Instant startTime = Instant.now();
 
-        if (conversation.isExpired()) {
-            throw new ConversationExpiredException("Conversation has expired. Please start a new conversation.");
+        try {
+            ResponsesAPIResponse apiResponse = withDeadline(
+                    upstreamRetry.retry("responses", executeAPICall(request, conversation, startTime)), turn)
+                .doOnError(error -> log.error("Error in executeAPICall", error))
+                .block();
+            
+            if (apiResponse == null) {
+                log.error("Received null response from API call");
+                throw new RuntimeException("No response received from OpenAI API");
+            }
+            
+            log.info("Successfully received response from OpenAI API, processing it");
+            String result = commitTurn(apiResponse, conversation, request, startTime);
+            
+            if (result == null) {
+                log.error("Processed response returned null");
+                throw new RuntimeException("Failed to process OpenAI API response");
+            }
+            
+            recordEstimateAccuracy(turn, apiResponse);
+            cacheAnswer(turn, apiResponse, result, startTime);
+            return result;
+        } catch (ServiceOverloadedException | RateLimitExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Exception caught while executing API call", e);
+            throw new RuntimeException("Failed to execute OpenAI Responses API call", e);
+        } finally {
+            // The recorded usage has replaced the estimate by now, or the call failed
+            turn.reservation().release();
         }
+    }
+
+    /**
+     * Run the pre-flight checks and build the request for a turn. Shared by the blocking and
+     * streaming paths so both see the same limits, conversation state and prompt.
+     * <p>
+     * The database work runs in its own short transaction so no JDBC connection is held while
+     * the model call is in flight; the matching commit phase is {@link #commitTurn}.
+     */
+    private PreparedTurn prepareTurn(String newUserMessage, String specialtyCode, String language,
+                                     List<FileAttachment> attachments,
+                                     String chatId, User user, GuestSession guestSession) {
+
+        TurnContext context = transactionTemplate.execute(status -> {
+            Conversation conversation = conversationManager.getOrCreateConversation(
+                chatId, user, guestSession, specialtyCode, language
+            );
+            
+            log.info("Created/Retrieved conversation with ID: {}", conversation.getConversationId());
+
+            if (conversation.isExpired()) {
+                throw new ConversationExpiredException("Conversation has expired. Please start a new conversation.");
+            }
+
+            String previousResponseId = conversationManager.getLastResponseId(conversation.getConversationId())
+                .orElse(null);
 
-        MedicalSpecialty specialty = specialtyRepository.findByCode(specialtyCode)
-            .orElseThrow(() -> new IllegalArgumentException("Invalid specialty code: " + specialtyCode));
+            return new TurnContext(conversation, previousResponseId,
+                conversation.getContextSummary());
+        });
+        Conversation conversation = context.conversation();
+        PromptTemplateRegistry.PromptTemplate prompt = promptTemplateRegistry.get(specialtyCode, language);
 
         // We're now extracting text from documents instead of uploading them
         // This follows the same pattern as ChatGPTService
@@ -144,49 +260,426 @@ public class OpenAIResponsesService {
             log.info("No attachments to process for conversation {}", conversation.getConversationId());
         }
 
+        int imageCount = attachments == null ? 0 : (int) attachments.stream()
+            .filter(att -> att.getFileType() != null && att.getFileType().startsWith("image/"))
+            .count();
+        int documentCount = attachments == null ? 0 : attachments.size() - imageCount;
+        boolean followUp = context.previousResponseId() != null || context.contextSummary() != null;
+        ModelRouter.Route route = modelRouter.route(conversation.getModel(), newUserMessage, specialtyCode,
+            imageCount, documentCount, followUp);
+
+        // Document extraction reads from disk, so the request is built outside the transaction
         ResponsesAPIRequest request = buildRequest(
             newUserMessage,
             conversation,
-            specialty.getSystemPrompt(),
-            language,
+            route,
+            prompt,
+            context.contextSummary(),
+            context.previousResponseId(),
             fileIds,
             attachments
         );
 
-        Instant startTime = Instant.now();
+        // Only context-free turns are cacheable: the model sees nothing but the prompt and this message
+        boolean contextFree = !followUp && (attachments == null || attachments.isEmpty());
 
-        try {
-            ResponsesAPIResponse apiResponse = executeAPICall(request, conversation, startTime)
-                .doOnError(error -> log.error("Error in executeAPICall", error))
-                .block(Duration.ofSeconds(600));
-            
-            if (apiResponse == null) {
-                log.error("Received null response from API call");
-                throw new RuntimeException("No response received from OpenAI API");
+        int estimatedInputTokens = tokenEstimator.estimate(request);
+        int maxInputTokens = responsesConfig.getTokens().getMaxInputTokens();
+        if (estimatedInputTokens > maxInputTokens) {
+            throw new RequestTooLargeException("Message is too large: about " + estimatedInputTokens
+                + " tokens, the limit is " + maxInputTokens);
+        }
+
+        return new PreparedTurn(conversation, request, newUserMessage, contextFree,
+            reserveSpend(request, estimatedInputTokens, user, guestSession), estimatedInputTokens);
+    }
+
+    /**
+     * Hold the estimated cost of the turn against the daily limit until its usage is recorded.
+     * The reservation is checked and taken atomically, so parallel turns cannot overshoot the limit.
+     */
+    private SpendLedger.Reservation reserveSpend(ResponsesAPIRequest request, int inputTokens,
+                                                 User user, GuestSession guestSession) {
+        int outputTokens = responsesConfig.getCost().getEstimatedOutputTokens();
+        if (user != null) {
+            BigDecimal estimate = costCalculationService.calculateUsageCost(request.getModel(), inputTokens, outputTokens,
+                List.of()).getTotalCost();
+            SpendLedger.Reservation reservation = spendLedger.reserveForUser(user.getId(), estimate);
+            if (reservation == null) {
+                throw new CostLimitExceededException("Daily cost limit exceeded");
             }
-            
-            log.info("Successfully received response from OpenAI API, processing it");
-            String result = processResponse(apiResponse, conversation, request, startTime);
-            
-            if (result == null) {
-                log.error("Processed response returned null");
-                throw new RuntimeException("Failed to process OpenAI API response");
+            return reservation;
+        }
+        if (guestSession != null) {
+            SpendLedger.Reservation reservation = spendLedger.reserveForGuest(guestSession.getId(),
+                (long) inputTokens + outputTokens);
+            if (reservation == null) {
+                throw new CostLimitExceededException("Daily token limit exceeded for guest session");
             }
-            
-            return result;
+            return reservation;
+        }
+        return SpendLedger.NONE;
+    }
+
+    /**
+     * Feed the estimate-vs-billed metric. Only turns without a previous response are comparable:
+     * on chained turns OpenAI also bills the stored history, which the request does not carry.
+     */
+    private void recordEstimateAccuracy(PreparedTurn turn, ResponsesAPIResponse response) {
+        if (turn.request().getPreviousResponseId() == null && response.getUsage() != null) {
+            tokenEstimator.recordBilled(turn.request().getModel(), turn.estimatedInputTokens(),
+                response.getUsage().inputTokens());
+        }
+    }
+
+    /**
+     * Exact-match cache first, then the semantic tier for reworded questions.
+     */
+    private Optional<ResponseCacheService.CachedAnswer> lookupCachedAnswer(PreparedTurn turn) {
+        if (!turn.contextFree()) {
+            return Optional.empty();
+        }
+        Conversation conversation = turn.conversation();
+        ResponsesAPIRequest request = turn.request();
+        if (responseCacheService.isEnabledFor(conversation.getSpecialtyCode())) {
+            Optional<ResponseCacheService.CachedAnswer> exact = responseCacheService.lookup(exactCacheKey(turn));
+            if (exact.isPresent()) {
+                return exact;
+            }
+        }
+        if (semanticResponseCache.isEnabledFor(conversation.getSpecialtyCode())) {
+            try {
+                return semanticResponseCache.lookup(conversation.getSpecialtyCode(), conversation.getLanguage(),
+                    request.getModel(), request.getInstructions(), turn.userMessage());
+            } catch (Exception e) {
+                log.warn("Semantic cache lookup failed, calling the model: {}", e.getMessage());
+            }
+        }
+        return Optional.empty();
+    }
+
+    private void cacheAnswer(PreparedTurn turn, ResponsesAPIResponse response, String text, Instant startTime) {
+        if (!turn.contextFree() || "incomplete".equals(response.getStatus()) || NO_CONTENT_REPLY.equals(text)) {
+            return;
+        }
+        Conversation conversation = turn.conversation();
+        ResponsesAPIRequest request = turn.request();
+        String model = response.getModel() != null ? response.getModel() : request.getModel();
+        if (responseCacheService.isEnabledFor(conversation.getSpecialtyCode())) {
+            responseCacheService.store(exactCacheKey(turn),
+                new ResponseCacheService.CachedAnswer(text, response.getId(), model));
+        }
+        if (semanticResponseCache.isEnabledFor(conversation.getSpecialtyCode())) {
+            try {
+                // Keyed by the requested model so lookups, which only know the request, can match it
+                semanticResponseCache.store(conversation.getSpecialtyCode(), conversation.getLanguage(),
+                    request.getModel(), request.getInstructions(), turn.userMessage(), text, response.getId(),
+                    Duration.between(startTime, Instant.now()).toMillis());
+            } catch (Exception e) {
+                log.warn("Could not add answer to the semantic cache: {}", e.getMessage());
+            }
+        }
+    }
+
+    private String exactCacheKey(PreparedTurn turn) {
+        return responseCacheService.key(turn.request().getInstructions(), turn.conversation().getLanguage(),
+            turn.request().getModel(), turn.userMessage());
+    }
+
+    /**
+     * Answer a turn from the response cache. History and accounting stay consistent: the AI message
+     * is saved and a zero-cost usage row with api type "cache" is recorded.
+     * <p>
+     * The cached response was stored for another user's conversation, so it must never become this
+     * conversation's {@code previous_response_id}. Instead this question and the served answer are
+     * kept as the conversation's context summary, and the next turn starts a chain of its own with
+     * them in its instructions, the way a compacted conversation does.
+     */
+    private String commitCachedTurn(PreparedTurn turn, ResponseCacheService.CachedAnswer answer) {
+        Conversation conversation = turn.conversation();
+        return transactionTemplate.execute(status -> {
+            Chat chat = chatRepository.findByChatId(conversation.getChatId())
+                .orElseThrow(() -> new IllegalArgumentException("Chat not found"));
+            ChatMessage aiMessage = new ChatMessage();
+            aiMessage.setChat(chat);
+            aiMessage.setSender("AI");
+            aiMessage.setMessage(answer.text());
+            messageRepository.save(aiMessage);
+
+            conversationManager.seedContextSummary(conversation.getConversationId(),
+                cachedExchange(turn.userMessage(), answer.text()));
+            conversationManager.recordUsage(UsageMetric.builder()
+                .conversationId(conversation.getConversationId())
+                .responseId(answer.responseId())
+                .user(conversation.getUser())
+                .guestSession(conversation.getGuestSession())
+                .model(answer.model())
+                .apiType("cache")
+                .build());
+            return answer.text();
+        });
+    }
+
+    private static String cachedExchange(String question, String answer) {
+        return "The patient asked:\n" + question + "\n\nYou answered:\n" + answer;
+    }
+
+    private <T> Mono<T> withDeadline(Mono<T> call, PreparedTurn turn) {
+        return withDeadline(call, turn, "", () -> false);
+    }
+
+    /**
+     * Bound a model call by the request deadline. When the deadline passes or the subscriber goes
+     * away (client disconnected, SSE emitter closed) the WebClient exchange is disposed, so OpenAI
+     * stops generating, and the turn is recorded as cancelled with its {@link #abortedUsage}.
+     * A stream that fails once OpenAI has started answering is recorded the same way: a delta that
+     * could not be sent to a departed client surfaces as an error, not as a cancel.
+     */
+    private <T> Mono<T> withDeadline(Mono<T> call, PreparedTurn turn, CharSequence streamed, BooleanSupplier started) {
+        return call
+            .timeout(Duration.ofMillis(responsesConfig.getRequestDeadline()))
+            .doOnError(e -> {
+                if (e instanceof TimeoutException) {
+                    recordAbortedTurn(turn, streamed.toString(), "deadline exceeded");
+                } else if (started.getAsBoolean()) {
+                    recordAbortedTurn(turn, streamed.toString(), "stream failed: " + e.getMessage());
+                }
+            })
+            .doOnCancel(() -> recordAbortedTurn(turn, streamed.toString(), "client disconnected"));
+    }
+
+    private void recordAbortedTurn(PreparedTurn turn, String streamed, String reason) {
+        jdbcScheduler.schedule(() -> recordCancelledTurn(turn.conversation().getConversationId(),
+            turn.request().getModel(), null, abortedUsage(turn, streamed), reason));
+    }
+
+    /**
+     * OpenAI reports no usage for a call that was cut off, but still bills what it processed: the
+     * input, including the stored chain a chained turn continues, and the output generated so far.
+     * The output is counted from what was streamed; a synchronous call has nothing to count.
+     */
+    private ResponsesAPIResponse.Usage abortedUsage(PreparedTurn turn, String streamed) {
+        Integer context = turn.conversation().getContextInputTokens();
+        int inputTokens = turn.estimatedInputTokens()
+            + (turn.request().getPreviousResponseId() != null && context != null ? context : 0);
+        int outputTokens = streamed.isEmpty() ? 0 : tokenEstimator.count(turn.request().getModel(), streamed);
+        return new ResponsesAPIResponse.Usage(inputTokens, outputTokens, inputTokens + outputTokens);
+    }
+
+    /**
+     * Record a turn that was abandoned before it completed, with api type "cancelled". Aborted
+     * synchronous and streaming calls pass the usage estimated by {@link #abortedUsage};
+     * background cancellations pass the usage OpenAI reported for the partial response.
+     */
+    public void recordCancelledTurn(String conversationId, String model, String responseId,
+                                    ResponsesAPIResponse.Usage usage, String reason) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                Conversation conversation = conversationRepository.findByConversationId(conversationId).orElse(null);
+                UsageMetric metric = costCalculationService.calculateUsageCost(model, usage, List.of());
+                metric.setApiType("cancelled");
+                metric.setConversationId(conversationId);
+                metric.setResponseId(responseId);
+                if (conversation != null) {
+                    metric.setUser(conversation.getUser());
+                    metric.setGuestSession(conversation.getGuestSession());
+                }
+                conversationManager.recordUsage(metric);
+            });
+            log.info("Turn in conversation {} cancelled: {}", conversationId, reason);
         } catch (Exception e) {
-            log.error("Exception caught while executing API call", e);
-            throw new RuntimeException("Failed to execute OpenAI Responses API call", e);
+            log.error("Failed to record cancelled turn for conversation {}", conversationId, e);
+        }
+    }
+
+    /**
+     * Ask OpenAI to stop a background response. Returns the response as it stood when cancelled.
+     */
+    public Mono<ResponsesAPIResponse> cancelBackgroundResponse(String responseId) {
+        return webClient.post()
+            .uri(responsesConfig.getUrl() + "/" + responseId + "/cancel")
+            .header("Authorization", "Bearer " + chatGPTService.getChatGPTConfig().getOpenai().getKey())
+            .retrieve()
+            .onStatus(status -> !status.is2xxSuccessful(),
+                resp -> resp.bodyToMono(String.class)
+                    .defaultIfEmpty("No response body")
+                    .flatMap(body -> Mono.error(new UpstreamHttpException(resp.statusCode().value(), body))))
+            .bodyToMono(ResponsesAPIResponse.class);
+    }
+
+    /**
+     * Non-blocking variant of {@link #getResponsesAPIResponse} for the v3 pipeline: the prepare phase,
+     * the model call and the commit phase are composed into one Mono. Only the two short JPA steps
+     * run on the bounded {@code jdbcScheduler}; no thread is held while OpenAI is working, nor while
+     * the turn waits for the chat's previous one.
+     */
+    public Mono<String> respondReactive(String newUserMessage,
+                                        String specialtyCode, String language,
+                                        List<FileAttachment> attachments,
+                                        String chatId, User user, GuestSession guestSession) {
+
+        return conversationSequencer.acquire(chatId).flatMap(permit -> Mono.fromCallable(() ->
+                prepareTurn(newUserMessage, specialtyCode, language, attachments, chatId, user, guestSession))
+            .subscribeOn(jdbcScheduler)
+            .flatMap(turn -> {
+                Optional<ResponseCacheService.CachedAnswer> cached = lookupCachedAnswer(turn);
+                if (cached.isPresent()) {
+                    return Mono.fromCallable(() -> commitCachedTurn(turn, cached.get()))
+                        .subscribeOn(jdbcScheduler)
+                        .doFinally(signal -> turn.reservation().release());
+                }
+                Instant startTime = Instant.now();
+                return withDeadline(upstreamRetry.retry("responses",
+                        executeAPICall(turn.request(), turn.conversation(), startTime)), turn)
+                    .switchIfEmpty(Mono.error(new RuntimeException("No response received from OpenAI API")))
+                    .publishOn(jdbcScheduler)
+                    .map(apiResponse -> {
+                        String result = commitTurn(apiResponse, turn.conversation(), turn.request(), startTime);
+                        recordEstimateAccuracy(turn, apiResponse);
+                        cacheAnswer(turn, apiResponse, result, startTime);
+                        return result;
+                    })
+                    .doFinally(signal -> turn.reservation().release());
+            })
+            .doFinally(signal -> permit.release()));
+    }
+
+    /**
+     * Prepare a turn for background mode: same checks and request as the blocking path, but the
+     * request asks OpenAI to run it asynchronously and keep it retrievable by id.
+     */
+    public PreparedTurn prepareBackgroundTurn(String newUserMessage, String specialtyCode, String language,
+                                              List<FileAttachment> attachments,
+                                              String chatId, User user, GuestSession guestSession) {
+        PreparedTurn turn = prepareTurn(newUserMessage, specialtyCode, language, attachments,
+            chatId, user, guestSession);
+        turn.request().setBackground(true);
+        // Background responses must be stored, otherwise they cannot be polled
+        turn.request().setStore(true);
+        // The job's usage is recorded whenever it completes; the reservation only gates admission
+        turn.reservation().release();
+        return turn;
+    }
+
+    /**
+     * Submit a background-mode request. OpenAI answers immediately with status queued or in_progress.
+     */
+    public Mono<ResponsesAPIResponse> submitBackgroundRequest(ResponsesAPIRequest request) {
+        return executeAPICall(request, null, Instant.now());
+    }
+
+    /**
+     * Fetch the current state of a stored response.
+     */
+    public Mono<ResponsesAPIResponse> retrieveResponse(String responseId) {
+        return webClient.get()
+            .uri(responsesConfig.getUrl() + "/" + responseId)
+            .header("Authorization", "Bearer " + chatGPTService.getChatGPTConfig().getOpenai().getKey())
+            .retrieve()
+            .onStatus(status -> !status.is2xxSuccessful(),
+                resp -> resp.bodyToMono(String.class)
+                    .defaultIfEmpty("No response body")
+                    .flatMap(body -> Mono.error(new UpstreamHttpException(resp.statusCode().value(), body))))
+            .bodyToMono(ResponsesAPIResponse.class);
+    }
+
+    /**
+     * Persist a finished background response exactly like a synchronous turn. Joins the caller's
+     * transaction so the job can be marked completed atomically with the chat message.
+     */
+    public String commitBackgroundTurn(ResponsesAPIResponse response, String conversationId,
+                                       ResponsesAPIRequest request, Instant startTime) {
+        Conversation conversation = conversationRepository.findByConversationId(conversationId)
+            .orElseThrow(() -> new IllegalArgumentException("Conversation not found: " + conversationId));
+        return commitTurn(response, conversation, request, startTime);
+    }
+
+    /**
+     * Stream a Responses API answer token by token. Each text delta is handed to {@code onDelta}
+     * as soon as it arrives; the returned Mono emits the final assembled text after it has been
+     * persisted through {@link #processResponse}, exactly like the blocking path.
+     */
+    public Mono<String> streamResponsesAPIResponse(String newUserMessage,
+                                                   String specialtyCode, String language,
+                                                   List<FileAttachment> attachments,
+                                                   String chatId, User user, GuestSession guestSession,
+                                                   Consumer<String> onDelta) {
+
+        ConversationSequencer.Permit permit = conversationSequencer.await(chatId);
+        try {
+            return stream(prepareTurn(newUserMessage, specialtyCode, language, attachments,
+                    chatId, user, guestSession), onDelta)
+                .doFinally(signal -> permit.release());
+        } catch (RuntimeException e) {
+            permit.release();
+            throw e;
         }
     }
 
+    private Mono<String> stream(PreparedTurn turn, Consumer<String> onDelta) {
+        Conversation conversation = turn.conversation();
+        ResponsesAPIRequest request = turn.request();
+        request.setStream(true);
+
+        Optional<ResponseCacheService.CachedAnswer> cached = lookupCachedAnswer(turn);
+        if (cached.isPresent()) {
+            return Mono.fromCallable(() -> commitCachedTurn(turn, cached.get()))
+                .subscribeOn(jdbcScheduler)
+                .doOnNext(onDelta)
+                .doFinally(signal -> turn.reservation().release());
+        }
+
+        Instant startTime = Instant.now();
+        // Also read by the deadline handler, on another thread
+        StringBuffer assembledText = new StringBuffer();
+        AtomicBoolean started = new AtomicBoolean();
+
+        return upstreamRetry.retryBeforeFirst("responses_stream", executeStreamingAPICall(request))
+            .doOnNext(event -> {
+                started.set(true);
+                if (ResponsesStreamEvent.OUTPUT_TEXT_DELTA.equals(event.getType()) && event.getDelta() != null) {
+                    assembledText.append(event.getDelta());
+                    onDelta.accept(event.getDelta());
+                }
+            })
+            .handle((ResponsesStreamEvent event, SynchronousSink<ResponsesAPIResponse> sink) -> {
+                switch (event.getType() == null ? "" : event.getType()) {
+                    case ResponsesStreamEvent.COMPLETED, ResponsesStreamEvent.INCOMPLETE -> {
+                        if (event.getResponse() != null) {
+                            sink.next(event.getResponse());
+                        } else {
+                            sink.error(new RuntimeException("OpenAI stream finished without a response object"));
+                        }
+                    }
+                    case ResponsesStreamEvent.FAILED, ResponsesStreamEvent.ERROR -> sink.error(new RuntimeException(
+                        "OpenAI stream error: " + (event.getMessage() != null ? event.getMessage() : event.getType())));
+                    default -> { }
+                }
+            })
+            .next()
+            .switchIfEmpty(Mono.error(new RuntimeException("OpenAI stream ended without a completed response")))
+            .transform(call -> withDeadline(call, turn, assembledText, started::get))
+            // Persistence is blocking JPA work, keep it off the Netty event loop
+            .publishOn(jdbcScheduler)
+            .map(apiResponse -> {
+                log.info("Stream completed for response {} after {} streamed characters",
+                    apiResponse.getId(), assembledText.length());
+                if (assembledText.length() > 0) {
+                    apiResponse.setOutputText(assembledText.toString());
+                }
+                String result = commitTurn(apiResponse, conversation, request, startTime);
+                recordEstimateAccuracy(turn, apiResponse);
+                cacheAnswer(turn, apiResponse, result, startTime);
+                return result;
+            })
+            .doFinally(signal -> turn.reservation().release());
+    }
+
     private ResponsesAPIRequest buildRequest(String userMessage, Conversation conversation,
-                                             String systemPrompt, String language, List<String> fileIds,
+                                             ModelRouter.Route route, PromptTemplateRegistry.PromptTemplate prompt,
+                                             String contextSummary, String previousResponseId, List<String> fileIds,
                                              List<FileAttachment> attachments) {
 
-        String previousResponseId = conversationManager.getLastResponseId(conversation.getConversationId())
-            .orElse(null);
-
         List<Map<String, Object>> tools = new ArrayList<>();
         // Temporarily disable file search until we implement vector store creation
         // The Responses API requires vector stores for file search, not direct file_ids
@@ -214,24 +707,12 @@ public class OpenAIResponsesService {
         // }
         
 
-        // Use the same enhanced system prompt as ChatGPTService
-        String fullSystemPrompt = systemPrompt +
-            "\nYou are an AI doctor providing practical medical information. \n" +
-            // "\nYou are an AI doctor providing concise, practical medical information. Follow these guidelines:\n" +
-            // "1. Give direct, actionable advice without unnecessary introductions.\n" +
-            // "2. Use simple language and short sentences.\n" +
-            // "3. Format your responses as brief bullet points when possible.\n" +
-            // "4. Include this disclaimer with medical recommendations: \"These suggestions are not medical advice. Please consult your doctor.\"\n" +
-            // "5. Admit knowledge gaps directly without speculation.\n" +
-            // "6. Only share evidence-based information.\n" +
-            // "7. List common medication side effects briefly when relevant.\n" +
-            // "8. Never diagnose - describe potential conditions only.\n" +
-            // "9. Clearly flag emergency symptoms requiring immediate care.\n" +
-            // "10. Stay within your knowledge scope.\n" +
-            // "11. Prioritize the most effective solutions first.\n" +
-            // "12. When you receive images, describe what you can observe in them.\n" +
-            // "13. For images that appear to show medical conditions, explain what you can observe but emphasize that a proper in-person medical evaluation is necessary.\n" +
-            "\nPlease respond in " + language + ".";
+        // Shared with ChatGPTService; per-turn context goes after it so the prompt stays a cacheable prefix
+        String fullSystemPrompt = prompt.text();
+        if (contextSummary != null) {
+            // Earlier chains were compacted; this is all the model knows about them
+            fullSystemPrompt += "\n\nSummary of the earlier part of this consultation:\n" + contextSummary;
+        }
         
         // Build input - either simple string or multimodal array
         Object input;
@@ -270,14 +751,15 @@ public class OpenAIResponsesService {
             Map<String, Object> userInput = new HashMap<>();
             userInput.put("role", "user");
             
+            // Stable, large parts first and the question last, so a follow-up about the same
+            // documents repeats the longest possible prefix
             List<Map<String, Object>> content = new ArrayList<>();
             
-            // Build message with document content extracted as text
-            StringBuilder messageText = new StringBuilder(userMessage);
-            
-            // Extract text from documents and append to message
+            // Extract text from documents into one part ahead of the message
             if (!documentAttachments.isEmpty()) {
-                messageText.append("\n\n--- Document Content ---");
+                StringBuilder documentText = new StringBuilder("--- Document Content ---");
+                // Documents share one token budget, in upload order
+                int remainingTokens = responsesConfig.getTokens().getMaxAttachmentTokens();
                 
                 for (FileAttachment doc : documentAttachments) {
                     String fullPath = Paths.get(uploadBaseDir, doc.getFilePath()).toString();
@@ -286,24 +768,30 @@ public class OpenAIResponsesService {
                     );
                     
                     if (extractedText != null && !extractedText.trim().isEmpty()) {
-                        messageText.append("\n\nFile: ").append(doc.getOriginalFilename()).append("\n");
-                        messageText.append(extractedText);
+                        String included = tokenEstimator.truncate(route.model(), extractedText, remainingTokens);
+                        remainingTokens -= tokenEstimator.count(route.model(), included);
+                        documentText.append("\n\nFile: ").append(doc.getOriginalFilename()).append("\n");
+                        documentText.append(included);
+                        if (included.length() < extractedText.length()) {
+                            documentText.append("\n[Document truncated]");
+                            log.info("Truncated document {} to {} of {} characters to fit the attachment budget",
+                                doc.getOriginalFilename(), included.length(), extractedText.length());
+                        }
                         log.info("Extracted text from document: {} ({} characters)", 
                             doc.getOriginalFilename(), extractedText.length());
                     } else {
-                        messageText.append("\n\nFile: ").append(doc.getOriginalFilename())
+                        documentText.append("\n\nFile: ").append(doc.getOriginalFilename())
                             .append(" (Could not extract text)");
                         log.warn("Could not extract text from document: {}", doc.getOriginalFilename());
                     }
                 }
+                
+                Map<String, Object> documentPart = new HashMap<>();
+                documentPart.put("type", "input_text");
+                documentPart.put("text", documentText.toString());
+                content.add(documentPart);
             }
             
-            // Add the combined text part
-            Map<String, Object> textPart = new HashMap<>();
-            textPart.put("type", "input_text");
-            textPart.put("text", messageText.toString());
-            content.add(textPart);
-            
             // Add image parts using URLs
             for (FileAttachment image : imageAttachments) {
                 Map<String, Object> imagePart = new HashMap<>();
@@ -318,6 +806,12 @@ public class OpenAIResponsesService {
                     imageUrl, image.getOriginalFilename());
             }
             
+            // The user's message goes last
+            Map<String, Object> textPart = new HashMap<>();
+            textPart.put("type", "input_text");
+            textPart.put("text", userMessage);
+            content.add(textPart);
+            
             userInput.put("content", content);
             inputArray.add(userInput);
             
@@ -337,8 +831,18 @@ public class OpenAIResponsesService {
 
         boolean shouldStore = true;
         
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("prompt_version", prompt.version());
+        if (route.tier() != null) {
+            metadata.put("route_tier", route.tier().key());
+            metadata.put("route_reason", route.reason());
+        }
+        
         return ResponsesAPIRequest.builder()
-            .model(conversation.getModel())
+            .model(route.model())
+            .reasoning(route.reasoningEffort() != null ? Map.of("effort", route.reasoningEffort()) : null)
+            .metadata(metadata)
+            .promptCacheKey(responsesConfig.getPromptCache().isKeyEnabled() ? prompt.cacheKey() : null)
             .input(input)
             .instructions(fullSystemPrompt)
             .previousResponseId(previousResponseId)
@@ -408,7 +912,7 @@ public class OpenAIResponsesService {
             log.error("Failed to serialize request for logging", e);
         }
         
-        return webClient.post()
+        return concurrencyLimiter.limit(request.getModel(), webClient.post()
             .uri(responsesConfig.getUrl())
             .header("Authorization", "Bearer " + chatGPTService.getChatGPTConfig().getOpenai().getKey())
             .bodyValue(request)
@@ -418,7 +922,8 @@ public class OpenAIResponsesService {
                     .defaultIfEmpty("No response body")
                     .flatMap(body -> {
                         log.error("OpenAI Responses API error: Status={}, Body={}", resp.statusCode(), body);
-                        return Mono.error(new RuntimeException("OpenAI API error: " + resp.statusCode() + " - " + body));
+                        return Mono.error(new UpstreamHttpException(resp.statusCode().value(), body,
+                            UpstreamRetry.retryAfter(resp.headers().asHttpHeaders())));
                     }))
             .bodyToMono(ResponsesAPIResponse.class)
             .doOnNext(resp -> {
@@ -429,10 +934,42 @@ public class OpenAIResponsesService {
                     log.debug("Could not serialize response for logging", e);
                 }
             })
-            .doOnSuccess(result -> log.info("Successfully completed API call"))
+            .doOnSuccess(result -> log.info("Successfully completed API call")))
             .doOnError(error -> log.error("Error calling OpenAI Responses API", error));
     }
 
+    private Flux<ResponsesStreamEvent> executeStreamingAPICall(ResponsesAPIRequest request) {
+        log.info("OpenAI Responses API streaming request to {} (model={})", responsesConfig.getUrl(), request.getModel());
+
+        return concurrencyLimiter.limitMany(request.getModel(), webClient.post()
+            .uri(responsesConfig.getUrl())
+            .header("Authorization", "Bearer " + chatGPTService.getChatGPTConfig().getOpenai().getKey())
+            .accept(MediaType.TEXT_EVENT_STREAM)
+            .bodyValue(request)
+            .retrieve()
+            .onStatus(status -> !status.is2xxSuccessful(),
+                resp -> resp.bodyToMono(String.class)
+                    .defaultIfEmpty("No response body")
+                    .flatMap(body -> {
+                        log.error("OpenAI Responses API stream error: Status={}, Body={}", resp.statusCode(), body);
+                        return Mono.error(new UpstreamHttpException(resp.statusCode().value(), body,
+                            UpstreamRetry.retryAfter(resp.headers().asHttpHeaders())));
+                    }))
+            .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<String>>() {})
+            .mapNotNull(ServerSentEvent::data)
+            .filter(data -> !data.isBlank() && !"[DONE]".equals(data))
+            .map(this::parseStreamEvent))
+            .doOnError(error -> log.error("Error streaming from OpenAI Responses API", error));
+    }
+
+    private ResponsesStreamEvent parseStreamEvent(String data) {
+        try {
+            return objectMapper.readValue(data, ResponsesStreamEvent.class);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not parse Responses API stream event: " + data, e);
+        }
+    }
+
     private String extractTextFromObject(Object obj) {
         if (obj == null) {
             return null;
@@ -479,6 +1016,17 @@ public class OpenAIResponsesService {
         return obj.toString();
     }
     
+    /**
+     * Persist the AI message, {@link OpenAIResponse}, {@link UsageMetric} and conversation pointer
+     * for a finished turn in one short transaction.
+     */
+    private String commitTurn(ResponsesAPIResponse response, Conversation conversation,
+                              ResponsesAPIRequest request, Instant startTime) {
+        String result = transactionTemplate.execute(status -> processResponse(response, conversation, request, startTime));
+        conversationCompactor.compactIfNeeded(conversation.getConversationId(), response.getId(), response.getUsage());
+        return result;
+    }
+
     private String processResponse(ResponsesAPIResponse response, Conversation conversation,
                                    ResponsesAPIRequest request, Instant startTime) {
         long responseTimeMs = Duration.between(startTime, Instant.now()).toMillis();
@@ -507,7 +1055,7 @@ public class OpenAIResponsesService {
         // Ensure we have content to return
         if (textContent == null || textContent.isEmpty()) {
             log.error("No text content in OpenAI response: {}", response);
-            textContent = "I apologize, but I couldn't generate a response. Please try again.";
+            textContent = NO_CONTENT_REPLY;
         }
         
         log.info("Extracted text content from response: {} characters", textContent.length());
@@ -532,6 +1080,10 @@ public class OpenAIResponsesService {
             .chatMessage(savedMessage)
             .previousResponseId(request.getPreviousResponseId())
             .model(response.getModel() != null ? response.getModel() : request.getModel())
+            .routeTier(request.getMetadata() != null ? request.getMetadata().get("route_tier") : null)
+            .routeReason(request.getMetadata() != null ? request.getMetadata().get("route_reason") : null)
+            .promptVersion(request.getMetadata() != null ? request.getMetadata().get("prompt_version") : null)
+            .reasoningEffort(request.getReasoning() != null ? (String) request.getReasoning().get("effort") : null)
             .toolsUsed(toolTypes)
             .completionTokens(response.getUsage() != null && response.getUsage().getCompletionTokens() != null ? 
                 response.getUsage().getCompletionTokens() : 0)
@@ -539,6 +1091,7 @@ public class OpenAIResponsesService {
                 response.getUsage().getPromptTokens() : 0)
             .totalTokens(response.getUsage() != null && response.getUsage().getTotalTokens() != null ? 
                 response.getUsage().getTotalTokens() : 0)
+            .cachedInputTokens(response.getUsage() != null ? response.getUsage().cachedInputTokens() : 0)
             .responseTimeMs((int) responseTimeMs)
             .build();
         
@@ -548,14 +1101,7 @@ public class OpenAIResponsesService {
         conversationManager.recordResponse(openAIResponse);
         
         log.info("About to calculate usage cost");
-        UsageMetric metric = costCalculationService.calculateUsageCost(
-            request.getModel(),
-            response.getUsage() != null && response.getUsage().getPromptTokens() != null ? 
-                response.getUsage().getPromptTokens() : 0,
-            response.getUsage() != null && response.getUsage().getCompletionTokens() != null ? 
-                response.getUsage().getCompletionTokens() : 0,
-            toolTypes
-        );
+        UsageMetric metric = costCalculationService.calculateUsageCost(request.getModel(), response.getUsage(), toolTypes);
         
         log.info("Calculated usage cost, setting metric properties");
         metric.setConversationId(conversation.getConversationId());
@@ -565,6 +1111,7 @@ public class OpenAIResponsesService {
         
         log.info("Recording usage metric");
         conversationManager.recordUsage(metric);
+        tokenEstimator.recordPromptCache(conversation.getSpecialtyCode(), request.getModel(), response.getUsage());
         
         if (costCalculationService.shouldAlertCostThreshold(metric.getTotalCost())) {
             log.warn("Cost alert threshold reached for conversation {}: cost={}",
@@ -575,21 +1122,18 @@ public class OpenAIResponsesService {
         return textContent;
     }
 
-    public String fallbackToChatGPT(String newUserMessage, List<ChatMessage> history,
-                                    String specialtyCode, String language,
-                                    List<FileAttachment> attachments,
-                                    String chatId, User user, GuestSession guestSession,
-                                    Exception ex) {
-        log.warn("Falling back to ChatGPT API due to error: {}", ex.getMessage());
-        if (!responsesConfig.isFallbackToChat()) {
-            throw new RuntimeException("OpenAI Responses API failed and fallback is disabled", ex);
-        }
-        return chatGPTService.getChatResponse(newUserMessage, history, specialtyCode, language, attachments);
-    }
-
     public ConversationManager.ConversationStats getConversationStats(String chatId) {
         Conversation conversation = conversationRepository.findByChatIdAndStatus(chatId, "active")
             .orElseThrow(() -> new IllegalArgumentException("No active conversation found for chat: " + chatId));
         return conversationManager.getConversationStats(conversation.getConversationId());
     }
+
+    private record TurnContext(Conversation conversation, String previousResponseId,
+                               String contextSummary) {
+    }
+
+    public record PreparedTurn(Conversation conversation, ResponsesAPIRequest request, String userMessage,
+                               boolean contextFree, SpendLedger.Reservation reservation,
+                               int estimatedInputTokens) {
+    }
 }
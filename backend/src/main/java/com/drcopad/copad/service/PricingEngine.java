@@ -0,0 +1,111 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Prices a model call in integer micro-dollars. Rates are micro-dollars per million tokens, so
+ * each component is computed as an exact product in pico-dollars and rounded once, half up, when
+ * the total is converted back to micros. No floating point or per-step rounding is involved, which
+ * keeps the sum of many small calls equal to what OpenAI bills.
+ */
+@Slf4j
+@Service
+public class PricingEngine {
+
+    private static final long TOKENS_PER_MILLION = 1_000_000L;
+    private static final String FALLBACK_MODEL = "o3";
+
+    private final OpenAIResponsesConfig.CostConfig config;
+
+    public PricingEngine(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig) {
+        this.config = responsesConfig.getCost();
+    }
+
+    /**
+     * Price one call. Cached input tokens are part of {@code inputTokens} and are billed at the
+     * cached rate; reasoning tokens are part of {@code outputTokens} and billed as output.
+     */
+    public Price price(String model, int inputTokens, int cachedInputTokens, int outputTokens, List<String> toolsUsed) {
+        Rates rates = ratesFor(model, inputTokens);
+        int cached = Math.min(Math.max(cachedInputTokens, 0), inputTokens);
+
+        long inputPico = Math.multiplyExact((long) (inputTokens - cached), rates.input())
+            + Math.multiplyExact((long) cached, rates.cachedInput());
+        long outputPico = Math.multiplyExact((long) outputTokens, rates.output());
+
+        long inputMicros = roundToMicros(inputPico);
+        long outputMicros = roundToMicros(outputPico);
+        long toolsMicros = toolsMicros(toolsUsed);
+        return new Price(inputMicros, outputMicros, toolsMicros,
+            roundToMicros(inputPico + outputPico) + toolsMicros, config.getPriceVersion());
+    }
+
+    private Rates ratesFor(String model, int inputTokens) {
+        OpenAIResponsesConfig.ModelPricing pricing = config.getModelPricing().get(model);
+        if (pricing == null) {
+            log.warn("No pricing found for model: {}, using default {} pricing", model, FALLBACK_MODEL);
+            pricing = config.getModelPricing().get(FALLBACK_MODEL);
+        }
+        OpenAIResponsesConfig.PriceTier tier = null;
+        if (pricing.getTiers() != null) {
+            for (OpenAIResponsesConfig.PriceTier candidate : pricing.getTiers()) {
+                if (inputTokens > candidate.getAboveInputTokens()
+                        && (tier == null || candidate.getAboveInputTokens() > tier.getAboveInputTokens())) {
+                    tier = candidate;
+                }
+            }
+        }
+        return tier != null
+            ? new Rates(tier.getInputPerMillion(), tier.getCachedInputPerMillion(), tier.getOutputPerMillion())
+            : new Rates(pricing.getInputPerMillion(), pricing.getCachedInputPerMillion(), pricing.getOutputPerMillion());
+    }
+
+    private long toolsMicros(List<String> toolsUsed) {
+        if (toolsUsed == null || toolsUsed.isEmpty()) {
+            return 0;
+        }
+        long total = 0;
+        for (String tool : toolsUsed) {
+            switch (tool.toLowerCase()) {
+                case "file_search":
+                    total += SpendLedger.toMicros(config.getFileSearchCostPerQuery());
+                    break;
+                case "web_search":
+                case "web_search_preview":
+                case "web_search_preview_2025_03_11":
+                    total += SpendLedger.toMicros(config.getWebSearchCostPerQuery());
+                    break;
+                default:
+                    log.debug("Unknown tool for cost calculation: {}", tool);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Pico-dollars (tokens x micros per million) to micros, half up.
+     */
+    private static long roundToMicros(long pico) {
+        return (pico + TOKENS_PER_MILLION / 2) / TOKENS_PER_MILLION;
+    }
+
+    public static BigDecimal toDollars(long micros) {
+        return BigDecimal.valueOf(micros, 6);
+    }
+
+    private record Rates(long input, long cachedInput, long output) {
+    }
+
+    /**
+     * Cost components in micro-dollars. {@code totalMicros} is rounded once from the exact token
+     * cost, so it can differ by one micro from the sum of the rounded components.
+     */
+    public record Price(long inputMicros, long outputMicros, long toolsMicros, long totalMicros, String priceVersion) {
+    }
+}
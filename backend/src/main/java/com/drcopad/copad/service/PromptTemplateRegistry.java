@@ -0,0 +1,128 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.entity.MedicalSpecialty;
+import com.drcopad.copad.repository.MedicalSpecialtyRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * System prompts per (specialty, language), built once instead of on every message. A prompt is
+ * the specialty prompt, the shared doctor instructions and the language instruction, in that
+ * order, so everything per-turn goes after it and the provider can cache it as a prefix.
+ * <p>
+ * Active specialties are loaded at startup and re-read every {@code app.chatgpt.prompts.refresh-interval}.
+ * Each template carries a version derived from its text, stored with every response so answers
+ * can be traced back to the prompt that produced them.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PromptTemplateRegistry {
+
+    static final String DOCTOR_INSTRUCTIONS = "\nYou are an AI doctor providing practical medical information.\n";
+
+    private final MedicalSpecialtyRepository specialtyRepository;
+    private final LanguageMappingService languageMappingService;
+    private final ReferenceDataCache referenceDataCache;
+
+    // Replaced as a whole on reload, so templates are never built from a stale specialty prompt
+    private volatile Snapshot snapshot = new Snapshot(new ConcurrentHashMap<>());
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${app.chatgpt.prompts.refresh-interval:300000}",
+            initialDelayString = "${app.chatgpt.prompts.refresh-interval:300000}")
+    public void refresh() {
+        try {
+            // Specialties are in the second-level cache; drop them so changes made outside the app are read
+            referenceDataCache.evictSpecialties();
+            reload();
+        } catch (RuntimeException e) {
+            log.warn("Could not refresh prompt templates: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Re-read the active specialties. Built templates are kept when no prompt changed.
+     */
+    public void reload() {
+        Map<String, String> prompts = new ConcurrentHashMap<>();
+        for (MedicalSpecialty specialty : specialtyRepository.findByIsActiveTrue()) {
+            prompts.put(specialty.getCode(), nullToEmpty(specialty.getSystemPrompt()));
+        }
+        if (!prompts.equals(snapshot.prompts())) {
+            snapshot = new Snapshot(prompts);
+            log.info("Loaded prompt templates for {} specialties", prompts.size());
+        }
+    }
+
+    /**
+     * The prompt for a specialty and language code. Specialties that are inactive or were added
+     * since the last reload are looked up once and then kept apart from the active ones, so they
+     * do not make the next reload look like a change.
+     */
+    public PromptTemplate get(String specialtyCode, String language) {
+        Snapshot current = snapshot;
+        String prompt = current.prompts().get(specialtyCode);
+        if (prompt == null) {
+            prompt = current.onDemand().get(specialtyCode);
+        }
+        if (prompt == null) {
+            prompt = specialtyRepository.findByCode(specialtyCode)
+                .map(specialty -> nullToEmpty(specialty.getSystemPrompt()))
+                .orElseThrow(() -> new IllegalArgumentException("Invalid specialty code: " + specialtyCode));
+            current.onDemand().putIfAbsent(specialtyCode, prompt);
+        }
+        String specialtyPrompt = prompt;
+        return current.templates().computeIfAbsent(specialtyCode + "|" + language,
+            key -> build(specialtyCode, specialtyPrompt, language));
+    }
+
+    private PromptTemplate build(String specialtyCode, String specialtyPrompt, String language) {
+        String languageName = languageMappingService.getFullLanguageName(language);
+        if (languageName == null || languageName.isBlank()) {
+            // Without a name the code still tells the model which language to answer in
+            languageName = language;
+        }
+        String text = specialtyPrompt + DOCTOR_INSTRUCTIONS
+            + (languageName != null && !languageName.isBlank() ? "\nPlease respond in " + languageName + "." : "");
+        return new PromptTemplate(text, specialtyCode + "@" + digest(text), specialtyCode + ":" + language);
+    }
+
+    private static String digest(String text) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String nullToEmpty(String text) {
+        return text != null ? text : "";
+    }
+
+    /**
+     * A built system prompt, its version ({@code <specialty>@<12 hex digits of its SHA-256>}) and
+     * the {@code prompt_cache_key} shared by every request that starts with it.
+     */
+    public record PromptTemplate(String text, String version, String cacheKey) {
+    }
+
+    private record Snapshot(Map<String, String> prompts, Map<String, String> onDemand,
+                            Map<String, PromptTemplate> templates) {
+        Snapshot(Map<String, String> prompts) {
+            this(prompts, new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.entity.MedicalSpecialty;
+import com.drcopad.copad.entity.Tag;
+import com.drcopad.copad.repository.MedicalSpecialtyRepository;
+import com.drcopad.copad.repository.TagRepository;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Drops the reference data (specialties, tags) held in the Hibernate second-level and query
+ * caches. Writes through JPA already keep those caches right on this node; admin changes evict
+ * the whole set anyway, so lists and prompts built from it are re-read from the database rather
+ * than patched entry by entry. Regions are configured in {@code application.conf}.
+ */
+@Service
+@RequiredArgsConstructor
+public class ReferenceDataCache {
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    public void evictSpecialties() {
+        evictAfterCommit(MedicalSpecialty.class, MedicalSpecialtyRepository.QUERY_CACHE_REGION);
+    }
+
+    public void evictTags() {
+        evictAfterCommit(Tag.class, TagRepository.QUERY_CACHE_REGION);
+    }
+
+    // Evicting before the commit would let a concurrent read cache the old row again
+    private void evictAfterCommit(Class<?> entityClass, String queryRegion) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(entityClass, queryRegion);
+                }
+            });
+        } else {
+            evict(entityClass, queryRegion);
+        }
+    }
+
+    private void evict(Class<?> entityClass, String queryRegion) {
+        Cache cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+        cache.evictEntityData(entityClass);
+        cache.evictQueryRegion(queryRegion);
+    }
+}
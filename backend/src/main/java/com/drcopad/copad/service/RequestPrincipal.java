@@ -0,0 +1,68 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.entity.User;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * Who an upstream model call is made for, used to share model capacity fairly. Authenticated
+ * users are keyed by user id, guests by session (or IP when there is none); guests also carry
+ * their IP so one address cannot grab more capacity by opening many sessions.
+ * <p>
+ * Blocking paths resolve it from the current request; reactive chains that hop threads put it in
+ * the Reactor context under {@link #CONTEXT_KEY}.
+ */
+public record RequestPrincipal(String flow, String ip, Priority priority) {
+
+    public static final String ATTRIBUTE = RequestPrincipal.class.getName();
+    public static final Class<RequestPrincipal> CONTEXT_KEY = RequestPrincipal.class;
+
+    /**
+     * Calls made outside any request, e.g. the background job poller or history compaction. They
+     * all share this one principal, so it is held to the global limit only, not to the
+     * per-principal caps meant for users.
+     */
+    public static final RequestPrincipal INTERNAL = new RequestPrincipal("internal", null, Priority.AUTHENTICATED);
+
+    public enum Priority {
+        AUTHENTICATED,
+        GUEST
+    }
+
+    public boolean isInternal() {
+        return INTERNAL.equals(this);
+    }
+
+    public static RequestPrincipal user(User user) {
+        return new RequestPrincipal("user:" + user.getId(), null, Priority.AUTHENTICATED);
+    }
+
+    public static RequestPrincipal guest(String sessionId, String ip) {
+        return new RequestPrincipal(sessionId != null ? "guest:" + sessionId : "ip:" + ip, ip, Priority.GUEST);
+    }
+
+    /**
+     * Principal of the request bound to the current thread: an explicit {@link #ATTRIBUTE} set by
+     * the controller, else the authenticated user, else a guest keyed by the
+     * {@code X-Guest-Session-Id} header or the remote address.
+     */
+    public static RequestPrincipal current() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes servletAttributes)) {
+            return INTERNAL;
+        }
+        HttpServletRequest request = servletAttributes.getRequest();
+        if (request.getAttribute(ATTRIBUTE) instanceof RequestPrincipal bound) {
+            return bound;
+        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof User user) {
+            return user(user);
+        }
+        return guest(request.getHeader("X-Guest-Session-Id"), request.getRemoteAddr());
+    }
+}
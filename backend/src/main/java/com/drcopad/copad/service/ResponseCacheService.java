@@ -0,0 +1,99 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Exact-match cache for context-free first turns. The key is a hash of the full system prompt,
+ * language, model and the normalized user message, so two guests asking the same opening question
+ * in the same specialty share one paid answer. Callers decide whether a turn is cacheable
+ * (no previous response, no attachments); this class only owns the key and the store.
+ */
+@Slf4j
+@Service
+public class ResponseCacheService {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s?!.。？！]+$");
+
+    private final OpenAIResponsesConfig.ResponseCacheConfig config;
+    private final Cache<String, CachedAnswer> cache;
+
+    public ResponseCacheService(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                                MeterRegistry meterRegistry) {
+        this.config = responsesConfig.getResponseCache();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.getMaxEntries())
+                .expireAfterWrite(Duration.ofMinutes(config.getTtlMinutes()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "llm.response.cache");
+    }
+
+    public boolean isEnabledFor(String specialtyCode) {
+        return config.isEnabled() && !config.getDisabledSpecialties().contains(specialtyCode);
+    }
+
+    public String key(String systemPrompt, String language, String model, String userMessage) {
+        return sha256(systemPrompt, language, model, normalize(userMessage));
+    }
+
+    static String sha256(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public Optional<CachedAnswer> lookup(String key) {
+        CachedAnswer answer = cache.getIfPresent(key);
+        if (answer != null) {
+            log.info("Response cache hit for key {}", key.substring(0, 12));
+        }
+        return Optional.ofNullable(answer);
+    }
+
+    public void store(String key, CachedAnswer answer) {
+        cache.put(key, answer);
+    }
+
+    /**
+     * Case, Unicode form, whitespace and trailing punctuation don't change the question.
+     */
+    static String normalize(String message) {
+        if (message == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(message, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        normalized = WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+        return TRAILING_PUNCTUATION.matcher(normalized).replaceAll("");
+    }
+
+    /**
+     * @param responseId the stored OpenAI response that produced the text, or null for Chat Completions
+     */
+    public record CachedAnswer(String text, String responseId, String model) {
+    }
+}
@@ -0,0 +1,230 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Second-tier answer cache for reworded first-turn questions. Questions are embedded through the
+ * configured {@link EmbeddingProvider} and stored in one {@link SemanticVectorIndex} per
+ * (specialty, language); a stored answer is served when cosine similarity reaches the threshold
+ * and it was produced by the same model and system prompt.
+ * <p>
+ * The bounded indexes are snapshotted to disk periodically and on shutdown, and reloaded on
+ * startup, so a restart does not start from an empty cache.
+ */
+@Slf4j
+@Service
+public class SemanticResponseCache {
+
+    private static final int SNAPSHOT_FORMAT = 1;
+    private static final long LSH_SEED = 0x5eed_c0ad;
+
+    private final OpenAIResponsesConfig.SemanticCacheConfig config;
+    private final EmbeddingProvider embeddingProvider;
+    private final double similarityThreshold;
+    private final Map<String, SemanticVectorIndex<StoredAnswer>> indexes = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer latencySaved;
+
+    public SemanticResponseCache(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                                 EmbeddingProvider embeddingProvider,
+                                 MeterRegistry meterRegistry) {
+        this.config = responsesConfig.getSemanticCache();
+        this.embeddingProvider = embeddingProvider;
+        this.similarityThreshold = config.getSimilarityThreshold() != null
+                ? config.getSimilarityThreshold() : embeddingProvider.defaultSimilarityThreshold();
+        if (similarityThreshold <= 0 || similarityThreshold > 1) {
+            throw new IllegalStateException("semantic-cache.similarity-threshold must be in (0, 1], was " + similarityThreshold);
+        }
+        this.hits = Counter.builder("llm.semantic_cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("llm.semantic_cache.requests").tag("result", "miss").register(meterRegistry);
+        this.latencySaved = Timer.builder("llm.semantic_cache.latency_saved")
+                .description("Model latency avoided by serving a semantically cached answer")
+                .register(meterRegistry);
+        Gauge.builder("llm.semantic_cache.entries", indexes,
+                        all -> all.values().stream().mapToInt(SemanticVectorIndex::size).sum())
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabledFor(String specialtyCode) {
+        return config.isEnabled() && !config.getDisabledSpecialties().contains(specialtyCode);
+    }
+
+    public Optional<ResponseCacheService.CachedAnswer> lookup(String specialtyCode, String language, String model,
+                                                              String systemPrompt, String userMessage) {
+        SemanticVectorIndex<StoredAnswer> index = indexes.get(indexKey(specialtyCode, language));
+        if (index == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        String promptHash = ResponseCacheService.sha256(systemPrompt);
+        long oldestAllowed = System.currentTimeMillis() - Duration.ofMinutes(config.getTtlMinutes()).toMillis();
+
+        SemanticVectorIndex.Match<StoredAnswer> match = index.nearest(
+                embeddingProvider.embed(ResponseCacheService.normalize(userMessage)),
+                similarityThreshold,
+                answer -> answer.model().equals(model)
+                        && answer.promptHash().equals(promptHash)
+                        && answer.createdAtMillis() >= oldestAllowed);
+        if (match == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+
+        hits.increment();
+        latencySaved.record(Duration.ofMillis(match.payload().latencyMs()));
+        log.info("Semantic cache hit for {}/{} (similarity {})", specialtyCode, language,
+                String.format("%.3f", match.similarity()));
+        StoredAnswer answer = match.payload();
+        return Optional.of(new ResponseCacheService.CachedAnswer(answer.text(), answer.responseId(), answer.model()));
+    }
+
+    public void store(String specialtyCode, String language, String model, String systemPrompt,
+                      String userMessage, String text, String responseId, long latencyMs) {
+        StoredAnswer answer = new StoredAnswer(model, ResponseCacheService.sha256(systemPrompt), text, responseId,
+                latencyMs, System.currentTimeMillis());
+        index(indexKey(specialtyCode, language)).add(
+                embeddingProvider.embed(ResponseCacheService.normalize(userMessage)), answer);
+    }
+
+    private SemanticVectorIndex<StoredAnswer> index(String key) {
+        return indexes.computeIfAbsent(key, ignored -> new SemanticVectorIndex<>(
+                embeddingProvider.dimensions(), config.getLshTables(), config.getLshBits(),
+                config.getMaxEntriesPerIndex(), LSH_SEED));
+    }
+
+    private static String indexKey(String specialtyCode, String language) {
+        return specialtyCode + "|" + language;
+    }
+
+    @PostConstruct
+    public void loadSnapshot() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        Path path = Paths.get(config.getSnapshotPath());
+        if (!Files.exists(path)) {
+            return;
+        }
+        long oldestAllowed = System.currentTimeMillis() - Duration.ofMinutes(config.getTtlMinutes()).toMillis();
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != SNAPSHOT_FORMAT || !in.readUTF().equals(embeddingProvider.modelId())) {
+                log.info("Semantic cache snapshot {} was written for another format or embedding model, ignoring", path);
+                return;
+            }
+            int indexCount = in.readInt();
+            for (int i = 0; i < indexCount; i++) {
+                String key = in.readUTF();
+                int entryCount = in.readInt();
+                for (int e = 0; e < entryCount; e++) {
+                    float[] vector = new float[in.readInt()];
+                    for (int d = 0; d < vector.length; d++) {
+                        vector[d] = in.readFloat();
+                    }
+                    StoredAnswer answer = StoredAnswer.read(in);
+                    if (answer.createdAtMillis() >= oldestAllowed && vector.length == embeddingProvider.dimensions()) {
+                        index(key).add(vector, answer);
+                        loaded++;
+                    }
+                }
+            }
+            log.info("Loaded {} semantic cache entries from {}", loaded, path);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not load semantic cache snapshot {}, starting empty: {}", path, e.getMessage());
+            indexes.clear();
+        }
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${app.chatgpt.openai.responses.semantic-cache.snapshot-interval:600000}",
+               initialDelayString = "${app.chatgpt.openai.responses.semantic-cache.snapshot-interval:600000}")
+    public void saveSnapshot() {
+        if (!config.isEnabled() || indexes.isEmpty()) {
+            return;
+        }
+        long oldestAllowed = System.currentTimeMillis() - Duration.ofMinutes(config.getTtlMinutes()).toMillis();
+        indexes.values().forEach(index -> index.removeIf(answer -> answer.createdAtMillis() < oldestAllowed));
+
+        Path path = Paths.get(config.getSnapshotPath());
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(SNAPSHOT_FORMAT);
+                out.writeUTF(embeddingProvider.modelId());
+                Map<String, SemanticVectorIndex<StoredAnswer>> snapshot = Map.copyOf(indexes);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, SemanticVectorIndex<StoredAnswer>> index : snapshot.entrySet()) {
+                    var entries = index.getValue().entries();
+                    out.writeUTF(index.getKey());
+                    out.writeInt(entries.size());
+                    for (Map.Entry<float[], StoredAnswer> entry : entries) {
+                        out.writeInt(entry.getKey().length);
+                        for (float value : entry.getKey()) {
+                            out.writeFloat(value);
+                        }
+                        entry.getValue().write(out);
+                    }
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Saved semantic cache snapshot to {}", path);
+        } catch (IOException e) {
+            log.warn("Could not save semantic cache snapshot to {}: {}", path, e.getMessage());
+        }
+    }
+
+    private record StoredAnswer(String model, String promptHash, String text, String responseId,
+                                long latencyMs, long createdAtMillis) {
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(model);
+            out.writeUTF(promptHash);
+            // writeUTF is limited to 64KB, answers can be longer
+            byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(textBytes.length);
+            out.write(textBytes);
+            out.writeUTF(responseId == null ? "" : responseId);
+            out.writeLong(latencyMs);
+            out.writeLong(createdAtMillis);
+        }
+
+        static StoredAnswer read(DataInputStream in) throws IOException {
+            String model = in.readUTF();
+            String promptHash = in.readUTF();
+            byte[] textBytes = new byte[in.readInt()];
+            in.readFully(textBytes);
+            String responseId = in.readUTF();
+            return new StoredAnswer(model, promptHash, new String(textBytes, StandardCharsets.UTF_8),
+                    responseId.isEmpty() ? null : responseId, in.readLong(), in.readLong());
+        }
+    }
+}
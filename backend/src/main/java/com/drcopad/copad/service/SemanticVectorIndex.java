@@ -0,0 +1,174 @@
+package com.drcopad.copad.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Approximate nearest-neighbour index over unit vectors using random-hyperplane LSH. Each of
+ * {@code tables} hash tables buckets a vector by the signs of {@code bits} projections; a query
+ * collects the candidates sharing a bucket in any table and re-ranks them by exact cosine
+ * similarity. Holds at most {@code maxEntries}, evicting the oldest first.
+ * <p>
+ * Uses a read/write lock rather than {@code synchronized} so lookups never pin virtual threads.
+ */
+class SemanticVectorIndex<T> {
+
+    private final int dimensions;
+    private final int maxEntries;
+    private final float[][][] hyperplanes;  // [table][bit][dimension]
+    private final List<Map<Integer, List<Entry<T>>>> tables;
+    private final ArrayDeque<Entry<T>> insertionOrder = new ArrayDeque<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    SemanticVectorIndex(int dimensions, int tables, int bits, int maxEntries, long seed) {
+        this.dimensions = dimensions;
+        this.maxEntries = maxEntries;
+        this.hyperplanes = new float[tables][bits][dimensions];
+        // Fixed seed: the same configuration always produces the same buckets
+        Random random = new Random(seed);
+        for (float[][] table : hyperplanes) {
+            for (float[] plane : table) {
+                for (int d = 0; d < dimensions; d++) {
+                    plane[d] = (float) random.nextGaussian();
+                }
+            }
+        }
+        this.tables = new ArrayList<>(tables);
+        for (int t = 0; t < tables; t++) {
+            this.tables.add(new HashMap<>());
+        }
+    }
+
+    void add(float[] vector, T payload) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + vector.length);
+        }
+        Entry<T> entry = new Entry<>(vector, payload, signatures(vector));
+        lock.writeLock().lock();
+        try {
+            for (int t = 0; t < tables.size(); t++) {
+                tables.get(t).computeIfAbsent(entry.signatures()[t], key -> new ArrayList<>()).add(entry);
+            }
+            insertionOrder.addLast(entry);
+            while (insertionOrder.size() > maxEntries) {
+                remove(insertionOrder.removeFirst());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Best entry with similarity of at least {@code threshold} that passes {@code filter}.
+     */
+    Match<T> nearest(float[] query, double threshold, Predicate<T> filter) {
+        int[] signatures = signatures(query);
+        Match<T> best = null;
+        lock.readLock().lock();
+        try {
+            Set<Entry<T>> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int t = 0; t < tables.size(); t++) {
+                for (Entry<T> candidate : tables.get(t).getOrDefault(signatures[t], List.of())) {
+                    if (!seen.add(candidate) || !filter.test(candidate.payload())) {
+                        continue;
+                    }
+                    double similarity = dot(query, candidate.vector());
+                    if (similarity >= threshold && (best == null || similarity > best.similarity())) {
+                        best = new Match<>(candidate.payload(), similarity);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return best;
+    }
+
+    /**
+     * Drop every entry whose payload matches, e.g. expired answers.
+     */
+    int removeIf(Predicate<T> predicate) {
+        lock.writeLock().lock();
+        try {
+            List<Entry<T>> doomed = insertionOrder.stream().filter(entry -> predicate.test(entry.payload())).toList();
+            doomed.forEach(this::remove);
+            insertionOrder.removeAll(doomed);
+            return doomed.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Snapshot of vectors and payloads, oldest first, for persistence.
+     */
+    List<Map.Entry<float[], T>> entries() {
+        lock.readLock().lock();
+        try {
+            return insertionOrder.stream()
+                    .map(entry -> Map.entry(entry.vector(), entry.payload()))
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return insertionOrder.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void remove(Entry<T> entry) {
+        for (int t = 0; t < tables.size(); t++) {
+            List<Entry<T>> bucket = tables.get(t).get(entry.signatures()[t]);
+            if (bucket != null) {
+                bucket.remove(entry);
+                if (bucket.isEmpty()) {
+                    tables.get(t).remove(entry.signatures()[t]);
+                }
+            }
+        }
+    }
+
+    private int[] signatures(float[] vector) {
+        int[] signatures = new int[hyperplanes.length];
+        for (int t = 0; t < hyperplanes.length; t++) {
+            int signature = 0;
+            for (int b = 0; b < hyperplanes[t].length; b++) {
+                if (dot(vector, hyperplanes[t][b]) >= 0) {
+                    signature |= 1 << b;
+                }
+            }
+            signatures[t] = signature;
+        }
+        return signatures;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private record Entry<T>(float[] vector, T payload, int[] signatures) {
+    }
+
+    record Match<T>(T payload, double similarity) {
+    }
+}
@@ -0,0 +1,359 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.entity.responses.UsageMetric;
+import com.drcopad.copad.repository.responses.UsageMetricRepository;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Today's spend per principal, kept in memory so the daily limit check on every turn does not
+ * have to SUM {@code usage_metrics}. Users are tracked in micro-dollars against
+ * {@code cost.dailyLimit}, guests in tokens against {@code cost.guestDailyTokenLimit}.
+ * <p>
+ * An account is seeded from the table the first time a principal is seen on a given day and then
+ * moves with every recorded {@link UsageMetric}. Before a model call the estimated cost is
+ * reserved under the account's lock against the limit, so parallel turns cannot together overshoot
+ * it; the reservation is released once the real usage is recorded or the call fails. A periodic
+ * reconciliation resets the settled spend from the table, leaving reservations alone, so turns in
+ * flight during a run are never mistaken for drift. It uses one grouped query for all accounts
+ * used since the previous run. Accounts left idle for a whole run are dropped, which keeps the map
+ * to recently active principals; {@code ledgerMaxAccounts} caps it in between.
+ * <p>
+ * "The table" always includes the usage still waiting in the {@link TelemetryJournal}: rows
+ * reach {@code usage_metrics} only when the journal flushes, and reading the table alone would
+ * lower an account by whatever is pending and let a principal past the limit.
+ */
+@Slf4j
+@Service
+public class SpendLedger {
+
+    private static final BigDecimal MICROS_PER_DOLLAR = BigDecimal.valueOf(1_000_000);
+    private static final int RECONCILE_CHUNK = 500;  // ids per IN list
+
+    /**
+     * Placeholder for turns without a principal to charge.
+     */
+    public static final Reservation NONE = new Reservation(null, 0);
+
+    private final OpenAIResponsesConfig.CostConfig config;
+    private final UsageMetricRepository usageMetricRepository;
+    private final TelemetryJournal telemetryJournal;
+    private final Map<String, Account> accounts;
+    private final Counter rejections;
+
+    public SpendLedger(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                       UsageMetricRepository usageMetricRepository,
+                       TelemetryJournal telemetryJournal,
+                       MeterRegistry meterRegistry) {
+        this.config = responsesConfig.getCost();
+        this.usageMetricRepository = usageMetricRepository;
+        this.telemetryJournal = telemetryJournal;
+        this.accounts = Caffeine.newBuilder()
+                .maximumSize(config.getLedgerMaxAccounts())
+                .<String, Account>build()
+                .asMap();
+        this.rejections = Counter.builder("llm.spend_ledger.rejections")
+                .description("Turns refused because the reservation would exceed the daily limit")
+                .register(meterRegistry);
+        Gauge.builder("llm.spend_ledger.accounts", accounts, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Reserve the estimated cost of a turn. Returns null when the reservation would take the
+     * principal over its daily limit.
+     */
+    public Reservation reserveForUser(Long userId, BigDecimal estimatedCost) {
+        return reserve(userKey(userId), toMicros(estimatedCost), toMicros(config.getDailyLimit()));
+    }
+
+    public Reservation reserveForGuest(Long guestSessionId, long estimatedTokens) {
+        return reserve(guestKey(guestSessionId), estimatedTokens, config.getGuestDailyTokenLimit());
+    }
+
+    public boolean hasExceededUserLimit(Long userId) {
+        return account(userKey(userId)).total() > toMicros(config.getDailyLimit());
+    }
+
+    public boolean hasExceededGuestLimit(Long guestSessionId) {
+        return account(guestKey(guestSessionId)).total() > config.getGuestDailyTokenLimit();
+    }
+
+    /**
+     * Apply a recorded usage row. Inside a transaction this happens after commit, so a rolled
+     * back turn never counts.
+     */
+    public void record(UsageMetric metric) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(metric);
+                }
+            });
+        } else {
+            apply(metric);
+        }
+    }
+
+    private void apply(UsageMetric metric) {
+        if (metric.getUser() != null && metric.getUser().getId() != null) {
+            Account account = accounts.get(userKey(metric.getUser().getId()));
+            if (account != null && account.isToday()) {
+                account.touched = true;
+                account.settle(metric.getCostMicros() != null && metric.getCostMicros() > 0
+                    ? metric.getCostMicros() : toMicros(metric.getTotalCost()));
+            }
+        }
+        if (metric.getGuestSession() != null && metric.getGuestSession().getId() != null) {
+            Account account = accounts.get(guestKey(metric.getGuestSession().getId()));
+            if (account != null && account.isToday()) {
+                account.touched = true;
+                account.settle(metric.getTotalTokens() != null ? metric.getTotalTokens() : 0);
+            }
+        }
+        // Principals without an account are seeded from the table on first use, which includes this row
+    }
+
+    private Reservation reserve(String key, long amount, long limit) {
+        Account account = account(key);
+        account.touched = true;
+        if (!account.tryReserve(amount, limit)) {
+            rejections.increment();
+            return null;
+        }
+        return new Reservation(account, amount);
+    }
+
+    /**
+     * Account for today, seeded from the table. Seeding runs outside the map so a slow query
+     * never blocks other principals; if two threads race, one seed wins.
+     */
+    private Account account(String key) {
+        Account account = accounts.get(key);
+        if (account != null && account.isToday()) {
+            return account;
+        }
+        LocalDate today = LocalDate.now();
+        Account seeded = new Account(today, loadFromTable(key, today));
+        return accounts.compute(key, (k, existing) -> existing != null && existing.isToday() ? existing : seeded);
+    }
+
+    /**
+     * Settled spend of the day: the table plus what the journal has not inserted yet. The table
+     * is read first, so a row flushed in between is counted twice rather than not at all.
+     */
+    private long loadFromTable(String key, LocalDate day) {
+        long id = idOf(key);
+        if (key.startsWith("user:")) {
+            long micros = toMicros(usageMetricRepository.getTotalCostForUser(id, day.atStartOfDay()));
+            return micros + telemetryJournal.pendingCostMicros(id, day);
+        }
+        Long tokens = usageMetricRepository.getTotalTokensForGuest(id, day.atStartOfDay());
+        return (tokens != null ? tokens : 0) + telemetryJournal.pendingTokens(id, day);
+    }
+
+    /**
+     * Drop accounts from previous days and those idle since the last run, and bring the others in
+     * line with the table, keeping reservations that are still outstanding. A dropped principal
+     * that comes back is seeded from the table again.
+     */
+    @Scheduled(fixedDelayString = "${app.chatgpt.openai.responses.cost.ledger-reconcile-interval:300000}",
+               initialDelayString = "${app.chatgpt.openai.responses.cost.ledger-reconcile-interval:300000}")
+    public void reconcile() {
+        LocalDate today = LocalDate.now();
+        List<Long> userIds = new ArrayList<>();
+        List<Long> guestIds = new ArrayList<>();
+        accounts.entrySet().removeIf(entry -> {
+            Account account = entry.getValue();
+            if (!account.day.equals(today)) {
+                return true;
+            }
+            if (!account.touched) {
+                return !account.hasReservations();
+            }
+            account.touched = false;
+            (entry.getKey().startsWith("user:") ? userIds : guestIds).add(idOf(entry.getKey()));
+            return false;
+        });
+        int corrected = 0;
+        try {
+            corrected += correct(userIds, today, true);
+            corrected += correct(guestIds, today, false);
+        } catch (Exception e) {
+            log.warn("Could not reconcile spend ledger: {}", e.getMessage());
+        }
+        if (corrected > 0) {
+            log.info("Spend ledger reconciliation corrected {} of {} accounts", corrected, accounts.size());
+        }
+    }
+
+    private int correct(List<Long> ids, LocalDate day, boolean users) {
+        int corrected = 0;
+        for (int from = 0; from < ids.size(); from += RECONCILE_CHUNK) {
+            List<Long> chunk = ids.subList(from, Math.min(from + RECONCILE_CHUNK, ids.size()));
+            // Principals without rows today are absent from the result, and settled at zero
+            Map<Long, Long> fromTable = new HashMap<>();
+            List<Object[]> rows = users
+                ? usageMetricRepository.getTotalCostByUser(chunk, day.atStartOfDay())
+                : usageMetricRepository.getTotalTokensByGuest(chunk, day.atStartOfDay());
+            for (Object[] row : rows) {
+                fromTable.put((Long) row[0], users ? toMicros((BigDecimal) row[1]) : ((Number) row[1]).longValue());
+            }
+            for (Long id : chunk) {
+                Account account = accounts.get(users ? userKey(id) : guestKey(id));
+                if (account == null) {
+                    continue;
+                }
+                long settled = fromTable.getOrDefault(id, 0L)
+                    + (users ? telemetryJournal.pendingCostMicros(id, day) : telemetryJournal.pendingTokens(id, day));
+                if (account.resetSettled(settled)) {
+                    corrected++;
+                }
+            }
+        }
+        return corrected;
+    }
+
+    private static long idOf(String key) {
+        return Long.parseLong(key.substring(key.indexOf(':') + 1));
+    }
+
+    private static String userKey(Long userId) {
+        return "user:" + userId;
+    }
+
+    private static String guestKey(Long guestSessionId) {
+        return "guest:" + guestSessionId;
+    }
+
+    static long toMicros(BigDecimal dollars) {
+        return dollars == null ? 0 : dollars.multiply(MICROS_PER_DOLLAR).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    /**
+     * Spend held against a principal while its model call is in flight.
+     */
+    public static final class Reservation {
+        private final Account account;
+        private final long amount;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reservation(Account account, long amount) {
+            this.account = account;
+            this.amount = amount;
+        }
+
+        /**
+         * Give the reserved amount back. Call once the real usage has been recorded, or when the
+         * call failed; safe to call more than once.
+         */
+        public void release() {
+            if (account != null && released.compareAndSet(false, true)) {
+                account.unreserve(amount);
+            }
+        }
+    }
+
+    /**
+     * Settled spend and outstanding reservations, always read and changed together so the limit
+     * check and reconciliation see one consistent pair.
+     */
+    private static final class Account {
+        private final LocalDate day;
+        private final ReentrantLock lock = new ReentrantLock();
+        private long settled;                                // recorded usage; guarded by lock
+        private long reserved;                               // turns still in flight; guarded by lock
+        private volatile boolean touched = true;             // used since the last reconciliation
+
+        Account(LocalDate day, long settled) {
+            this.day = day;
+            this.settled = settled;
+        }
+
+        boolean isToday() {
+            return day.equals(LocalDate.now());
+        }
+
+        long total() {
+            lock.lock();
+            try {
+                return settled + reserved;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean tryReserve(long amount, long limit) {
+            lock.lock();
+            try {
+                if (settled + reserved + amount > limit) {
+                    return false;
+                }
+                reserved += amount;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void unreserve(long amount) {
+            lock.lock();
+            try {
+                reserved -= amount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void settle(long amount) {
+            lock.lock();
+            try {
+                settled += amount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Replace the settled spend with the table's; returns whether it differed.
+         */
+        boolean resetSettled(long fromTable) {
+            lock.lock();
+            try {
+                boolean drifted = settled != fromTable;
+                settled = fromTable;
+                return drifted;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean hasReservations() {
+            lock.lock();
+            try {
+                return reserved != 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
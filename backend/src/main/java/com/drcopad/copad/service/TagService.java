@@ -17,6 +17,7 @@ import lombok.RequiredArgsConstructor;
 public class TagService {
 
     private final TagRepository tagRepository;
+    private final ReferenceDataCache referenceDataCache;
     
     public List<TagDTO> getAllTags() {
         return tagRepository.findAll().stream()
@@ -54,7 +55,9 @@ public class TagService {
                     Tag newTag = new Tag();
                     newTag.setName(name);
                     newTag.setSlug(slug);
-                    return tagRepository.save(newTag);
+                    Tag saved = tagRepository.save(newTag);
+                    referenceDataCache.evictTags();
+                    return saved;
                 });
     }
         
@@ -83,6 +86,7 @@ public class TagService {
         tag.setSlug(slug);
         
         Tag savedTag = tagRepository.save(tag);
+        referenceDataCache.evictTags();
         return convertToDTO(savedTag);
     }
     
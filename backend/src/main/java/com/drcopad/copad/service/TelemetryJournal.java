@@ -0,0 +1,675 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.entity.responses.JsonListConverter;
+import com.drcopad.copad.entity.responses.OpenAIResponse;
+import com.drcopad.copad.entity.responses.UsageMetric;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind for response and usage telemetry. Once a turn commits its rows are appended to a
+ * memory-mapped segment file, and a background flusher inserts them into {@code openai_responses}
+ * and {@code usage_metrics} in JDBC batches. The turn's own transaction only writes what the user
+ * needs: the chat message and the conversation's response chain.
+ * <p>
+ * Each segment's header records how far its rows have been inserted; anything past that is
+ * inserted again after a restart. Delivery is at least once, and both inserts skip rows that are
+ * already there. A segment is deleted once it is full and flushed.
+ * <p>
+ * A record is {@code [int length][int crc32][type byte + JSON]} and a zero length ends the
+ * segment. The length is written last, so a record torn by a crash reads as the end.
+ * <p>
+ * Usage rows that are journaled but not yet inserted are also summed per principal and day, so
+ * {@link SpendLedger} can count spend the table does not show yet.
+ */
+@Slf4j
+@Service
+public class TelemetryJournal {
+
+    private static final int MAGIC = 0x544A524E;  // "TJRN"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 16;  // magic, version, flushed offset
+    private static final int CHECKPOINT_OFFSET = 8;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final byte TYPE_RESPONSE = 'R';
+    private static final byte TYPE_USAGE = 'U';
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+
+    static final String INSERT_RESPONSE = "INSERT INTO openai_responses (response_id, conversation_id, chat_message_id, "
+        + "previous_response_id, model, route_tier, route_reason, reasoning_effort, prompt_version, tools_used, "
+        + "completion_tokens, prompt_tokens, total_tokens, cached_input_tokens, response_time_ms, created_at) "
+        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    static final String INSERT_USAGE = "INSERT INTO usage_metrics (journal_entry_id, conversation_id, response_id, "
+        + "user_id, guest_session_id, model, input_tokens, output_tokens, total_tokens, cached_input_tokens, "
+        + "reasoning_tokens, input_cost, output_cost, total_cost, tools_cost, cost_micros, price_version, tools_used, "
+        + "api_type, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    // Keys of a batch already in the table; the first argument of each insert is that key
+    static final String EXISTING_RESPONSES = "SELECT response_id FROM openai_responses WHERE response_id IN (%s)";
+    static final String EXISTING_USAGE = "SELECT journal_entry_id FROM usage_metrics WHERE journal_entry_id IN (%s)";
+
+    private final OpenAIResponsesConfig.JournalConfig config;
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final JsonListConverter listConverter = new JsonListConverter();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Oldest first; the last one takes appends. Guarded by appendLock
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    // Journaled, not yet inserted usage: micro-dollars per user, tokens per guest session
+    private final Map<PendingKey, Long> pendingUsage = new ConcurrentHashMap<>();
+    private volatile boolean open;
+
+    public TelemetryJournal(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                            JdbcTemplate jdbcTemplate,
+                            MeterRegistry meterRegistry) {
+        this.config = responsesConfig.getJournal();
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        if (config.isEnabled()) {
+            try {
+                openSegments(Path.of(config.getDir()));
+                open = true;
+            } catch (IOException | UncheckedIOException e) {
+                log.error("Could not open telemetry journal in {}, recording telemetry with the turn instead: {}",
+                    config.getDir(), e.getMessage());
+            }
+        }
+        Gauge.builder("telemetry.journal.pending.bytes", this, TelemetryJournal::pendingBytes)
+            .description("Journaled telemetry not yet inserted into the database")
+            .register(meterRegistry);
+    }
+
+    /**
+     * False when disabled or when the journal directory could not be opened; callers then save
+     * the entities themselves.
+     */
+    public boolean isEnabled() {
+        return open;
+    }
+
+    /**
+     * Cost in micro-dollars of the user's usage rows created on {@code day} that are journaled
+     * but not yet in {@code usage_metrics}.
+     */
+    public long pendingCostMicros(Long userId, LocalDate day) {
+        return pendingUsage.getOrDefault(new PendingKey(day, false, userId), 0L);
+    }
+
+    /**
+     * Tokens of the guest session's usage rows created on {@code day} that are journaled but not
+     * yet in {@code usage_metrics}.
+     */
+    public long pendingTokens(Long guestSessionId, LocalDate day) {
+        return pendingUsage.getOrDefault(new PendingKey(day, true, guestSessionId), 0L);
+    }
+
+    /**
+     * Journal a response row. Inside a transaction this happens after commit.
+     */
+    public void append(OpenAIResponse response) {
+        int prompt = response.getPromptTokens() != null ? response.getPromptTokens() : 0;
+        int completion = response.getCompletionTokens() != null ? response.getCompletionTokens() : 0;
+        appendAfterCommit(TYPE_RESPONSE, new ResponseRow(
+            response.getResponseId(),
+            response.getConversationId(),
+            response.getChatMessage() != null ? response.getChatMessage().getId() : null,
+            response.getPreviousResponseId(),
+            response.getModel(),
+            response.getRouteTier(),
+            response.getRouteReason(),
+            response.getReasoningEffort(),
+            response.getPromptVersion(),
+            listConverter.convertToDatabaseColumn(response.getToolsUsed()),
+            completion,
+            prompt,
+            prompt + completion,
+            response.getCachedInputTokens() != null ? response.getCachedInputTokens() : 0,
+            response.getResponseTimeMs(),
+            response.getCreatedAt() != null ? response.getCreatedAt() : LocalDateTime.now()));
+    }
+
+    /**
+     * Journal a usage row, giving it a {@code journalEntryId} if it has none. Inside a
+     * transaction this happens after commit.
+     */
+    public void append(UsageMetric metric) {
+        if (metric.getJournalEntryId() == null) {
+            metric.setJournalEntryId(UUID.randomUUID().toString());
+        }
+        int input = metric.getInputTokens() != null ? metric.getInputTokens() : 0;
+        int output = metric.getOutputTokens() != null ? metric.getOutputTokens() : 0;
+        BigDecimal inputCost = zeroIfNull(metric.getInputCost());
+        BigDecimal outputCost = zeroIfNull(metric.getOutputCost());
+        BigDecimal toolsCost = zeroIfNull(metric.getToolsCost());
+        appendAfterCommit(TYPE_USAGE, new UsageRow(
+            metric.getJournalEntryId(),
+            metric.getConversationId(),
+            metric.getResponseId(),
+            metric.getUser() != null ? metric.getUser().getId() : null,
+            metric.getGuestSession() != null ? metric.getGuestSession().getId() : null,
+            metric.getModel(),
+            input,
+            output,
+            input + output,
+            metric.getCachedInputTokens() != null ? metric.getCachedInputTokens() : 0,
+            metric.getReasoningTokens() != null ? metric.getReasoningTokens() : 0,
+            inputCost,
+            outputCost,
+            inputCost.add(outputCost).add(toolsCost),
+            toolsCost,
+            metric.getCostMicros() != null ? metric.getCostMicros() : 0L,
+            metric.getPriceVersion(),
+            listConverter.convertToDatabaseColumn(metric.getToolsUsed()),
+            metric.getApiType(),
+            metric.getCreatedAt() != null ? metric.getCreatedAt() : LocalDateTime.now()));
+    }
+
+    private void appendAfterCommit(byte type, Object row) {
+        // Encoded now so later changes to the entity don't leak into the journal
+        byte[] payload = encode(type, row);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    write(payload, row);
+                }
+            });
+        } else {
+            write(payload, row);
+        }
+    }
+
+    private void write(byte[] payload, Object row) {
+        try {
+            appendLock.lock();
+            try {
+                Segment active = segments.getLast();
+                if (active.remaining() < RECORD_HEADER_BYTES + payload.length) {
+                    active = roll(active, RECORD_HEADER_BYTES + payload.length);
+                }
+                active.write(payload);
+                // Counted before the lock is released, so the flusher cannot subtract it first
+                if (row instanceof UsageRow usage) {
+                    addPending(usage, 1);
+                }
+                if (config.isForceOnAppend()) {
+                    active.buffer.force();
+                }
+            } finally {
+                appendLock.unlock();
+            }
+            meterRegistry.counter("telemetry.journal.rows", "outcome", "appended").increment();
+        } catch (IOException | RuntimeException e) {
+            // The turn has committed; better a synchronous insert than losing its cost
+            log.warn("Could not append to telemetry journal, inserting directly: {}", e.getMessage());
+            try {
+                insert(List.of(payload));
+            } catch (RuntimeException insertError) {
+                meterRegistry.counter("telemetry.journal.rows", "outcome", "dropped").increment();
+                log.error("Lost a telemetry row: {}", insertError.getMessage());
+            }
+        }
+    }
+
+    private Segment roll(Segment full, int recordBytes) throws IOException {
+        int size = Math.max(config.getSegmentBytes(), HEADER_BYTES + recordBytes);
+        Segment next = Segment.create(full.path.getParent(), full.seq + 1, size);
+        segments.addLast(next);
+        return next;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void replay() {
+        long pending = pendingBytes();
+        if (pending > 0) {
+            log.info("Replaying {} bytes of journaled telemetry", pending);
+        }
+        flush();
+    }
+
+    /**
+     * Insert journaled rows in batches of {@code batch-size} until the journal is drained. A
+     * database error leaves the rest for the next run.
+     */
+    @Scheduled(fixedDelayString = "${app.chatgpt.openai.responses.journal.flush-interval:1000}",
+               initialDelayString = "${app.chatgpt.openai.responses.journal.flush-interval:1000}")
+    public void flush() {
+        if (!open || !flushLock.tryLock()) {
+            return;
+        }
+        try {
+            drain();
+        } catch (RuntimeException e) {
+            log.warn("Telemetry journal flush failed, retrying later: {}", e.getMessage());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!open) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            drain();
+        } catch (RuntimeException e) {
+            log.warn("Telemetry journal not fully flushed at shutdown, it is replayed on the next start: {}", e.getMessage());
+        } finally {
+            open = false;
+            appendLock.lock();
+            try {
+                for (Segment segment : segments) {
+                    segment.close();
+                }
+            } finally {
+                appendLock.unlock();
+            }
+            flushLock.unlock();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Segment segment;
+            int limit;
+            boolean sealed;
+            appendLock.lock();
+            try {
+                segment = segments.getFirst();
+                limit = segment.writePos;
+                sealed = segment != segments.getLast();
+            } finally {
+                appendLock.unlock();
+            }
+            if (segment.flushedPos < limit) {
+                flushBatch(segment, limit);
+                continue;
+            }
+            if (!sealed) {
+                return;
+            }
+            appendLock.lock();
+            try {
+                segments.removeFirst();
+            } finally {
+                appendLock.unlock();
+            }
+            segment.delete();
+        }
+    }
+
+    private void flushBatch(Segment segment, int limit) {
+        List<byte[]> batch = new ArrayList<>();
+        int pos = segment.flushedPos;
+        while (pos < limit && batch.size() < config.getBatchSize()) {
+            byte[] payload = segment.read(pos);
+            if (payload == null) {
+                // Everything below writePos was checked when written or scanned at startup
+                throw new IllegalStateException("Unreadable telemetry journal record at " + segment.path + ":" + pos);
+            }
+            batch.add(payload);
+            pos += RECORD_HEADER_BYTES + payload.length;
+        }
+        List<UsageRow> inserted = insert(batch);
+        segment.checkpoint(pos);
+        for (UsageRow usage : inserted) {
+            addPending(usage, -1);
+        }
+        meterRegistry.counter("telemetry.journal.rows", "outcome", "flushed").increment(batch.size());
+    }
+
+    /**
+     * Insert the records, returning the usage rows among them.
+     */
+    private List<UsageRow> insert(List<byte[]> payloads) {
+        List<Object[]> responses = new ArrayList<>();
+        List<Object[]> usage = new ArrayList<>();
+        List<UsageRow> usageRows = new ArrayList<>();
+        for (byte[] payload : payloads) {
+            try {
+                if (payload[0] == TYPE_RESPONSE) {
+                    responses.add(responseArgs(objectMapper.readValue(payload, 1, payload.length - 1, ResponseRow.class)));
+                } else if (payload[0] == TYPE_USAGE) {
+                    UsageRow row = objectMapper.readValue(payload, 1, payload.length - 1, UsageRow.class);
+                    usage.add(usageArgs(row));
+                    usageRows.add(row);
+                } else {
+                    throw new IOException("unknown record type " + payload[0]);
+                }
+            } catch (IOException e) {
+                meterRegistry.counter("telemetry.journal.rows", "outcome", "dropped").increment();
+                log.error("Dropping unreadable telemetry journal record: {}", e.getMessage());
+            }
+        }
+        insert(INSERT_RESPONSE, EXISTING_RESPONSES, responses);
+        insert(INSERT_USAGE, EXISTING_USAGE, usage);
+        return usageRows;
+    }
+
+    private void addPending(UsageRow row, int sign) {
+        LocalDate day = row.createdAt().toLocalDate();
+        if (row.userId() != null) {
+            long micros = row.costMicros() > 0 ? row.costMicros() : SpendLedger.toMicros(row.totalCost());
+            addPending(new PendingKey(day, false, row.userId()), sign * micros);
+        }
+        if (row.guestSessionId() != null) {
+            addPending(new PendingKey(day, true, row.guestSessionId()), (long) sign * row.totalTokens());
+        }
+    }
+
+    private void addPending(PendingKey key, long delta) {
+        // Entries are dropped at zero, so the map only holds principals with rows in flight
+        pendingUsage.compute(key, (k, total) -> {
+            long sum = (total != null ? total : 0) + delta;
+            return sum != 0 ? sum : null;
+        });
+    }
+
+    /**
+     * Insert the rows whose keys are not in the table yet. Plain SQL rather than an upsert, so it
+     * runs on MySQL and H2 alike; replays after a restart are the only source of duplicates.
+     */
+    private void insert(String sql, String existingSql, List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Object[] keys = rows.stream().map(row -> row[0]).toArray();
+        Set<String> existing = new HashSet<>(jdbcTemplate.queryForList(
+            existingSql.formatted(String.join(", ", Collections.nCopies(keys.length, "?"))), String.class, keys));
+        List<Object[]> fresh = rows.stream().filter(row -> !existing.contains(row[0])).toList();
+        if (fresh.size() < rows.size()) {
+            meterRegistry.counter("telemetry.journal.rows", "outcome", "duplicate").increment(rows.size() - fresh.size());
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(sql, fresh);
+        } catch (DataIntegrityViolationException e) {
+            // One bad row must not hold back the rest: retry one by one and drop what the table rejects
+            for (Object[] row : fresh) {
+                try {
+                    jdbcTemplate.update(sql, row);
+                } catch (DuplicateKeyException duplicate) {
+                    meterRegistry.counter("telemetry.journal.rows", "outcome", "duplicate").increment();
+                } catch (DataIntegrityViolationException rowError) {
+                    meterRegistry.counter("telemetry.journal.rows", "outcome", "dropped").increment();
+                    log.error("Dropping telemetry row {} rejected by the database: {}", row[0], rowError.getMessage());
+                }
+            }
+        }
+    }
+
+    private static Object[] responseArgs(ResponseRow row) {
+        return new Object[] {
+            row.responseId(), row.conversationId(), row.chatMessageId(), row.previousResponseId(), row.model(),
+            row.routeTier(), row.routeReason(), row.reasoningEffort(), row.promptVersion(), row.toolsUsed(),
+            row.completionTokens(), row.promptTokens(), row.totalTokens(), row.cachedInputTokens(),
+            row.responseTimeMs(), Timestamp.valueOf(row.createdAt())
+        };
+    }
+
+    private static Object[] usageArgs(UsageRow row) {
+        return new Object[] {
+            row.journalEntryId(), row.conversationId(), row.responseId(), row.userId(), row.guestSessionId(),
+            row.model(), row.inputTokens(), row.outputTokens(), row.totalTokens(), row.cachedInputTokens(),
+            row.reasoningTokens(), row.inputCost(), row.outputCost(), row.totalCost(), row.toolsCost(),
+            row.costMicros(), row.priceVersion(), row.toolsUsed(), row.apiType(), Timestamp.valueOf(row.createdAt())
+        };
+    }
+
+    private byte[] encode(byte type, Object row) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(row);
+            byte[] payload = new byte[json.length + 1];
+            payload[0] = type;
+            System.arraycopy(json, 0, payload, 1, json.length);
+            return payload;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long pendingBytes() {
+        appendLock.lock();
+        try {
+            long pending = 0;
+            for (Segment segment : segments) {
+                pending += segment.writePos - segment.flushedPos;
+            }
+            return pending;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void openSegments(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                .sorted(Comparator.comparingLong(TelemetryJournal::sequenceOf))
+                .toList();
+        }
+        for (Path path : files) {
+            Segment segment = Segment.open(path, sequenceOf(path));
+            if (segment != null) {
+                segments.addLast(segment);
+                countPending(segment);
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.addLast(Segment.create(dir, 1, config.getSegmentBytes()));
+        }
+    }
+
+    /**
+     * Count the usage rows a previous run left unflushed in the segment.
+     */
+    private void countPending(Segment segment) {
+        int pos = segment.flushedPos;
+        byte[] payload;
+        while (pos < segment.writePos && (payload = segment.read(pos)) != null) {
+            if (payload[0] == TYPE_USAGE) {
+                try {
+                    addPending(objectMapper.readValue(payload, 1, payload.length - 1, UsageRow.class), 1);
+                } catch (IOException e) {
+                    // Dropped again when flushed
+                }
+            }
+            pos += RECORD_HEADER_BYTES + payload.length;
+        }
+    }
+
+    private static long sequenceOf(Path path) {
+        Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    private static BigDecimal zeroIfNull(BigDecimal value) {
+        return value != null ? value : BigDecimal.ZERO;
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * One journal file. {@code writePos} moves under the append lock, {@code flushedPos} only in
+     * the flusher.
+     */
+    private static final class Segment {
+        final long seq;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePos;
+        volatile int flushedPos;
+
+        private Segment(long seq, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.seq = seq;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path dir, long seq, int size) throws IOException {
+            Path path = dir.resolve(String.format("segment-%012d.log", seq));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(seq, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            segment.buffer.putInt(0, MAGIC);
+            segment.buffer.putInt(4, FORMAT_VERSION);
+            segment.writePos = HEADER_BYTES;
+            segment.checkpoint(HEADER_BYTES);
+            return segment;
+        }
+
+        /**
+         * Map an existing segment and find the end of its valid records, or null if the file is
+         * not a journal segment.
+         */
+        static Segment open(Path path, long seq) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                channel.close();
+                log.warn("Ignoring telemetry journal file {} of unexpected size {}", path, size);
+                return null;
+            }
+            Segment segment = new Segment(seq, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            if (segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(4) != FORMAT_VERSION) {
+                segment.close();
+                log.warn("Ignoring telemetry journal file {} with an unknown header", path);
+                return null;
+            }
+            int pos = HEADER_BYTES;
+            byte[] payload;
+            while ((payload = segment.read(pos)) != null) {
+                pos += RECORD_HEADER_BYTES + payload.length;
+            }
+            segment.writePos = pos;
+            long checkpoint = segment.buffer.getLong(CHECKPOINT_OFFSET);
+            segment.flushedPos = (int) Math.max(HEADER_BYTES, Math.min(checkpoint, pos));
+            return segment;
+        }
+
+        int remaining() {
+            return buffer.capacity() - writePos;
+        }
+
+        void write(byte[] payload) {
+            int pos = writePos;
+            int end = pos + RECORD_HEADER_BYTES + payload.length;
+            buffer.putInt(pos + 4, crc(payload));
+            buffer.put(pos + RECORD_HEADER_BYTES, payload);
+            if (end + 4 <= buffer.capacity()) {
+                buffer.putInt(end, 0);
+            }
+            buffer.putInt(pos, payload.length);
+            writePos = end;
+        }
+
+        /**
+         * The record at {@code pos}, or null at the end of the segment or a torn record.
+         */
+        byte[] read(int pos) {
+            if (pos + RECORD_HEADER_BYTES > buffer.capacity()) {
+                return null;
+            }
+            int length = buffer.getInt(pos);
+            if (length <= 0 || length > buffer.capacity() - pos - RECORD_HEADER_BYTES) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(pos + RECORD_HEADER_BYTES, payload);
+            return crc(payload) == buffer.getInt(pos + 4) ? payload : null;
+        }
+
+        void checkpoint(int pos) {
+            buffer.putLong(CHECKPOINT_OFFSET, pos);
+            buffer.force(0, HEADER_BYTES);
+            flushedPos = pos;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close telemetry journal segment {}: {}", path, e.getMessage());
+            }
+        }
+
+        void delete() {
+            close();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Could not delete flushed telemetry journal segment {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private record PendingKey(LocalDate day, boolean guest, Long principalId) {
+    }
+
+    record ResponseRow(String responseId, String conversationId, Long chatMessageId, String previousResponseId,
+                       String model, String routeTier, String routeReason, String reasoningEffort,
+                       String promptVersion, String toolsUsed, int completionTokens, int promptTokens,
+                       int totalTokens, int cachedInputTokens, Integer responseTimeMs, LocalDateTime createdAt) {
+    }
+
+    record UsageRow(String journalEntryId, String conversationId, String responseId, Long userId,
+                    Long guestSessionId, String model, int inputTokens, int outputTokens, int totalTokens,
+                    int cachedInputTokens, int reasoningTokens, BigDecimal inputCost, BigDecimal outputCost,
+                    BigDecimal totalCost, BigDecimal toolsCost, long costMicros, String priceVersion,
+                    String toolsUsed, String apiType, LocalDateTime createdAt) {
+    }
+}
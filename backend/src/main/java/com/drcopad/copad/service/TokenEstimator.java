@@ -0,0 +1,168 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.dto.ResponsesAPIRequest;
+import com.drcopad.copad.dto.ResponsesAPIResponse;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Counts tokens locally with the same BPE vocabularies OpenAI uses, so a request's size is known
+ * before it is sent. o-series and gpt-4o models use o200k_base, older models cl100k_base.
+ * <p>
+ * Counting does not materialise the token list, so it is cheap enough to run on every turn
+ * including ones carrying large extracted documents. Estimates are compared against the billed
+ * input in the {@code llm.tokens.estimated} and {@code llm.tokens.billed} summaries.
+ */
+@Slf4j
+@Service
+public class TokenEstimator {
+
+    // Per-message framing the API adds around each input item (role, separators)
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private final OpenAIResponsesConfig.TokenBudgetConfig config;
+    private final Encoding o200k;
+    private final Encoding cl100k;
+    private final MeterRegistry meterRegistry;
+
+    public TokenEstimator(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                          MeterRegistry meterRegistry) {
+        this.config = responsesConfig.getTokens();
+        this.meterRegistry = meterRegistry;
+        EncodingRegistry registry = Encodings.newLazyEncodingRegistry();
+        this.o200k = registry.getEncoding(EncodingType.O200K_BASE);
+        this.cl100k = registry.getEncoding(EncodingType.CL100K_BASE);
+    }
+
+    public int count(String model, String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        // Ordinary encoding: user text that happens to contain "<|endoftext|>" is just text
+        return encodingFor(model).countTokensOrdinary(text);
+    }
+
+    /**
+     * Estimated input tokens for a request: instructions plus every text and image item.
+     */
+    public int estimate(ResponsesAPIRequest request) {
+        Encoding encoding = encodingFor(request.getModel());
+        int tokens = countText(encoding, request.getInstructions());
+        if (request.getInstructions() != null) {
+            tokens += MESSAGE_OVERHEAD_TOKENS;
+        }
+        return tokens + countInput(encoding, request.getInput());
+    }
+
+    /**
+     * The longest prefix of {@code text} that fits in {@code maxTokens}, cut on a token boundary.
+     */
+    public String truncate(String model, String text, int maxTokens) {
+        if (text == null || maxTokens <= 0) {
+            return "";
+        }
+        EncodingResult result = encodingFor(model).encodeOrdinary(text, maxTokens);
+        if (!result.isTruncated()) {
+            return text;
+        }
+        return text.substring(0, result.getLastProcessedCharacterIndex() + 1);
+    }
+
+    public int imageTokens() {
+        return config.getImageTokens();
+    }
+
+    /**
+     * Compare a pre-flight estimate with the input tokens OpenAI billed for the same request.
+     */
+    public void recordBilled(String model, int estimated, int billed) {
+        String tag = model != null ? model : "unknown";
+        DistributionSummary.builder("llm.tokens.estimated").tag("model", tag)
+            .description("Input tokens estimated locally before the call")
+            .register(meterRegistry).record(estimated);
+        DistributionSummary.builder("llm.tokens.billed").tag("model", tag)
+            .description("Input tokens reported by OpenAI for the same call")
+            .register(meterRegistry).record(billed);
+        if (billed > 0 && Math.abs(estimated - billed) > billed / 5) {
+            log.debug("Token estimate for {} off by more than 20%: estimated={}, billed={}", tag, estimated, billed);
+        }
+    }
+
+    /**
+     * Count billed and prompt-cached input per specialty. The cache hit ratio is
+     * {@code llm.tokens.input.cached / llm.tokens.input} over the same tags.
+     */
+    public void recordPromptCache(String specialtyCode, String model, ResponsesAPIResponse.Usage usage) {
+        if (usage == null) {
+            return;
+        }
+        String specialty = specialtyCode != null ? specialtyCode : "unknown";
+        String modelTag = model != null ? model : "unknown";
+        Counter.builder("llm.tokens.input").tag("specialty", specialty).tag("model", modelTag)
+            .description("Input tokens billed")
+            .register(meterRegistry).increment(usage.inputTokens());
+        Counter.builder("llm.tokens.input.cached").tag("specialty", specialty).tag("model", modelTag)
+            .description("Input tokens served from OpenAI's prompt cache")
+            .register(meterRegistry).increment(usage.cachedInputTokens());
+    }
+
+    private int countInput(Encoding encoding, Object input) {
+        if (input == null) {
+            return 0;
+        }
+        if (input instanceof String text) {
+            return countText(encoding, text) + MESSAGE_OVERHEAD_TOKENS;
+        }
+        if (input instanceof Collection<?> items) {
+            int tokens = 0;
+            for (Object item : items) {
+                tokens += countInput(encoding, item);
+            }
+            return tokens;
+        }
+        if (input instanceof Map<?, ?> item) {
+            Object type = item.get("type");
+            if ("input_image".equals(type)) {
+                return config.getImageTokens();
+            }
+            int tokens = item.containsKey("role") ? MESSAGE_OVERHEAD_TOKENS : 0;
+            Object text = item.get("text");
+            if (text instanceof String s) {
+                tokens += countText(encoding, s);
+            }
+            Object content = item.get("content");
+            if (content instanceof String s) {
+                tokens += countText(encoding, s);
+            } else if (content != null) {
+                tokens += countInput(encoding, content);
+            }
+            return tokens;
+        }
+        return 0;
+    }
+
+    private static int countText(Encoding encoding, String text) {
+        return text == null || text.isEmpty() ? 0 : encoding.countTokensOrdinary(text);
+    }
+
+    private Encoding encodingFor(String model) {
+        if (model != null && (model.startsWith("gpt-4-") || model.startsWith("gpt-3.5") || model.equals("gpt-4"))) {
+            return cl100k;
+        }
+        // o-series, gpt-4o, gpt-4.1 and anything newer
+        return o200k;
+    }
+}
@@ -0,0 +1,10 @@
+package com.drcopad.copad.service;
+
+/**
+ * Extension point for {@link ModelRouter}. Classifier beans are consulted in {@code @Order} before
+ * the built-in heuristics; returning null defers to the next one.
+ */
+public interface TurnClassifier {
+
+    ModelRouter.Tier classify(ModelRouter.Signals signals);
+}
@@ -0,0 +1,243 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.exception.RateLimitExceededException;
+import com.drcopad.copad.exception.ServiceOverloadedException;
+import com.drcopad.copad.exception.UpstreamHttpException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Retries a single OpenAI HTTP exchange, never the turn around it: the caller passes the cold
+ * WebClient publisher and only that is re-subscribed. The calls are non-idempotent POSTs, so only
+ * failures OpenAI certainly did not process are retried (see {@link #notProcessed}): throttling
+ * (429), 503 and connections that were never opened. A 500, 502, 504 or timeout may already have
+ * created and billed a response and is passed to the caller. Retries use jittered exponential
+ * backoff, waiting at least as long as the {@code Retry-After} header asks.
+ * <p>
+ * Retries are paid for from a token bucket shared by all calls. Every call adds
+ * {@code retry.budget-ratio} of a token and every retry takes one, so during an upstream brownout
+ * retries add at most that fraction of extra load instead of multiplying it by
+ * {@code retry.max-attempts}.
+ * <p>
+ * There is no circuit breaker in front of the Responses API. The budget bounds the extra load
+ * during an outage, and the v2 message endpoint answers from Chat Completions (one more call, not
+ * retried) when the Responses call fails.
+ */
+@Slf4j
+@Service
+public class UpstreamRetry {
+
+    private final OpenAIResponsesConfig.RetryConfig config;
+    private final RetryBudget budget;
+    private final MeterRegistry meterRegistry;
+
+    public UpstreamRetry(@Qualifier("openAIResponsesConfig") OpenAIResponsesConfig responsesConfig,
+                         MeterRegistry meterRegistry) {
+        this.config = responsesConfig.getRetry();
+        this.budget = new RetryBudget(config.getBudgetRatio(), config.getBudgetMaxTokens());
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("llm.retry.budget", budget, RetryBudget::tokens)
+            .description("Retries that can be started right now")
+            .register(meterRegistry);
+    }
+
+    /**
+     * {@code call} with retries. It must be cold: each attempt re-subscribes it.
+     */
+    public <T> Mono<T> retry(String operation, Mono<T> call) {
+        return Mono.defer(() -> {
+            budget.deposit();
+            return call.retryWhen(spec(operation, () -> true));
+        });
+    }
+
+    /**
+     * Like {@link #retry(String, Mono)} for a stream, but only until the first element arrived:
+     * a stream that broke halfway cannot be replayed without sending the client duplicates.
+     */
+    public <T> Flux<T> retryBeforeFirst(String operation, Flux<T> call) {
+        return Flux.defer(() -> {
+            budget.deposit();
+            AtomicBoolean started = new AtomicBoolean();
+            return call.doOnNext(item -> started.set(true))
+                .retryWhen(spec(operation, () -> !started.get()));
+        });
+    }
+
+    private Retry spec(String operation, BooleanSupplier canRetry) {
+        return Retry.from(signals -> signals.concatMap(signal -> {
+            Throwable failure = signal.failure();
+            long attempt = signal.totalRetries() + 1;
+            if (!canRetry.getAsBoolean() || !isRetryable(failure) || attempt >= config.getMaxAttempts()) {
+                return Mono.error(failure);
+            }
+            Duration delay = delay(failure, attempt);
+            if (delay == null) {
+                count(operation, "retry_after_too_long");
+                return Mono.error(failure);
+            }
+            if (!budget.tryWithdraw()) {
+                count(operation, "budget_exhausted");
+                log.warn("{} failed and the retry budget is spent, not retrying: {}", operation, failure.getMessage());
+                return Mono.error(failure);
+            }
+            count(operation, "retried");
+            log.info("{} attempt {} failed, retrying in {}ms: {}", operation, attempt, delay.toMillis(), failure.getMessage());
+            return Mono.delay(delay).thenReturn(attempt);
+        }));
+    }
+
+    static boolean isRetryable(Throwable e) {
+        if (e instanceof UpstreamHttpException upstream) {
+            int status = upstream.getStatusCode();
+            if (status == 429) {
+                // An exhausted quota does not come back in a few seconds
+                return upstream.getResponseBody() == null || !upstream.getResponseBody().contains("insufficient_quota");
+            }
+        }
+        return (e instanceof UpstreamHttpException || e instanceof WebClientRequestException) && notProcessed(e);
+    }
+
+    /**
+     * Whether a failed call certainly started no work at OpenAI: it was shed locally, no connection
+     * was opened, or OpenAI turned it away unprocessed (429, 503). Anything else, a timeout in
+     * particular, may have created and billed a response.
+     */
+    public static boolean notProcessed(Throwable e) {
+        Throwable failure = Exceptions.unwrap(e);
+        if (failure instanceof ServiceOverloadedException || failure instanceof RateLimitExceededException) {
+            return true;
+        }
+        if (failure instanceof UpstreamHttpException upstream) {
+            return upstream.getStatusCode() == 429 || upstream.getStatusCode() == 503;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Backoff for the given attempt, or null if the server asked for a longer wait than
+     * {@code retry.max-interval} and the caller is better served by failing now.
+     */
+    private Duration delay(Throwable failure, long attempt) {
+        double backoff = Math.min(config.getMaxInterval(),
+            config.getInitialInterval() * Math.pow(config.getMultiplier(), attempt - 1));
+        // Equal jitter: half fixed, half random, so synchronized clients spread out
+        long millis = (long) (backoff / 2 + ThreadLocalRandom.current().nextDouble(backoff / 2));
+        if (failure instanceof UpstreamHttpException upstream && upstream.getRetryAfter() != null) {
+            long retryAfter = upstream.getRetryAfter().toMillis();
+            if (retryAfter > config.getMaxInterval()) {
+                return null;
+            }
+            millis = Math.max(millis, retryAfter);
+        }
+        return Duration.ofMillis(millis);
+    }
+
+    private void count(String operation, String outcome) {
+        meterRegistry.counter("llm.retries", "operation", operation, "outcome", outcome).increment();
+    }
+
+    /**
+     * Wait requested by a 429 or 503: OpenAI's {@code retry-after-ms}, else the standard
+     * {@code Retry-After} in seconds or as an HTTP date. Null if absent or unreadable.
+     */
+    public static Duration retryAfter(HttpHeaders headers) {
+        String millis = headers.getFirst("retry-after-ms");
+        if (millis != null) {
+            try {
+                return Duration.ofMillis(Math.max(0, (long) Double.parseDouble(millis.trim())));
+            } catch (NumberFormatException ignored) {
+                // fall through to Retry-After
+            }
+        }
+        String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                Duration untilDate = Duration.between(ZonedDateTime.now(),
+                    ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return untilDate.isNegative() ? Duration.ZERO : untilDate;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Token bucket: each call deposits {@code ratio} tokens up to {@code maxTokens}, each retry
+     * withdraws one. Starts full so a quiet service can still retry its first failures.
+     */
+    static final class RetryBudget {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final double ratio;
+        private final double maxTokens;
+        private double tokens;
+
+        RetryBudget(double ratio, double maxTokens) {
+            this.ratio = ratio;
+            this.maxTokens = maxTokens;
+            this.tokens = maxTokens;
+        }
+
+        void deposit() {
+            lock.lock();
+            try {
+                tokens = Math.min(maxTokens, tokens + ratio);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean tryWithdraw() {
+            lock.lock();
+            try {
+                if (tokens < 1) {
+                    return false;
+                }
+                tokens -= 1;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        double tokens() {
+            lock.lock();
+            try {
+                return tokens;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
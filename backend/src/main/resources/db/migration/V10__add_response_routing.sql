@@ -0,0 +1,8 @@
+-- Per-turn model routing decision, for comparing latency and cost by tier
+
+ALTER TABLE `openai_responses`
+    ADD COLUMN `route_tier` VARCHAR(20) AFTER `model`,
+    ADD COLUMN `route_reason` VARCHAR(50) AFTER `route_tier`,
+    ADD COLUMN `reasoning_effort` VARCHAR(10) AFTER `route_reason`;
+
+CREATE INDEX `idx_openai_responses_route_tier` ON `openai_responses` (`route_tier`, `created_at`);
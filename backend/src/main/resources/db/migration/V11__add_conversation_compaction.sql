@@ -0,0 +1,21 @@
+-- Context size tracking and compaction of long previous_response_id chains
+
+ALTER TABLE `conversations`
+    ADD COLUMN `context_input_tokens` INT DEFAULT 0 AFTER `last_openai_response_id`,
+    ADD COLUMN `cumulative_input_tokens` BIGINT DEFAULT 0 AFTER `context_input_tokens`,
+    ADD COLUMN `context_summary` LONGTEXT AFTER `cumulative_input_tokens`,
+    ADD COLUMN `compaction_count` INT DEFAULT 0 AFTER `context_summary`;
+
+CREATE TABLE IF NOT EXISTS `conversation_compactions` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT,
+    `conversation_id` VARCHAR(255) NOT NULL,
+    `compacted_response_id` VARCHAR(255) NOT NULL,
+    `summary_response_id` VARCHAR(255),
+    `summary` LONGTEXT NOT NULL,
+    `context_input_tokens` INT,
+    `summary_model` VARCHAR(50),
+    `created_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (`id`),
+    KEY `idx_compaction_conversation_id` (`conversation_id`),
+    CONSTRAINT `fk_compaction_conversation` FOREIGN KEY (`conversation_id`) REFERENCES `conversations` (`conversation_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
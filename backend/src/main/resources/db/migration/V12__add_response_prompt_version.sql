@@ -0,0 +1,6 @@
+-- System prompt template version per response, e.g. "general@3f2a9c1b7d04"
+
+ALTER TABLE `openai_responses`
+    ADD COLUMN `prompt_version` VARCHAR(80) AFTER `reasoning_effort`;
+
+CREATE INDEX `idx_openai_responses_prompt_version` ON `openai_responses` (`prompt_version`, `created_at`);
@@ -0,0 +1,4 @@
+-- Prompt-cache hits per response, next to the prompt token count they are part of
+
+ALTER TABLE `openai_responses`
+    ADD COLUMN `cached_input_tokens` INT DEFAULT 0 AFTER `total_tokens`;
@@ -0,0 +1,6 @@
+-- Usage rows are inserted from the telemetry journal, at least once; the entry id makes a replay a no-op.
+-- Response rows already dedupe on response_id.
+
+ALTER TABLE `usage_metrics`
+    ADD COLUMN `journal_entry_id` VARCHAR(36) NULL AFTER `api_type`,
+    ADD UNIQUE KEY `uk_usage_journal_entry_id` (`journal_entry_id`);
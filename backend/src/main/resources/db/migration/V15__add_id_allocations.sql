@@ -0,0 +1,10 @@
+-- Id blocks for entities using @PooledId instead of AUTO_INCREMENT, so their inserts can be batched.
+-- PooledIdAllocator also creates and seeds this on first use.
+
+CREATE TABLE IF NOT EXISTS `id_allocations` (
+    `table_name` VARCHAR(64) NOT NULL PRIMARY KEY,
+    `next_id` BIGINT NOT NULL
+);
+
+INSERT IGNORE INTO `id_allocations` (`table_name`, `next_id`)
+SELECT 'chat_messages', COALESCE(MAX(`id`), 0) + 1 FROM `chat_messages`;
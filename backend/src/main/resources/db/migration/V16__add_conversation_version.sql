@@ -0,0 +1,4 @@
+-- Optimistic version for conversations, checked by cached copies before they move the response chain
+
+ALTER TABLE `conversations`
+    ADD COLUMN `version` BIGINT NOT NULL DEFAULT 0;
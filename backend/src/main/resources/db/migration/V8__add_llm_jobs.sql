@@ -0,0 +1,24 @@
+-- Background-mode Responses API jobs, polled until OpenAI finishes the response
+
+CREATE TABLE IF NOT EXISTS `llm_jobs` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT,
+    `job_id` VARCHAR(255) NOT NULL UNIQUE,
+    `chat_id` VARCHAR(255) NOT NULL,
+    `conversation_id` VARCHAR(255) NOT NULL,
+    `openai_response_id` VARCHAR(255),
+    `status` VARCHAR(20) NOT NULL DEFAULT 'queued',
+    `request_payload` LONGTEXT NOT NULL,
+    `result_text` LONGTEXT,
+    `error_message` VARCHAR(1000),
+    `poll_attempts` INT NOT NULL DEFAULT 0,
+    `next_poll_at` DATETIME NOT NULL,
+    `submitted_at` DATETIME,
+    `completed_at` DATETIME,
+    `created_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    `version` BIGINT,
+    PRIMARY KEY (`id`),
+    KEY `idx_job_id` (`job_id`),
+    KEY `idx_job_chat_id` (`chat_id`),
+    KEY `idx_job_status_next_poll` (`status`, `next_poll_at`),
+    CONSTRAINT `fk_job_conversation` FOREIGN KEY (`conversation_id`) REFERENCES `conversations` (`conversation_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
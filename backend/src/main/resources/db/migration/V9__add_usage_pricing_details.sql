@@ -0,0 +1,10 @@
+-- Cached/reasoning token breakdown and exact micro-dollar cost per usage row
+
+ALTER TABLE `usage_metrics`
+    ADD COLUMN `cached_input_tokens` INT DEFAULT 0 AFTER `total_tokens`,
+    ADD COLUMN `reasoning_tokens` INT DEFAULT 0 AFTER `cached_input_tokens`,
+    ADD COLUMN `cost_micros` BIGINT DEFAULT 0 AFTER `tools_cost`,
+    ADD COLUMN `price_version` VARCHAR(20) AFTER `cost_micros`;
+
+-- Existing rows: DECIMAL(10,6) dollars convert to micro-dollars exactly
+UPDATE `usage_metrics` SET `cost_micros` = ROUND(`total_cost` * 1000000) WHERE `total_cost` IS NOT NULL;
@@ -0,0 +1,157 @@
+package com.drcopad.copad.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserts into a copy of {@code chat_messages}, one transaction per operation holding
+ * {@code rows} messages: one INSERT per row with the key read back, as IDENTITY ids force, against
+ * one JDBC batch with ids taken from a reserved block, as {@code @PooledId} allows. Inserts per
+ * second are the reported operations per second times {@code rows}.
+ * <p>
+ * Needs a MySQL/MariaDB schema with {@code chat_messages}; nothing is written to that table. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.drcopad.copad.benchmark.ChatMessageInsertBenchmark \
+ *     -Dbenchmark.db.url='jdbc:mysql://localhost:3306/copad?rewriteBatchedStatements=true' \
+ *     -Dbenchmark.db.user=... -Dbenchmark.db.password=...
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatMessageInsertBenchmark {
+
+    private static final String TABLE = "bench_chat_messages";
+    private static final int ALLOCATION_SIZE = 50;
+
+    // 2 is a turn's user and AI message
+    @Param({"2", "10"})
+    public int rows;
+
+    private Connection connection;
+    private Connection allocatorConnection;
+    private long nextId;
+    private long limit;
+
+    @Setup
+    public void setUp() throws SQLException {
+        String url = System.getProperty("benchmark.db.url");
+        if (url == null || url.isBlank()) {
+            throw new IllegalStateException("Set -Dbenchmark.db.url (and .user, .password) to a schema with chat_messages");
+        }
+        String user = System.getProperty("benchmark.db.user");
+        String password = System.getProperty("benchmark.db.password");
+        connection = DriverManager.getConnection(url, user, password);
+        allocatorConnection = DriverManager.getConnection(url, user, password);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + TABLE);
+            // LIKE copies columns and indexes but not foreign keys, so no chat rows are needed
+            statement.execute("CREATE TABLE " + TABLE + " LIKE chat_messages");
+            statement.execute("CREATE TABLE IF NOT EXISTS bench_id_allocations ("
+                + "table_name VARCHAR(64) NOT NULL PRIMARY KEY, next_id BIGINT NOT NULL)");
+            statement.execute("REPLACE INTO bench_id_allocations VALUES ('" + TABLE + "', 1000000000)");
+        }
+        connection.setAutoCommit(false);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + TABLE);
+            statement.execute("DROP TABLE IF EXISTS bench_id_allocations");
+        }
+        connection.close();
+        allocatorConnection.close();
+    }
+
+    @Benchmark
+    public void identityInserts() throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO " + TABLE + " (sender, message, timestamp) VALUES (?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            for (int i = 0; i < rows; i++) {
+                bind(insert, 1, i);
+                insert.executeUpdate();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    keys.next();
+                }
+            }
+        }
+        connection.commit();
+    }
+
+    @Benchmark
+    public void pooledBatchInserts() throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO " + TABLE + " (id, sender, message, timestamp) VALUES (?, ?, ?, ?)")) {
+            for (int i = 0; i < rows; i++) {
+                insert.setLong(1, nextId());
+                bind(insert, 2, i);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+    }
+
+    private static void bind(PreparedStatement insert, int first, int row) throws SQLException {
+        insert.setString(first, row % 2 == 0 ? "USER" : "AI");
+        insert.setString(first + 1, "What does an HbA1c of 6.8% mean for someone already on metformin?");
+        insert.setTimestamp(first + 2, new Timestamp(System.currentTimeMillis()));
+    }
+
+    // Same reservation PooledIdAllocator does, on its own autocommit connection
+    private long nextId() throws SQLException {
+        if (nextId == limit) {
+            try (PreparedStatement update = allocatorConnection.prepareStatement(
+                    "UPDATE bench_id_allocations SET next_id = LAST_INSERT_ID(next_id + ?) WHERE table_name = ?")) {
+                update.setInt(1, ALLOCATION_SIZE);
+                update.setString(2, TABLE);
+                update.executeUpdate();
+            }
+            try (Statement statement = allocatorConnection.createStatement();
+                 ResultSet result = statement.executeQuery("SELECT LAST_INSERT_ID()")) {
+                result.next();
+                limit = result.getLong(1);
+                nextId = limit - ALLOCATION_SIZE;
+            }
+        }
+        return nextId++;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(ChatMessageInsertBenchmark.class.getSimpleName())
+            .jvmArgsAppend("-Dbenchmark.db.url=" + System.getProperty("benchmark.db.url", ""),
+                "-Dbenchmark.db.user=" + System.getProperty("benchmark.db.user", ""),
+                "-Dbenchmark.db.password=" + System.getProperty("benchmark.db.password", ""))
+            .build()).run();
+    }
+}
@@ -0,0 +1,209 @@
+package com.drcopad.copad.benchmark;
+
+import com.drcopad.copad.CopadApplication;
+import com.drcopad.copad.entity.Chat;
+import com.drcopad.copad.repository.ChatRepository;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for {@code conversations} new chats to each get an answer at once, through the servlet
+ * ({@code /api/v2}) and the reactive ({@code /api/v3}) message endpoints of the running
+ * application: Tomcat, Spring Security, JPA on an in-memory H2 database behind a 10-connection
+ * Hikari pool, and WebClient. OpenAI is a local HTTP server that answers after
+ * {@code upstreamLatencyMs}.
+ * <p>
+ * Tomcat serves requests on its default 200 platform threads or on virtual threads
+ * ({@code spring.threads.virtual.enabled}). A v2 turn holds its request thread for the whole model
+ * call, a v3 turn gives it back until the answer is ready. Turns per second are
+ * {@code conversations} divided by the reported time. The fork sees two processors, shared by the
+ * application, the fake OpenAI and the load generator. The adaptive concurrency limiter is off so
+ * its per-model limit does not cap both paths alike. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.drcopad.copad.benchmark.MessagePipelineBenchmark
+ * </pre>
+ * H2 answers in microseconds; against MySQL both paths also wait on the pool for longer.
+ * <p>
+ * On a one-CPU host, 100 turns at 500 ms took about 1.9 s on v2 and on v3, on platform threads
+ * and on virtual threads alike (error bars wider than the gaps): the turns' own CPU time, not
+ * request threads, is the limit there.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-XX:ActiveProcessorCount=2")
+public class MessagePipelineBenchmark {
+
+    private static final String RESPONSE_JSON = """
+        {"id":"resp_%s","status":"completed","model":"o3",
+         "output":[{"type":"message","content":[{"type":"output_text","text":"Drink water."}]}],
+         "usage":{"input_tokens":10,"output_tokens":5,"total_tokens":15}}
+        """;
+    private static final String MESSAGE_JSON = """
+        {"message":"I have a headache","specialty":"general","language":"en"}
+        """;
+
+    @Param({"servlet", "reactive"})
+    public String path;
+
+    @Param({"platform", "virtual"})
+    public String requestThreads;
+
+    @Param({"100", "1000"})
+    public int conversations;
+
+    @Param({"500"})
+    public long upstreamLatencyMs;
+
+    private HttpServer openAI;
+    private ConfigurableApplicationContext application;
+    private ExecutorService clientThreads;
+    private HttpClient client;
+    private String endpoint;
+    private ChatRepository chatRepository;
+    private List<String> chatIds;
+
+    @Setup
+    public void setUp() throws IOException {
+        openAI = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        openAI.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        openAI.createContext("/v1/responses", exchange -> {
+            try {
+                Thread.sleep(upstreamLatencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = RESPONSE_JSON.formatted(UUID.randomUUID()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        openAI.start();
+        String openAIUrl = "http://127.0.0.1:" + openAI.getAddress().getPort() + "/v1";
+
+        // Devtools would restart the application in another class loader
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        application = new SpringApplicationBuilder(CopadApplication.class).run(
+            "--server.port=0",
+            "--spring.threads.virtual.enabled=" + "virtual".equals(requestThreads),
+            "--spring.datasource.url=jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1",
+            "--spring.datasource.driver-class-name=org.h2.Driver",
+            "--spring.datasource.username=sa",
+            "--spring.datasource.password=",
+            "--spring.datasource.hikari.maximum-pool-size=10",
+            "--spring.jpa.hibernate.ddl-auto=create-drop",
+            "--spring.jpa.show-sql=false",
+            "--spring.flyway.enabled=false",
+            "--spring.security.oauth2.client.registration.google.client-id=benchmark",
+            "--spring.security.oauth2.client.registration.google.client-secret=benchmark",
+            "--spring.security.oauth2.client.registration.facebook.client-id=benchmark",
+            "--spring.security.oauth2.client.registration.facebook.client-secret=benchmark",
+            "--app.chatgpt.openai.key=benchmark-key",
+            "--app.chatgpt.openai.url=" + openAIUrl + "/chat/completions",
+            "--app.chatgpt.openai.responses.url=" + openAIUrl + "/responses",
+            "--app.chatgpt.openai.responses.fallback-to-chat=false",
+            "--app.chatgpt.openai.responses.concurrency.enabled=false",
+            "--logging.level.root=WARN",
+            "--logging.level.org.springframework.security=WARN",
+            "--logging.level.com.drcopad=WARN");
+
+        // The application seeds the "general" specialty on startup
+        chatRepository = application.getBean(ChatRepository.class);
+
+        int port = ((ServletWebServerApplicationContext) application).getWebServer().getPort();
+        endpoint = "http://127.0.0.1:" + port + ("servlet".equals(path) ? "/api/v2" : "/api/v3") + "/messages/chat/";
+        clientThreads = Executors.newVirtualThreadPerTaskExecutor();
+        client = HttpClient.newBuilder()
+            .executor(clientThreads)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+    }
+
+    /**
+     * Fresh chats for every batch, so each turn is a first turn and histories do not grow.
+     */
+    @Setup(Level.Invocation)
+    public void newChats() {
+        List<Chat> chats = new ArrayList<>(conversations);
+        for (int i = 0; i < conversations; i++) {
+            Chat chat = new Chat();
+            chat.setChatId(UUID.randomUUID().toString());
+            chats.add(chat);
+        }
+        chatIds = chatRepository.saveAll(chats).stream().map(Chat::getChatId).toList();
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.close();
+        openAI.stop(0);
+        clientThreads.shutdownNow();
+    }
+
+    @Benchmark
+    public int answerConcurrentConversations() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> turns = new ArrayList<>(chatIds.size());
+        for (String chatId : chatIds) {
+            turns.add(client.sendAsync(HttpRequest.newBuilder(URI.create(endpoint + chatId))
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofMinutes(2))
+                    .POST(HttpRequest.BodyPublishers.ofString(MESSAGE_JSON))
+                    .build(),
+                HttpResponse.BodyHandlers.ofString()));
+        }
+        for (CompletableFuture<HttpResponse<String>> turn : turns) {
+            HttpResponse<String> response = turn.get(5, TimeUnit.MINUTES);
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Turn failed with " + response.statusCode() + ": " + response.body());
+            }
+        }
+        return turns.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(MessagePipelineBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,80 @@
+package com.drcopad.copad.benchmark;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.service.TokenEstimator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token counting throughput on a 100 KB extracted document, the size of a typical multi-page lab
+ * report. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.drcopad.copad.benchmark.TokenEstimatorBenchmark
+ * </pre>
+ * Use {@code -prof gc} through the JMH command line to check allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenEstimatorBenchmark {
+
+    private static final String[] WORDS = {
+        "patient", "reports", "intermittent", "headache", "blood", "pressure", "mmHg", "glucose",
+        "mg/dL", "hemoglobin", "A1c", "6.8%", "the", "and", "of", "with", "no", "history", "of",
+        "cardiovascular", "disease.", "Medication:", "metformin", "500", "mg", "twice", "daily;",
+        "creatinine", "1.1", "eGFR", ">90", "mL/min/1.73m²", "follow-up", "in", "3", "months."
+    };
+
+    @Param({"o3", "gpt-4-turbo"})
+    public String model;
+
+    private TokenEstimator estimator;
+    private String document;
+
+    @Setup
+    public void setUp() {
+        estimator = new TokenEstimator(new OpenAIResponsesConfig(), new SimpleMeterRegistry());
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(100 * 1024);
+        while (text.length() < 100 * 1024) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        document = text.toString();
+    }
+
+    @Benchmark
+    public int count() {
+        return estimator.count(model, document);
+    }
+
+    @Benchmark
+    public String truncateToBudget() {
+        return estimator.truncate(model, document, 8_000);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(TokenEstimatorBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,116 @@
+package com.drcopad.copad.entity;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PooledIdAllocatorTest {
+
+    @Test
+    void reservesANewBlockOnlyWhenTheCurrentOneIsUsedUp() {
+        PooledIdAllocator allocator = new PooledIdAllocator("chat_messages", 3);
+        AtomicInteger reservations = new AtomicInteger();
+        // Table already holds ids up to 100; the other block went to another instance
+        long[] starts = {101, 201};
+        LongUnaryOperator reserve = size -> starts[reservations.getAndIncrement()];
+
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(allocator.nextId(reserve));
+        }
+
+        assertEquals(List.of(101L, 102L, 103L, 201L, 202L), ids);
+        assertEquals(2, reservations.get());
+    }
+
+    @Test
+    void concurrentCallersNeverShareAnId() throws Exception {
+        PooledIdAllocator allocator = new PooledIdAllocator("chat_messages", 50);
+        AtomicLong table = new AtomicLong(1);
+        LongUnaryOperator reserve = size -> table.getAndAdd(size);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Void>> calls = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                calls.add(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        ids.add(allocator.nextId(reserve));
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> result : executor.invokeAll(calls)) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(8000, ids.size());
+    }
+
+    @Test
+    void reservesBlocksWithPortableSql() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:pooled_ids")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE chat_messages (id BIGINT PRIMARY KEY)");
+                statement.execute("INSERT INTO chat_messages (id) VALUES (1), (7)");
+                statement.execute(PooledIdAllocator.CREATE_TABLE);
+            }
+            PooledIdAllocator allocator = new PooledIdAllocator("chat_messages", 50);
+
+            // The first block starts after the rows already there, the next one after the first
+            assertEquals(8, allocator.reserve(connection, 50));
+            assertEquals(58, allocator.reserve(connection, 50));
+        }
+    }
+
+    @Test
+    void blocksReservedOnTheirOwnConnectionsAreCommittedAtOnce() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pooled_ids_own;DB_CLOSE_DELAY=-1");
+        try (Connection caller = dataSource.getConnection()) {
+            try (Statement statement = caller.createStatement()) {
+                statement.execute("CREATE TABLE chat_messages (id BIGINT PRIMARY KEY)");
+                statement.execute(PooledIdAllocator.CREATE_TABLE);
+            }
+            // The caller is mid-transaction, as it is when Hibernate asks for an id
+            caller.setAutoCommit(false);
+            PooledIdAllocator allocator = new PooledIdAllocator("chat_messages", 50);
+
+            assertEquals(1, allocator.reserve(dataSource, 50));
+            caller.rollback();
+
+            try (Statement statement = caller.createStatement();
+                 ResultSet row = statement.executeQuery("SELECT next_id FROM id_allocations")) {
+                assertTrue(row.next());
+                assertEquals(51, row.getLong(1));
+            }
+        }
+    }
+
+    @Test
+    void rejectsTableNamesThatCannotBeSpliced() {
+        assertThrows(IllegalArgumentException.class, () -> new PooledIdAllocator("chat_messages; DROP", 50));
+    }
+}
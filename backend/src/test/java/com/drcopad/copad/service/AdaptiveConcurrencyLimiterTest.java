@@ -0,0 +1,157 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.exception.RateLimitExceededException;
+import com.drcopad.copad.exception.ServiceOverloadedException;
+import com.drcopad.copad.exception.UpstreamHttpException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private OpenAIResponsesConfig.ConcurrencyConfig config;
+    private SimpleMeterRegistry meterRegistry;
+    private AdaptiveConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        OpenAIResponsesConfig responsesConfig = new OpenAIResponsesConfig();
+        config = responsesConfig.getConcurrency();
+        config.setInitialLimit(2);
+        config.setMinLimit(1);
+        config.setMaxQueueSize(1);
+        config.setMaxQueueWait(200);
+        meterRegistry = new SimpleMeterRegistry();
+        limiter = new AdaptiveConcurrencyLimiter(responsesConfig, meterRegistry);
+    }
+
+    @Test
+    void queuesThenShedsCallsOverTheLimit() {
+        config.setMaxLimit(2);
+        Sinks.One<String> first = Sinks.one();
+        Sinks.One<String> second = Sinks.one();
+        limiter.limit("o3", first.asMono()).subscribe();
+        limiter.limit("o3", second.asMono()).subscribe();
+
+        // Third call waits for a slot, fourth finds the queue full
+        Mono<String> queued = limiter.limit("o3", Mono.just("third"));
+        assertThrows(ServiceOverloadedException.class,
+                () -> Mono.zip(queued, limiter.limit("o3", Mono.just("fourth"))).block(Duration.ofSeconds(1)));
+        assertEquals(1.0, meterRegistry.get("llm.limiter.rejected").tag("reason", "queue_full").counter().count());
+
+        // A queued call proceeds once a slot frees up
+        Mono<String> waiting = limiter.limit("o3", Mono.just("third")).cache();
+        waiting.subscribe();
+        first.tryEmitValue("first");
+        assertEquals("third", waiting.block(Duration.ofSeconds(1)));
+
+        // Nobody frees the remaining slot in time
+        Sinks.One<String> blocker = Sinks.one();
+        limiter.limit("o3", blocker.asMono()).subscribe();
+        assertThrows(ServiceOverloadedException.class,
+                () -> limiter.limit("o3", Mono.just("late")).block(Duration.ofSeconds(1)));
+        assertEquals(1.0, meterRegistry.get("llm.limiter.rejected").tag("reason", "timeout").counter().count());
+    }
+
+    @Test
+    void backsOffOnThrottlingAndGrowsOnSuccess() {
+        // Sub-millisecond round trips jitter by multiples; keep the latency signal out of this test
+        config.setLatencyTolerance(1_000);
+        for (int i = 0; i < 5; i++) {
+            limiter.limit("o3", Mono.error(new UpstreamHttpException(429, "rate limited")))
+                    .onErrorResume(e -> Mono.empty())
+                    .block();
+        }
+        assertEquals(1, limiter.currentLimit("o3"));
+
+        // 4xx other than 429 is the caller's fault and leaves the limit alone
+        limiter.limit("o3", Mono.error(new UpstreamHttpException(400, "bad request")))
+                .onErrorResume(e -> Mono.empty())
+                .block();
+        assertEquals(1, limiter.currentLimit("o3"));
+
+        for (int i = 0; i < 5; i++) {
+            limiter.limit("o3", Mono.just("ok")).block();
+        }
+        assertTrue(limiter.currentLimit("o3") > 1);
+        assertEquals(0.0, meterRegistry.get("llm.limiter.inflight").tag("model", "o3").gauge().value());
+    }
+
+    @Test
+    void servesAuthenticatedUsersFirstAndGuestsInTurn() {
+        config.setInitialLimit(1);
+        config.setMaxLimit(1);
+        config.setMaxQueueSize(10);
+        config.setMaxQueueWait(2000);
+        config.setMaxQueuedPerPrincipal(2);
+        RequestPrincipal guestA = RequestPrincipal.guest("a", "10.0.0.1");
+        RequestPrincipal guestB = RequestPrincipal.guest("b", "10.0.0.2");
+        RequestPrincipal user = new RequestPrincipal("user:1", null, RequestPrincipal.Priority.AUTHENTICATED);
+
+        Sinks.One<String> running = Sinks.one();
+        as(guestA, limiter.limit("o3", running.asMono())).subscribe();
+
+        List<String> served = new CopyOnWriteArrayList<>();
+        as(guestA, limiter.limit("o3", Mono.fromCallable(() -> record(served, "a1")))).subscribe();
+        as(guestA, limiter.limit("o3", Mono.fromCallable(() -> record(served, "a2")))).subscribe();
+        as(guestB, limiter.limit("o3", Mono.fromCallable(() -> record(served, "b1")))).subscribe();
+        as(user, limiter.limit("o3", Mono.fromCallable(() -> record(served, "u1")))).subscribe();
+
+        // Guest A already has two requests waiting
+        assertThrows(RateLimitExceededException.class,
+                () -> as(guestA, limiter.limit("o3", Mono.just("a3"))).block(Duration.ofSeconds(1)));
+
+        running.tryEmitValue("done");
+        assertEquals(List.of("u1", "a1", "b1", "a2"), served);
+    }
+
+    @Test
+    void internalCallsAreBoundOnlyByTheModelLimit() {
+        config.setInitialLimit(6);
+        config.setMaxInFlightPerPrincipal(2);
+        config.setMaxQueuedPerPrincipal(1);
+        config.setMaxQueueSize(10);
+        RequestPrincipal user = new RequestPrincipal("user:1", null, RequestPrincipal.Priority.AUTHENTICATED);
+
+        Sinks.One<String> running = Sinks.one();
+        for (int i = 0; i < 6; i++) {
+            as(RequestPrincipal.INTERNAL, limiter.limit("o3", running.asMono())).subscribe();
+        }
+        assertEquals(6.0, meterRegistry.get("llm.limiter.inflight").tag("model", "o3").gauge().value());
+
+        // Past the model limit internal calls queue like anyone else's, without a per-principal 429
+        Mono<String> queued = as(RequestPrincipal.INTERNAL, limiter.limit("o3", Mono.just("queued"))).cache();
+        queued.subscribe();
+        Mono<String> alsoQueued = as(RequestPrincipal.INTERNAL, limiter.limit("o3", Mono.just("also queued"))).cache();
+        alsoQueued.subscribe();
+
+        // A user is still held to their own caps
+        as(user, limiter.limit("o3", Mono.just("u1"))).subscribe();
+        assertThrows(RateLimitExceededException.class,
+                () -> as(user, limiter.limit("o3", Mono.just("u2"))).block(Duration.ofSeconds(1)));
+
+        running.tryEmitValue("done");
+        assertEquals("queued", queued.block(Duration.ofSeconds(1)));
+        assertEquals("also queued", alsoQueued.block(Duration.ofSeconds(1)));
+    }
+
+    private static <T> Mono<T> as(RequestPrincipal principal, Mono<T> call) {
+        return call.contextWrite(context -> context.put(RequestPrincipal.CONTEXT_KEY, principal));
+    }
+
+    private static String record(List<String> served, String name) {
+        served.add(name);
+        return name;
+    }
+}
@@ -0,0 +1,118 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.ChatGPTConfig;
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.dto.ResponsesAPIResponse;
+import com.drcopad.copad.entity.responses.Conversation;
+import com.drcopad.copad.entity.responses.UsageMetric;
+import com.drcopad.copad.repository.responses.ConversationRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ConversationCompactorTest {
+
+    private static final String SUMMARY_JSON = """
+        {"id":"resp_summary","status":"completed","model":"gpt-4o-mini",
+         "output":[{"type":"message","content":[{"type":"output_text","text":"45M, HbA1c 7.2%, on metformin."}]}],
+         "usage":{"input_tokens":30000,"output_tokens":40,"total_tokens":30040}}
+        """;
+
+    private final List<String> requests = new ArrayList<>();
+    private OpenAIResponsesConfig responsesConfig;
+    private ConversationManager conversationManager;
+    private ConversationCompactor compactor;
+
+    @BeforeEach
+    void setUp() {
+        WebClient webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    requests.add(request.url().toString());
+                    return Mono.just(ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .body(SUMMARY_JSON)
+                            .build());
+                })
+                .build();
+
+        responsesConfig = new OpenAIResponsesConfig();
+        responsesConfig.getConcurrency().setEnabled(false);
+
+        Conversation conversation = Conversation.builder()
+                .conversationId("conv_1")
+                .lastOpenaiResponseId("resp_42")
+                .contextSummary("Earlier: patient reports fatigue.")
+                .build();
+        ConversationRepository conversationRepository = mock(ConversationRepository.class);
+        when(conversationRepository.findByConversationId("conv_1")).thenReturn(Optional.of(conversation));
+
+        conversationManager = mock(ConversationManager.class);
+        when(conversationManager.applyCompaction(eq("conv_1"), eq("resp_42"), anyString(), anyString(), anyString()))
+                .thenReturn(true);
+
+        CostCalculationService costCalculationService = mock(CostCalculationService.class);
+        when(costCalculationService.calculateUsageCost(anyString(), any(ResponsesAPIResponse.Usage.class), any()))
+                .thenAnswer(invocation -> UsageMetric.builder().model(invocation.getArgument(0)).build());
+
+        ChatGPTConfig chatGPTConfig = new ChatGPTConfig();
+        chatGPTConfig.getOpenai().setKey("test-key");
+        ChatGPTService chatGPTService = mock(ChatGPTService.class);
+        when(chatGPTService.getChatGPTConfig()).thenReturn(chatGPTConfig);
+
+        compactor = new ConversationCompactor(webClient, responsesConfig, conversationManager, conversationRepository,
+                costCalculationService, chatGPTService,
+                new AdaptiveConcurrencyLimiter(responsesConfig, new SimpleMeterRegistry()),
+                new UpstreamRetry(responsesConfig, new SimpleMeterRegistry()),
+                new TransactionTemplate(mock(PlatformTransactionManager.class)),
+                Schedulers.immediate(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void summarizesTheChainAndStartsAFreshOne() {
+        assertTrue(compactor.compact("conv_1", "resp_42").block(Duration.ofSeconds(5)));
+
+        verify(conversationManager).applyCompaction("conv_1", "resp_42",
+                "45M, HbA1c 7.2%, on metformin.", "resp_summary", "gpt-4o-mini");
+        verify(conversationManager).recordUsage(any(UsageMetric.class));
+    }
+
+    @Test
+    void onlyTriggersPastTheThreshold() {
+        compactor.compactIfNeeded("conv_1", "resp_42", new ResponsesAPIResponse.Usage(1_000, 50, 1_050));
+
+        assertTrue(requests.isEmpty());
+        verify(conversationManager, never()).applyCompaction(anyString(), anyString(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void supersededCompactionIsReported() {
+        when(conversationManager.applyCompaction(eq("conv_1"), eq("resp_42"), anyString(), anyString(), anyString()))
+                .thenReturn(false);
+
+        assertFalse(compactor.compact("conv_1", "resp_42").block(Duration.ofSeconds(5)));
+    }
+}
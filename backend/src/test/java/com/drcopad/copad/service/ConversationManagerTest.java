@@ -0,0 +1,136 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.entity.responses.Conversation;
+import com.drcopad.copad.entity.responses.OpenAIResponse;
+import com.drcopad.copad.repository.ChatRepository;
+import com.drcopad.copad.repository.responses.ConversationCompactionRepository;
+import com.drcopad.copad.repository.responses.ConversationRepository;
+import com.drcopad.copad.repository.responses.OpenAIResponseRepository;
+import com.drcopad.copad.repository.responses.UsageMetricRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+class ConversationManagerTest {
+
+    private ConversationRepository conversationRepository;
+    private ConversationManager manager;
+
+    @BeforeEach
+    void setUp() {
+        // The conversation cache is on by default
+        OpenAIResponsesConfig responsesConfig = new OpenAIResponsesConfig();
+        conversationRepository = mock(ConversationRepository.class);
+        when(conversationRepository.findByChatIdAndStatus("chat_1", "active"))
+            .thenReturn(Optional.of(conversation(4L, "resp_1")));
+        TelemetryJournal journal = mock(TelemetryJournal.class);
+        when(journal.isEnabled()).thenReturn(true);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        manager = new ConversationManager(conversationRepository, mock(OpenAIResponseRepository.class),
+            mock(UsageMetricRepository.class), mock(ChatRepository.class), responsesConfig,
+            mock(SpendLedger.class), mock(ConversationCompactionRepository.class), journal,
+            new ConversationStateCache(responsesConfig, meterRegistry), meterRegistry);
+    }
+
+    @Test
+    void turnsAfterTheFirstMakeNoReads() {
+        manager.getOrCreateConversation("chat_1", null, null, "cardiology", "en");
+        when(conversationRepository.advanceChain(eq("conv_1"), eq("resp_2"), eq(900), any(), eq(4L))).thenReturn(1);
+        when(conversationRepository.advanceChain(eq("conv_1"), eq("resp_3"), eq(900), any(), eq(5L))).thenReturn(1);
+        manager.recordResponse(response("resp_2"));
+
+        // A whole turn: find the conversation, chain onto its last response, move the chain
+        Conversation next = manager.getOrCreateConversation("chat_1", null, null, "cardiology", "en");
+        assertEquals("resp_2", manager.getLastResponseId("conv_1").orElseThrow());
+        manager.recordResponse(response("resp_3"));
+
+        assertEquals(5L, next.getVersion());
+        verify(conversationRepository).findByChatIdAndStatus("chat_1", "active");
+        verify(conversationRepository, times(2)).advanceChain(eq("conv_1"), anyString(), eq(900), any(), anyLong());
+        verifyNoMoreInteractions(conversationRepository);
+    }
+
+    @Test
+    void aCopyAnotherNodeMovedPastIsDroppedAtItsNextWrite() {
+        manager.getOrCreateConversation("chat_1", null, null, "cardiology", "en");
+        // Another node answered a turn, taking the row to version 5 and the chain to resp_x
+        when(conversationRepository.advanceChain(eq("conv_1"), eq("resp_2"), eq(900), any(), eq(4L))).thenReturn(0);
+        when(conversationRepository.findByChatIdAndStatus("chat_1", "active"))
+            .thenReturn(Optional.of(conversation(5L, "resp_x")));
+
+        manager.getOrCreateConversation("chat_1", null, null, "cardiology", "en");
+        manager.recordResponse(response("resp_2"));
+        Conversation next = manager.getOrCreateConversation("chat_1", null, null, "cardiology", "en");
+
+        assertEquals("resp_x", next.getLastOpenaiResponseId());
+        assertEquals(5L, next.getVersion());
+        verify(conversationRepository, times(2)).findByChatIdAndStatus("chat_1", "active");
+    }
+
+    @Test
+    void aConflictingWriteKeepsTheNewerChain() {
+        manager.getOrCreateConversation("chat_1", null, null, "cardiology", "en");
+        // Another node took the conversation to version 5 while this turn was in flight
+        when(conversationRepository.advanceChain(eq("conv_1"), eq("resp_2"), eq(900), any(), eq(4L))).thenReturn(0);
+        when(conversationRepository.findByConversationId("conv_1")).thenReturn(Optional.of(conversation(5L, "resp_x")));
+
+        manager.recordResponse(response("resp_2"));
+
+        verify(conversationRepository, never()).advanceChain(anyString(), anyString(), anyInt(), any(),
+            eq(ConversationRepository.ANY_VERSION));
+        assertEquals("resp_x", manager.getLastResponseId("conv_1").orElseThrow());
+        verify(conversationRepository).findByConversationId("conv_1");
+    }
+
+    @Test
+    void expiringAConversationEvictsIt() {
+        manager.getOrCreateConversation("chat_1", null, null, "cardiology", "en");
+        when(conversationRepository.findByConversationId("conv_1")).thenReturn(Optional.of(conversation(4L, "resp_1")));
+
+        manager.expireConversation("conv_1");
+        manager.getOrCreateConversation("chat_1", null, null, "cardiology", "en");
+
+        verify(conversationRepository, times(2)).findByChatIdAndStatus("chat_1", "active");
+        verify(conversationRepository, times(0)).advanceChain(anyString(), anyString(), anyInt(), any(), anyLong());
+    }
+
+    private static Conversation conversation(long version, String lastResponseId) {
+        return Conversation.builder()
+            .id(1L)
+            .conversationId("conv_1")
+            .chatId("chat_1")
+            .specialtyCode("cardiology")
+            .language("en")
+            .lastOpenaiResponseId(lastResponseId)
+            .expiresAt(LocalDateTime.now().plusDays(30))
+            .version(version)
+            .build();
+    }
+
+    private static OpenAIResponse response(String responseId) {
+        return OpenAIResponse.builder()
+            .responseId(responseId)
+            .conversationId("conv_1")
+            .model("o3")
+            .promptTokens(900)
+            .completionTokens(100)
+            .build();
+    }
+}
@@ -0,0 +1,74 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.exception.RateLimitExceededException;
+import com.drcopad.copad.exception.ServiceOverloadedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConversationSequencerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private ConversationSequencer sequencer;
+
+    @BeforeEach
+    void setUp() {
+        OpenAIResponsesConfig responsesConfig = new OpenAIResponsesConfig();
+        responsesConfig.getTurnOrdering().setMaxQueued(1);
+        responsesConfig.getTurnOrdering().setMaxWait(200);
+        meterRegistry = new SimpleMeterRegistry();
+        sequencer = new ConversationSequencer(responsesConfig, meterRegistry);
+    }
+
+    @Test
+    void aSecondTurnWaitsForTheFirstWhileOtherChatsProceed() {
+        ConversationSequencer.Permit first = sequencer.await("chat_1");
+        AtomicReference<ConversationSequencer.Permit> second = new AtomicReference<>();
+        Disposable waiting = sequencer.acquire("chat_1").subscribe(second::set);
+
+        sequencer.await("chat_2").release();
+        assertNull(second.get());
+
+        first.release();
+        assertNotNull(second.get());
+        second.get().release();
+        waiting.dispose();
+        assertEquals(1.0, meterRegistry.counter("conversation.turns.ordered", "outcome", "queued").count());
+        assertEquals(1L, meterRegistry.timer("conversation.turns.queue.wait").count());
+    }
+
+    @Test
+    void turnsBeyondTheQueueAreRejected() {
+        ConversationSequencer.Permit first = sequencer.await("chat_1");
+        Disposable queued = sequencer.acquire("chat_1").subscribe();
+
+        assertThrows(RateLimitExceededException.class, () -> sequencer.await("chat_1"));
+
+        queued.dispose();
+        first.release();
+    }
+
+    @Test
+    void aTurnThatGaveUpIsSkipped() {
+        ConversationSequencer.Permit first = sequencer.await("chat_1");
+        assertThrows(ServiceOverloadedException.class, () -> sequencer.await("chat_1"));
+
+        first.release();
+
+        // The lane is free again rather than held for the turn that timed out
+        ConversationSequencer.Permit next = sequencer.acquire("chat_1").block(Duration.ofMillis(50));
+        assertNotNull(next);
+        next.release();
+        assertEquals(1.0, meterRegistry.counter("conversation.turns.ordered", "outcome", "timed_out").count());
+    }
+}
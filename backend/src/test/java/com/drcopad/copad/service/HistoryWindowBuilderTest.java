@@ -0,0 +1,100 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.ChatGPTConfig;
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.dto.Message;
+import com.drcopad.copad.entity.Chat;
+import com.drcopad.copad.entity.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryWindowBuilderTest {
+
+    private final Chat chat = new Chat();
+    private TokenEstimator tokenEstimator;
+    private HistoryWindowBuilder builder;
+
+    @BeforeEach
+    void setUp() {
+        chat.setChatId("chat-1");
+        ChatGPTConfig chatGPTConfig = new ChatGPTConfig();
+        chatGPTConfig.getOpenai().setModel("o3");
+        chatGPTConfig.getHistory().setMaxTokens(600);
+        chatGPTConfig.getHistory().setSummaryMaxTokens(200);
+        tokenEstimator = new TokenEstimator(new OpenAIResponsesConfig(), new SimpleMeterRegistry());
+        builder = new HistoryWindowBuilder(chatGPTConfig, tokenEstimator, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void keepsNewestMessagesWithinBudgetAndSummarizesTheRest() {
+        List<ChatMessage> history = new ArrayList<>();
+        for (long id = 1; id <= 40; id++) {
+            history.add(message(id, id % 2 == 1 ? "USER" : "AI",
+                "Message " + id + ": the patient's blood pressure readings this week were around 140/90 in the morning."));
+        }
+
+        List<Message> messages = builder.build(history);
+
+        assertEquals("system", messages.get(0).getRole());
+        assertTrue(messages.get(0).getContent().startsWith("Summary of earlier messages"));
+        assertTrue(messages.get(messages.size() - 1).getContent().startsWith("Message 40:"));
+        int windowTokens = messages.stream().skip(1)
+            .mapToInt(m -> tokenEstimator.count("o3", m.getContent()) + 4).sum();
+        assertTrue(windowTokens <= 400, "window used " + windowTokens + " tokens");
+        assertTrue(tokenEstimator.count("o3", messages.get(0).getContent()) <= 220);
+    }
+
+    @Test
+    void reusesRenderedMessagesAcrossTurns() {
+        List<ChatMessage> history = new ArrayList<>(List.of(
+            message(1L, "USER", "I have had a cough for two weeks."),
+            message(2L, "AI", "Is it dry or productive?")));
+        Message first = builder.build(history).get(1);
+
+        history.add(message(3L, "USER", "Dry, mostly at night."));
+        List<Message> next = builder.build(history);
+
+        assertEquals(3, next.size());
+        assertSame(first, next.get(1));
+    }
+
+    @Test
+    void newerMessagesWithSmallerIdsAreNotTakenForSummarized() {
+        // Ids come from per-instance blocks: this chat's messages alternate between two of them
+        LocalDateTime start = LocalDateTime.of(2025, 1, 1, 9, 0);
+        List<ChatMessage> history = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            ChatMessage message = message(i % 2 == 0 ? 1000L + i : 100L + i, i % 2 == 0 ? "USER" : "AI",
+                "Message " + i + ": the patient's blood pressure readings this week were around 140/90 in the morning.");
+            message.setTimestamp(start.plusMinutes(i));
+            history.add(message);
+        }
+        builder.build(history);
+
+        ChatMessage latest = message(150L, "USER", "Message 40: should I change my dose?");
+        latest.setTimestamp(start.plusMinutes(40));
+        history.add(latest);
+        List<Message> messages = builder.build(history);
+
+        assertEquals("Message 40: should I change my dose?", messages.get(messages.size() - 1).getContent());
+        assertTrue(messages.get(messages.size() - 2).getContent().startsWith("Message 39:"));
+    }
+
+    private ChatMessage message(Long id, String sender, String text) {
+        ChatMessage message = new ChatMessage();
+        message.setId(id);
+        message.setChat(chat);
+        message.setSender(sender);
+        message.setMessage(text);
+        return message;
+    }
+}
@@ -0,0 +1,80 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.ChatGPTConfig;
+import com.drcopad.copad.exception.IdempotencyKeyConflictException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdempotencyStoreTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private IdempotencyStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new IdempotencyStore(new ChatGPTConfig(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void resendWhileInFlightJoinsTheOriginalCall() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<IdempotencyStore.Outcome<String>> original = CompletableFuture.supplyAsync(() ->
+                store.execute("chat:1", "key-1", "fp", () -> {
+                    calls.incrementAndGet();
+                    started.countDown();
+                    await(release);
+                    return "Drink water.";
+                }, reply -> true));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<IdempotencyStore.Outcome<String>> resend = CompletableFuture.supplyAsync(() ->
+                store.execute("chat:1", "key-1", "fp", () -> "second call " + calls.incrementAndGet(), reply -> true));
+        release.countDown();
+
+        assertFalse(original.get(5, TimeUnit.SECONDS).replayed());
+        IdempotencyStore.Outcome<String> joined = resend.get(5, TimeUnit.SECONDS);
+        assertTrue(joined.replayed());
+        assertEquals("Drink water.", joined.value());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void failedResponseIsNotReplayed() {
+        store.execute("chat:1", "key-1", "fp", () -> "error " + calls.incrementAndGet(), reply -> false);
+        IdempotencyStore.Outcome<String> retry =
+                store.execute("chat:1", "key-1", "fp", () -> "ok " + calls.incrementAndGet(), reply -> true);
+
+        assertEquals("ok 2", retry.value());
+        assertFalse(retry.replayed());
+    }
+
+    @Test
+    void keyReusedForDifferentMessageIsRejected() {
+        store.execute("chat:1", "key-1", IdempotencyStore.fingerprint("I have a headache"), () -> "a", reply -> true);
+
+        assertThrows(IdempotencyKeyConflictException.class, () -> store.execute("chat:1", "key-1",
+                IdempotencyStore.fingerprint("I have a cough"), () -> "b", reply -> true));
+        // Same key from another chat is a different request
+        assertEquals("c", store.execute("chat:2", "key-1", "fp", () -> "c", reply -> true).value());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.dto.ResponsesAPIResponse;
+import com.drcopad.copad.entity.User;
+import com.drcopad.copad.entity.responses.LlmJob;
+import com.drcopad.copad.repository.responses.ConversationRepository;
+import com.drcopad.copad.repository.responses.LlmJobRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Mono;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LlmJobServiceTest {
+
+    private LlmJobRepository llmJobRepository;
+    private ConversationRepository conversationRepository;
+    private OpenAIResponsesService responsesService;
+    private LlmJobService service;
+    private LlmJob job;
+
+    @BeforeEach
+    void setUp() {
+        OpenAIResponsesConfig responsesConfig = new OpenAIResponsesConfig();
+        responsesConfig.setEnabled(true);
+        responsesConfig.getBackground().setRequestTimeout(50);
+        llmJobRepository = mock(LlmJobRepository.class);
+        conversationRepository = mock(ConversationRepository.class);
+        responsesService = mock(OpenAIResponsesService.class);
+        service = new LlmJobService(llmJobRepository, conversationRepository, responsesService, responsesConfig,
+            new ObjectMapper(), mock(TransactionTemplate.class));
+
+        job = LlmJob.builder()
+            .jobId("job_1")
+            .chatId("chat_1")
+            .conversationId("conv_1")
+            .requestPayload("{\"model\":\"o3\"}")
+            .nextPollAt(LocalDateTime.now())
+            .build();
+        when(llmJobRepository.findDueJobs(any(), any())).thenReturn(List.of(job));
+        when(llmJobRepository.findByJobId("job_1")).thenReturn(Optional.of(job));
+        when(llmJobRepository.saveAndFlush(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void aSubmitThatMayHaveReachedOpenAIIsNotSentAgain() {
+        // OpenAI took the request but the answer to the submit never came back in time
+        when(responsesService.submitBackgroundRequest(any())).thenReturn(Mono.never());
+
+        service.pollDueJobs();
+        service.pollDueJobs();
+
+        assertEquals(LlmJob.FAILED, job.getStatus());
+        verify(responsesService, times(1)).submitBackgroundRequest(any());
+    }
+
+    @Test
+    void aSubmitThatNeverConnectedIsQueuedAgain() {
+        when(responsesService.submitBackgroundRequest(any())).thenReturn(Mono.error(new WebClientRequestException(
+            new ConnectException("Connection refused"), HttpMethod.POST, URI.create("https://api.openai.com"),
+            HttpHeaders.EMPTY)));
+
+        service.pollDueJobs();
+
+        assertEquals(LlmJob.QUEUED, job.getStatus());
+        assertEquals(1, job.getPollAttempts());
+    }
+
+    @Test
+    void aJobCancelledMidSubmitIsCancelledAtOpenAI() {
+        ResponsesAPIResponse accepted = new ResponsesAPIResponse();
+        accepted.setId("resp_1");
+        accepted.setStatus("queued");
+        when(responsesService.submitBackgroundRequest(any())).thenReturn(Mono.just(accepted));
+        when(responsesService.cancelBackgroundResponse("resp_1")).thenReturn(Mono.just(accepted));
+        // The client's DELETE landed while the submit was in flight
+        LlmJob cancelled = LlmJob.builder()
+            .jobId("job_1")
+            .conversationId("conv_1")
+            .requestPayload("{\"model\":\"o3\"}")
+            .status(LlmJob.CANCELLED)
+            .build();
+        when(llmJobRepository.save(any()))
+            .thenThrow(new ObjectOptimisticLockingFailureException(LlmJob.class, "job_1"))
+            .thenAnswer(invocation -> invocation.getArgument(0));
+        when(llmJobRepository.findByJobId("job_1")).thenReturn(Optional.of(cancelled));
+
+        service.pollDueJobs();
+
+        assertEquals("resp_1", cancelled.getOpenaiResponseId());
+        verify(responsesService).cancelBackgroundResponse("resp_1");
+        verify(responsesService).recordCancelledTurn(eq("conv_1"), eq("o3"), eq("resp_1"), any(), any());
+    }
+
+    @Test
+    void jobsAreOnlyVisibleToTheirOwner() {
+        User owner = new User();
+        owner.setId(7L);
+        User other = new User();
+        other.setId(8L);
+        when(conversationRepository.isOwnedBy("conv_1", 7L, null)).thenReturn(true);
+        when(conversationRepository.isOwnedBy("conv_1", null, "guest_1")).thenReturn(false);
+
+        assertTrue(service.findJob("job_1", owner, null).isPresent());
+        assertTrue(service.findJob("job_1", other, null).isEmpty());
+        assertTrue(service.findJob("job_1", null, "guest_1").isEmpty());
+        assertTrue(service.cancel("job_1", other, null).isEmpty());
+        assertEquals(LlmJob.QUEUED, job.getStatus());
+    }
+}
@@ -0,0 +1,73 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ModelRouterTest {
+
+    private OpenAIResponsesConfig responsesConfig;
+    private ObjectProvider<TurnClassifier> classifiers;
+    private ModelRouter router;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        responsesConfig = new OpenAIResponsesConfig();
+        responsesConfig.getRouting().setEnabled(true);
+        classifiers = mock(ObjectProvider.class);
+        when(classifiers.orderedStream()).thenAnswer(invocation -> Stream.empty());
+        router = new ModelRouter(responsesConfig,
+            new TokenEstimator(responsesConfig, new SimpleMeterRegistry()), classifiers, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void routesCheapTurnsDownAndKeepsHardOnesOnTheDefaultModel() {
+        ModelRouter.Route thanks = router.route("o3", "Thanks!! 🙏", "general", 0, 0, true);
+        assertEquals("gpt-4o-mini", thanks.model());
+        assertNull(thanks.reasoningEffort());
+
+        ModelRouter.Route followUp = router.route("o3", "Can I take it with food?", "general", 0, 0, true);
+        assertEquals("o3", followUp.model());
+        assertEquals("low", followUp.reasoningEffort());
+
+        assertEquals(ModelRouter.Tier.COMPLEX, router.route("o3", "Chest pain", "general", 0, 0, false).tier());
+        assertEquals(ModelRouter.Tier.COMPLEX, router.route("o3", "Hello!", "general", 0, 0, false).tier());
+        assertEquals(ModelRouter.Tier.COMPLEX, router.route("o3", "ok", "general", 1, 0, true).tier());
+        assertEquals(ModelRouter.Tier.COMPLEX,
+            router.route("o3", "ok but the pain is worse", "general", 0, 0, false).tier());
+    }
+
+    @Test
+    void specialtyAllowListEscalatesToAnAllowedTier() {
+        responsesConfig.getRouting().getAllowedModels().put("cardiology", List.of("o3"));
+
+        ModelRouter.Route route = router.route("o3", "thank you", "cardiology", 0, 0, true);
+
+        assertEquals("o3", route.model());
+        assertEquals(ModelRouter.Tier.STANDARD, route.tier());
+        assertEquals("acknowledgement+allow_list", route.reason());
+    }
+
+    @Test
+    void pluggableClassifierTakesPrecedence() {
+        when(classifiers.orderedStream()).thenAnswer(invocation -> Stream.of(
+            (TurnClassifier) signals -> null,
+            (TurnClassifier) signals -> ModelRouter.Tier.COMPLEX));
+
+        ModelRouter.Route route = router.route("o3", "thanks", "general", 0, 0, true);
+
+        assertEquals(ModelRouter.Tier.COMPLEX, route.tier());
+        assertEquals("classifier", route.reason());
+    }
+}
@@ -0,0 +1,436 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.ChatGPTConfig;
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.controller.ResponsesMessageController;
+import com.drcopad.copad.dto.MessageRequest;
+import com.drcopad.copad.dto.ResponsesAPIResponse;
+import com.drcopad.copad.entity.Chat;
+import com.drcopad.copad.entity.ChatMessage;
+import com.drcopad.copad.entity.MedicalSpecialty;
+import com.drcopad.copad.entity.responses.Conversation;
+import com.drcopad.copad.entity.responses.UsageMetric;
+import com.drcopad.copad.repository.ChatRepository;
+import com.drcopad.copad.repository.FileAttachmentRepository;
+import com.drcopad.copad.repository.GuestSessionRepository;
+import com.drcopad.copad.repository.MedicalSpecialtyRepository;
+import com.drcopad.copad.repository.MessageRepository;
+import com.drcopad.copad.repository.responses.BatchFileUploadRepository;
+import com.drcopad.copad.repository.responses.ConversationFileRepository;
+import com.drcopad.copad.repository.responses.ConversationRepository;
+import com.drcopad.copad.repository.responses.UsageMetricRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifies that a Responses API turn does not hold a JDBC connection while the model call is
+ * outstanding: many concurrent turns must complete against a pool that is far smaller than
+ * the number of in-flight calls.
+ */
+class OpenAIResponsesServiceConcurrencyTest {
+
+    private static final int POOL_SIZE = 2;
+    private static final int CONCURRENT_TURNS = 40;
+
+    private static final String RESPONSE_JSON = """
+        {"id":"resp_1","status":"completed","model":"o3",
+         "output":[{"type":"message","content":[{"type":"output_text","text":"Drink water."}]}],
+         "usage":{"prompt_tokens":10,"completion_tokens":5,"total_tokens":15}}
+        """;
+
+    private static final String STREAM_BODY = """
+        data: {"type":"response.output_text.delta","delta":"Drink "}
+
+        data: {"type":"response.output_text.delta","delta":"plenty of water."}
+
+        data: {"type":"response.completed","response":{"id":"resp_1","status":"completed","model":"o3","output":[]}}
+
+        """;
+
+    private final AtomicInteger upstreamInFlight = new AtomicInteger();
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private volatile HttpStatus upstreamFailure;
+    private final CompletableFuture<Void> releaseUpstream = new CompletableFuture<>();
+    private BoundedPoolDataSource pool;
+    private ExecutorService callers;
+    private OpenAIResponsesConfig responsesConfig;
+    private ConversationManager conversationManager;
+    private CostCalculationService costCalculationService;
+    private ChatRepository chatRepository;
+    private MessageRepository messageRepository;
+    private ChatGPTConfig chatGPTConfig;
+    private PromptTemplateRegistry promptTemplateRegistry;
+    private TokenEstimator tokenEstimator;
+    private WebClient webClient;
+    private OpenAIResponsesService service;
+
+    @BeforeEach
+    void setUp() {
+        pool = new BoundedPoolDataSource(POOL_SIZE);
+        callers = Executors.newFixedThreadPool(CONCURRENT_TURNS);
+
+        webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    upstreamCalls.incrementAndGet();
+                    if (upstreamFailure != null) {
+                        return Mono.just(ClientResponse.create(upstreamFailure)
+                                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                                .body("{\"error\":{\"message\":\"upstream failure\"}}")
+                                .build());
+                    }
+                    upstreamInFlight.incrementAndGet();
+                    if (request.headers().getAccept().contains(MediaType.TEXT_EVENT_STREAM)) {
+                        return Mono.fromFuture(releaseUpstream.thenApply(ignored -> ClientResponse.create(HttpStatus.OK)
+                                .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+                                .body(STREAM_BODY)
+                                .build()));
+                    }
+                    return Mono.fromFuture(releaseUpstream.thenApply(ignored -> ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .body(RESPONSE_JSON)
+                            .build()));
+                })
+                .build();
+
+        responsesConfig = new OpenAIResponsesConfig();
+        responsesConfig.setEnabled(true);
+        // This test is about connection usage, not upstream admission control
+        responsesConfig.getConcurrency().setEnabled(false);
+
+        conversationManager = mock(ConversationManager.class);
+        when(conversationManager.getOrCreateConversation(anyString(), any(), any(), anyString(), anyString()))
+                .thenAnswer(invocation -> Conversation.builder()
+                        .conversationId("conv_" + invocation.getArgument(0))
+                        .chatId(invocation.getArgument(0))
+                        .model("o3")
+                        .specialtyCode("general")
+                        .language("en")
+                        .expiresAt(LocalDateTime.now().plusDays(1))
+                        .build());
+        when(conversationManager.getLastResponseId(anyString())).thenReturn(Optional.empty());
+
+        costCalculationService = mock(CostCalculationService.class);
+        when(costCalculationService.calculateUsageCost(anyString(), anyInt(), anyInt(), any()))
+                .thenAnswer(invocation -> UsageMetric.builder().model(invocation.getArgument(0)).build());
+        when(costCalculationService.calculateUsageCost(anyString(), any(ResponsesAPIResponse.Usage.class), any()))
+                .thenAnswer(invocation -> UsageMetric.builder().model(invocation.getArgument(0)).build());
+        when(costCalculationService.shouldAlertCostThreshold(any(BigDecimal.class))).thenReturn(false);
+
+        MedicalSpecialty specialty = new MedicalSpecialty("general", "General", null, true, "General", "You are a GP.");
+        MedicalSpecialtyRepository specialtyRepository = mock(MedicalSpecialtyRepository.class);
+        when(specialtyRepository.findByCode("general")).thenReturn(Optional.of(specialty));
+
+        chatRepository = mock(ChatRepository.class);
+        when(chatRepository.findByChatId(anyString())).thenAnswer(invocation -> {
+            Chat chat = new Chat();
+            chat.setChatId(invocation.getArgument(0));
+            return Optional.of(chat);
+        });
+
+        messageRepository = mock(MessageRepository.class);
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        chatGPTConfig = new ChatGPTConfig();
+        chatGPTConfig.getOpenai().setKey("test-key");
+        chatGPTConfig.getOpenai().setModel("gpt-4o-mini");
+        chatGPTConfig.getOpenai().setUrl("https://api.openai.com/v1/chat/completions");
+        ChatGPTService chatGPTService = mock(ChatGPTService.class);
+        when(chatGPTService.getChatGPTConfig()).thenReturn(chatGPTConfig);
+
+        tokenEstimator = new TokenEstimator(responsesConfig, new SimpleMeterRegistry());
+        @SuppressWarnings("unchecked")
+        ObjectProvider<TurnClassifier> classifiers = mock(ObjectProvider.class);
+        promptTemplateRegistry = new PromptTemplateRegistry(specialtyRepository, new LanguageMappingService(),
+                mock(ReferenceDataCache.class));
+        service = new OpenAIResponsesService(
+                webClient,
+                responsesConfig,
+                conversationManager,
+                costCalculationService,
+                promptTemplateRegistry,
+                chatRepository,
+                messageRepository,
+                mock(ConversationRepository.class),
+                mock(ConversationFileRepository.class),
+                mock(FileAttachmentRepository.class),
+                mock(FileUploadService.class),
+                new ObjectMapper(),
+                chatGPTService,
+                mock(DocumentExtractionService.class),
+                new TransactionTemplate(new DataSourceTransactionManager(pool)),
+                Schedulers.boundedElastic(),
+                new ResponseCacheService(responsesConfig, new SimpleMeterRegistry()),
+                new SemanticResponseCache(responsesConfig, new HashingEmbeddingProvider(64), new SimpleMeterRegistry()),
+                new AdaptiveConcurrencyLimiter(responsesConfig, new SimpleMeterRegistry()),
+                new SpendLedger(responsesConfig, mock(UsageMetricRepository.class), mock(TelemetryJournal.class),
+                    new SimpleMeterRegistry()),
+                tokenEstimator,
+                new ModelRouter(responsesConfig, tokenEstimator, classifiers, new SimpleMeterRegistry()),
+                mock(ConversationCompactor.class),
+                new UpstreamRetry(responsesConfig, new SimpleMeterRegistry()),
+                new ConversationSequencer(responsesConfig, new SimpleMeterRegistry()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseUpstream.complete(null);
+        callers.shutdownNow();
+    }
+
+    @Test
+    void connectionsAreReleasedWhileModelCallsAreOutstanding() throws Exception {
+        List<Future<String>> turns = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_TURNS; i++) {
+            String chatId = "chat-" + i;
+            turns.add(callers.submit(() -> service.getResponsesAPIResponse(
+                    "I have a headache", List.of(), "general", "en", List.of(), chatId, null, null)));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (upstreamInFlight.get() < CONCURRENT_TURNS && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(CONCURRENT_TURNS, upstreamInFlight.get(),
+                "every turn should reach the model call even though the pool only has " + POOL_SIZE + " connections");
+        assertEquals(0, pool.inUse(), "no connection may be held while the model calls are in flight");
+
+        releaseUpstream.complete(null);
+        for (Future<String> turn : turns) {
+            assertEquals("Drink water.", turn.get(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(0, pool.inUse());
+        assertTrue(pool.peakInUse() <= POOL_SIZE);
+    }
+
+    @Test
+    void aCachedAnswerIsNotChainedOntoAnotherConversation() {
+        responsesConfig.getResponseCache().setEnabled(true);
+        releaseUpstream.complete(null);
+        service.getResponsesAPIResponse("I have a headache", List.of(), "general", "en", List.of(), "chat-a", null, null);
+
+        String answer = service.getResponsesAPIResponse(
+                "I have a headache", List.of(), "general", "en", List.of(), "chat-b", null, null);
+
+        assertEquals("Drink water.", answer);
+        assertEquals(1, upstreamInFlight.get(), "the second turn should be served from the cache");
+        verify(conversationManager).seedContextSummary(eq("conv_chat-b"), contains("I have a headache"));
+        verify(conversationManager, never()).updateConversationResponse(eq("conv_chat-b"), anyString());
+    }
+
+    @Test
+    void aTurnCutOffByTheDeadlineIsStillCharged() {
+        responsesConfig.setRequestDeadline(100);
+
+        assertThrows(RuntimeException.class, () -> service.getResponsesAPIResponse(
+                "I have a headache", List.of(), "general", "en", List.of(), "chat-a", null, null));
+
+        // OpenAI reports no usage for the aborted call, but it has processed the input
+        verify(costCalculationService, timeout(2000)).calculateUsageCost(eq("o3"),
+                argThat((ResponsesAPIResponse.Usage usage) -> usage.inputTokens() > 0 && usage.outputTokens() == 0),
+                any());
+    }
+
+    @Test
+    void aStreamAbandonedWhenADeltaCannotBeSentIsStillCharged() {
+        releaseUpstream.complete(null);
+        AtomicInteger deltas = new AtomicInteger();
+
+        // The SSE controller throws like this when the client has gone away
+        assertThrows(UncheckedIOException.class, () -> service.streamResponsesAPIResponse(
+                "I have a headache", "general", "en", List.of(), "chat-a", null, null, delta -> {
+                    if (deltas.incrementAndGet() == 2) {
+                        throw new UncheckedIOException("Client disconnected from message stream", new IOException("Broken pipe"));
+                    }
+                }).block(Duration.ofSeconds(5)));
+
+        verify(costCalculationService, timeout(2000)).calculateUsageCost(eq("o3"),
+                argThat((ResponsesAPIResponse.Usage usage) -> usage.inputTokens() > 0 && usage.outputTokens() > 0),
+                any());
+        verify(conversationManager, never()).updateConversationResponse(anyString(), anyString());
+    }
+
+    @Test
+    void anOutageCostsAtMostMaxAttemptsCallsPlusTheFallbackPerMessage() {
+        responsesConfig.getRetry().setInitialInterval(1);
+        upstreamFailure = HttpStatus.SERVICE_UNAVAILABLE;
+
+        ResponseEntity<?> response = messageController().sendMessage("chat-a", headache(), null, null, null, null);
+
+        // The Chat Completions fallback answers with its apology text
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(responsesConfig.getRetry().getMaxAttempts() + 1, upstreamCalls.get());
+    }
+
+    @Test
+    void aServerErrorIsNotRetriedBeforeFallingBack() {
+        responsesConfig.getRetry().setInitialInterval(1);
+        upstreamFailure = HttpStatus.INTERNAL_SERVER_ERROR;
+
+        messageController().sendMessage("chat-a", headache(), null, null, null, null);
+
+        // OpenAI may have created the response; one Responses call and one Chat Completions call
+        assertEquals(2, upstreamCalls.get());
+    }
+
+    @Test
+    void anonymousCallersWithoutAGuestSessionDoNotShareIdempotencyKeys() {
+        releaseUpstream.complete(null);
+        ResponsesMessageController controller =
+                messageController(new IdempotencyStore(new ChatGPTConfig(), new SimpleMeterRegistry()));
+
+        ResponseEntity<?> first = sendAnonymously(controller, "203.0.113.1");
+        ResponseEntity<?> otherCaller = sendAnonymously(controller, "203.0.113.2");
+        ResponseEntity<?> retry = sendAnonymously(controller, "203.0.113.1");
+
+        assertNull(first.getHeaders().getFirst("Idempotent-Replayed"));
+        assertNull(otherCaller.getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals("true", retry.getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals(2, upstreamCalls.get());
+    }
+
+    private ResponseEntity<?> sendAnonymously(ResponsesMessageController controller, String remoteAddr) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(remoteAddr);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        try {
+            return controller.sendMessage("chat-a", headache(), null, null, null, "same-key");
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+
+    private ResponsesMessageController messageController() {
+        return messageController(mock(IdempotencyStore.class));
+    }
+
+    private ResponsesMessageController messageController(IdempotencyStore idempotencyStore) {
+        ChatGPTService chatGPTService = new ChatGPTService(
+                webClient,
+                chatGPTConfig,
+                new ObjectMapper(),
+                promptTemplateRegistry,
+                mock(DocumentExtractionService.class),
+                new ResponseCacheService(responsesConfig, new SimpleMeterRegistry()),
+                new AdaptiveConcurrencyLimiter(responsesConfig, new SimpleMeterRegistry()),
+                new HistoryWindowBuilder(chatGPTConfig, tokenEstimator, new SimpleMeterRegistry()));
+        return new ResponsesMessageController(
+                chatRepository,
+                messageRepository,
+                mock(FileAttachmentRepository.class),
+                mock(GuestSessionRepository.class),
+                service,
+                chatGPTService,
+                conversationManager,
+                mock(FileUploadService.class),
+                costCalculationService,
+                mock(BatchFileUploadRepository.class),
+                responsesConfig,
+                mock(LlmJobService.class),
+                idempotencyStore);
+    }
+
+    private static MessageRequest headache() {
+        return MessageRequest.builder().message("I have a headache").specialty("general").language("en").build();
+    }
+
+    /**
+     * Stand-in for Hikari: hands out at most {@code size} mock connections and blocks (then fails)
+     * when the pool is exhausted, the way a real pool would under connection pinning.
+     */
+    private static class BoundedPoolDataSource extends DelegatingDataSource {
+
+        private final Semaphore permits;
+        private final AtomicInteger inUse = new AtomicInteger();
+        private final AtomicInteger peakInUse = new AtomicInteger();
+
+        BoundedPoolDataSource(int size) {
+            super(mock(DataSource.class));
+            this.permits = new Semaphore(size);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            try {
+                if (!permits.tryAcquire(2, TimeUnit.SECONDS)) {
+                    throw new SQLException("Connection is not available, request timed out");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection", e);
+            }
+            peakInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+
+            Connection connection = mock(Connection.class);
+            doAnswer(invocation -> {
+                inUse.decrementAndGet();
+                permits.release();
+                return null;
+            }).when(connection).close();
+            return connection;
+        }
+
+        int inUse() {
+            return inUse.get();
+        }
+
+        int peakInUse() {
+            return peakInUse.get();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.dto.ResponsesAPIResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PricingEngineTest {
+
+    private final OpenAIResponsesConfig config = new OpenAIResponsesConfig();
+    private final PricingEngine engine = new PricingEngine(config);
+
+    @Test
+    void cachedInputIsBilledAtTheCachedRate() {
+        // o3: 2 / 0.50 / 8 dollars per 1M tokens
+        PricingEngine.Price price = engine.price("o3", 1_000, 400, 500, List.of());
+
+        assertEquals(1_400, price.inputMicros());   // 600 * 2 + 400 * 0.5
+        assertEquals(4_000, price.outputMicros());
+        assertEquals(5_400, price.totalMicros());
+        assertEquals("2025-06", price.priceVersion());
+    }
+
+    @Test
+    void manySmallCallsAddUpWithoutDrift() {
+        // gpt-4o-mini input is 0.15 micro-dollars per token
+        long total = 0;
+        for (int i = 0; i < 1_000; i++) {
+            total += engine.price("gpt-4o-mini", 10, 0, 0, List.of()).totalMicros();
+        }
+        assertEquals(2_000, total);   // each 1.5 micros rounds once, half up
+        assertEquals(1_500, engine.price("gpt-4o-mini", 10_000, 0, 0, List.of()).totalMicros());
+    }
+
+    @Test
+    void highestMatchingTierWins() {
+        OpenAIResponsesConfig.PriceTier longContext = new OpenAIResponsesConfig.PriceTier();
+        longContext.setAboveInputTokens(128_000);
+        longContext.setInputPerMillion(30_000_000);
+        longContext.setCachedInputPerMillion(7_500_000);
+        longContext.setOutputPerMillion(120_000_000);
+        OpenAIResponsesConfig.ModelPricing pricing = new OpenAIResponsesConfig.ModelPricing(15_000_000, 3_750_000, 60_000_000);
+        pricing.setTiers(List.of(longContext));
+        config.getCost().setModelPricing(Map.of("o3", pricing));
+
+        assertEquals(1_500_000, engine.price("o3", 100_000, 0, 0, List.of()).totalMicros());
+        assertEquals(6_000_000, engine.price("o3", 200_000, 0, 0, List.of()).totalMicros());
+    }
+
+    @Test
+    void parsesResponsesUsageBlock() throws Exception {
+        ResponsesAPIResponse.Usage usage = new ObjectMapper().readValue("""
+            {"input_tokens":1200,"input_tokens_details":{"cached_tokens":1024},
+             "output_tokens":300,"output_tokens_details":{"reasoning_tokens":256},"total_tokens":1500}
+            """, ResponsesAPIResponse.Usage.class);
+
+        assertEquals(1200, usage.inputTokens());
+        assertEquals(1024, usage.cachedInputTokens());
+        assertEquals(300, usage.outputTokens());
+        assertEquals(256, usage.reasoningTokens());
+    }
+}
@@ -0,0 +1,91 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.entity.MedicalSpecialty;
+import com.drcopad.copad.repository.MedicalSpecialtyRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PromptTemplateRegistryTest {
+
+    private final MedicalSpecialty general =
+        new MedicalSpecialty("general", "General", null, true, "General Practitioner", "You are a GP.");
+    private MedicalSpecialtyRepository repository;
+    private PromptTemplateRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(MedicalSpecialtyRepository.class);
+        when(repository.findByIsActiveTrue()).thenReturn(List.of(general));
+        registry = new PromptTemplateRegistry(repository, new LanguageMappingService(), mock(ReferenceDataCache.class));
+        registry.reload();
+    }
+
+    @Test
+    void buildsPromptOnceWithLanguageBeforeAnyTurnContent() {
+        PromptTemplateRegistry.PromptTemplate template = registry.get("general", "az");
+
+        assertTrue(template.text().startsWith("You are a GP."));
+        assertTrue(template.text().endsWith("Please respond in Azerbaijani."));
+        assertTrue(template.version().matches("general@[0-9a-f]{12}"));
+        assertSame(template, registry.get("general", "az"));
+        verify(repository, never()).findByCode("general");
+    }
+
+    @Test
+    void reloadPicksUpChangedPromptWithNewVersion() {
+        PromptTemplateRegistry.PromptTemplate before = registry.get("general", "en");
+
+        general.setSystemPrompt("You are a family doctor.");
+        registry.reload();
+        PromptTemplateRegistry.PromptTemplate after = registry.get("general", "en");
+
+        assertTrue(after.text().startsWith("You are a family doctor."));
+        assertNotEquals(before.version(), after.version());
+    }
+
+    @Test
+    void inactiveSpecialtyLookedUpOnDemandDoesNotDiscardBuiltTemplates() {
+        MedicalSpecialty retired = new MedicalSpecialty("retired", "Retired", null, false, "Retired", "You are retired.");
+        when(repository.findByCode("retired")).thenReturn(Optional.of(retired));
+        PromptTemplateRegistry.PromptTemplate before = registry.get("general", "en");
+
+        assertTrue(registry.get("retired", "en").text().startsWith("You are retired."));
+        registry.reload();
+
+        assertSame(before, registry.get("general", "en"));
+        registry.get("retired", "en");
+        verify(repository, times(1)).findByCode("retired");
+    }
+
+    @Test
+    void languageWithoutAKnownNameFallsBackToItsCode() {
+        LanguageMappingService languages = mock(LanguageMappingService.class);
+        registry = new PromptTemplateRegistry(repository, languages, mock(ReferenceDataCache.class));
+        registry.reload();
+
+        assertTrue(registry.get("general", "tg").text().endsWith("Please respond in tg."));
+    }
+
+    @Test
+    void unknownSpecialtyIsRejected() {
+        when(repository.findByCode("dermatology")).thenReturn(Optional.empty());
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+            () -> registry.get("dermatology", "en"));
+        assertEquals("Invalid specialty code: dermatology", e.getMessage());
+    }
+}
@@ -0,0 +1,111 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SemanticResponseCacheTest {
+
+    private static final String PROMPT = "You are a general practitioner.";
+    private static final String ANSWER = "High cholesterol means there is too much LDL in your blood.";
+
+    @TempDir
+    Path tempDir;
+
+    private OpenAIResponsesConfig responsesConfig;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        responsesConfig = new OpenAIResponsesConfig();
+        OpenAIResponsesConfig.SemanticCacheConfig config = responsesConfig.getSemanticCache();
+        config.setEnabled(true);
+        config.setSimilarityThreshold(0.7);
+        config.setSnapshotPath(tempDir.resolve("semantic-cache.bin").toString());
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    private SemanticResponseCache newCache() {
+        return new SemanticResponseCache(responsesConfig, new HashingEmbeddingProvider(384), meterRegistry);
+    }
+
+    @Test
+    void servesStoredAnswerForRewordedQuestion() {
+        SemanticResponseCache cache = newCache();
+        cache.store("general", "en", "o3", PROMPT, "What does high cholesterol mean?", ANSWER, "resp_1", 42_000);
+
+        Optional<ResponseCacheService.CachedAnswer> hit =
+                cache.lookup("general", "en", "o3", PROMPT, "what does it mean to have high cholesterol");
+
+        assertTrue(hit.isPresent());
+        assertEquals(ANSWER, hit.get().text());
+        assertEquals("resp_1", hit.get().responseId());
+        assertEquals(42.0, meterRegistry.get("llm.semantic_cache.latency_saved").timer()
+                .totalTime(TimeUnit.SECONDS), 0.001);
+    }
+
+    @Test
+    void usesTheProvidersThresholdUnlessOneIsConfigured() {
+        responsesConfig.getSemanticCache().setSimilarityThreshold(null);
+        EmbeddingProvider strict = new HashingEmbeddingProvider(384) {
+            @Override
+            public double defaultSimilarityThreshold() {
+                return 0.99;
+            }
+        };
+        SemanticResponseCache cache = new SemanticResponseCache(responsesConfig, strict, meterRegistry);
+        cache.store("general", "en", "o3", PROMPT, "What does high cholesterol mean?", ANSWER, "resp_1", 1000);
+
+        assertTrue(cache.lookup("general", "en", "o3", PROMPT, "what does it mean to have high cholesterol").isEmpty());
+        assertTrue(cache.lookup("general", "en", "o3", PROMPT, "What does high cholesterol mean?").isPresent());
+    }
+
+    @Test
+    void missesUnrelatedQuestionsOtherPartitionsAndOtherPrompts() {
+        SemanticResponseCache cache = newCache();
+        cache.store("general", "en", "o3", PROMPT, "What does high cholesterol mean?", ANSWER, "resp_1", 1000);
+
+        assertTrue(cache.lookup("general", "en", "o3", PROMPT, "How do I treat a sprained ankle?").isEmpty());
+        assertTrue(cache.lookup("general", "az", "o3", PROMPT, "What does high cholesterol mean?").isEmpty());
+        assertTrue(cache.lookup("cardiology", "en", "o3", PROMPT, "What does high cholesterol mean?").isEmpty());
+        assertTrue(cache.lookup("general", "en", "o3", "A different prompt", "What does high cholesterol mean?").isEmpty());
+        assertTrue(cache.lookup("general", "en", "gpt-4o", PROMPT, "What does high cholesterol mean?").isEmpty());
+        assertEquals(5.0, meterRegistry.get("llm.semantic_cache.requests").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void snapshotSurvivesRestart() {
+        SemanticResponseCache cache = newCache();
+        cache.store("general", "en", "o3", PROMPT, "What does high cholesterol mean?", ANSWER, "resp_1", 1000);
+        cache.saveSnapshot();
+
+        SemanticResponseCache restarted = newCache();
+        restarted.loadSnapshot();
+
+        assertEquals(ANSWER, restarted.lookup("general", "en", "o3", PROMPT, "what does high cholesterol mean")
+                .map(ResponseCacheService.CachedAnswer::text)
+                .orElse(null));
+    }
+
+    @Test
+    void indexIsBoundedAndEvictsOldestFirst() {
+        SemanticVectorIndex<String> index = new SemanticVectorIndex<>(384, 4, 8, 2, 1L);
+        HashingEmbeddingProvider embeddings = new HashingEmbeddingProvider(384);
+        index.add(embeddings.embed("first question about fever"), "first");
+        index.add(embeddings.embed("second question about headaches"), "second");
+        index.add(embeddings.embed("third question about back pain"), "third");
+
+        assertEquals(2, index.size());
+        assertTrue(index.nearest(embeddings.embed("first question about fever"), 0.99, answer -> true) == null);
+        assertEquals("third", index.nearest(embeddings.embed("third question about back pain"), 0.99, answer -> true).payload());
+    }
+}
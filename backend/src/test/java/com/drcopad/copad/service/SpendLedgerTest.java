@@ -0,0 +1,172 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.entity.User;
+import com.drcopad.copad.entity.responses.UsageMetric;
+import com.drcopad.copad.repository.responses.UsageMetricRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SpendLedgerTest {
+
+    private UsageMetricRepository usageMetricRepository;
+    private TelemetryJournal telemetryJournal;
+    private SpendLedger ledger;
+
+    @BeforeEach
+    void setUp() {
+        OpenAIResponsesConfig responsesConfig = new OpenAIResponsesConfig();
+        responsesConfig.getCost().setDailyLimit(new BigDecimal("10.00"));
+        usageMetricRepository = mock(UsageMetricRepository.class);
+        when(usageMetricRepository.getTotalCostForUser(eq(1L), any())).thenReturn(new BigDecimal("4.00"));
+        telemetryJournal = mock(TelemetryJournal.class);
+        ledger = new SpendLedger(responsesConfig, usageMetricRepository, telemetryJournal, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void parallelReservationsNeverOvershootTheLimit() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Callable<SpendLedger.Reservation>> calls = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                calls.add(() -> ledger.reserveForUser(1L, new BigDecimal("1.00")));
+            }
+            long granted = 0;
+            for (Future<SpendLedger.Reservation> result : executor.invokeAll(calls)) {
+                if (result.get() != null) {
+                    granted++;
+                }
+            }
+            // $4 already spent today leaves room for exactly six $1 turns
+            assertEquals(6, granted);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void settlementReplacesTheEstimate() {
+        SpendLedger.Reservation reservation = ledger.reserveForUser(1L, new BigDecimal("5.00"));
+        assertNotNull(reservation);
+        assertNull(ledger.reserveForUser(1L, new BigDecimal("2.00")));
+
+        User user = new User();
+        user.setId(1L);
+        ledger.record(UsageMetric.builder().user(user).totalCost(new BigDecimal("0.50")).build());
+        reservation.release();
+        reservation.release();
+
+        assertFalse(ledger.hasExceededUserLimit(1L));
+        assertNotNull(ledger.reserveForUser(1L, new BigDecimal("5.50")));
+        assertTrue(ledger.reserveForUser(1L, new BigDecimal("0.01")) == null);
+    }
+
+    @Test
+    void reconciliationCorrectsDriftButKeepsReservations() {
+        SpendLedger.Reservation reservation = ledger.reserveForUser(1L, new BigDecimal("3.00"));
+        assertNotNull(reservation);
+
+        // Another node recorded $2.50 meanwhile
+        when(usageMetricRepository.getTotalCostByUser(eq(List.of(1L)), any()))
+            .thenReturn(List.<Object[]>of(new Object[] {1L, new BigDecimal("6.50")}));
+        ledger.reconcile();
+
+        assertNull(ledger.reserveForUser(1L, new BigDecimal("0.60")));
+        reservation.release();
+        assertNotNull(ledger.reserveForUser(1L, new BigDecimal("3.50")));
+    }
+
+    @Test
+    void reconcilingWhileTurnsAreInFlightLeavesNoDrift() throws Exception {
+        when(usageMetricRepository.getTotalCostByUser(eq(List.of(1L)), any()))
+            .thenReturn(List.<Object[]>of(new Object[] {1L, new BigDecimal("4.00")}));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Void>> calls = new ArrayList<>();
+            for (int thread = 0; thread < 7; thread++) {
+                calls.add(() -> {
+                    for (int i = 0; i < 20_000; i++) {
+                        SpendLedger.Reservation reservation = ledger.reserveForUser(1L, new BigDecimal("0.50"));
+                        if (reservation != null) {
+                            reservation.release();
+                        }
+                    }
+                    return null;
+                });
+            }
+            calls.add(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    ledger.reconcile();
+                }
+                return null;
+            });
+            for (Future<Void> result : executor.invokeAll(calls)) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every reservation was released, so exactly the $6 left under the limit is available
+        assertNotNull(ledger.reserveForUser(1L, new BigDecimal("6.00")));
+        assertNull(ledger.reserveForUser(1L, new BigDecimal("0.01")));
+    }
+
+    @Test
+    void spendStillInTheJournalCountsTowardsTheLimit() {
+        User user = new User();
+        user.setId(1L);
+        assertNotNull(ledger.reserveForUser(1L, new BigDecimal("0.00")));
+        // $5 spent since: recorded in the ledger, but still waiting in the journal
+        ledger.record(UsageMetric.builder().user(user).costMicros(5_000_000L).build());
+        when(telemetryJournal.pendingCostMicros(eq(1L), any())).thenReturn(5_000_000L);
+        when(usageMetricRepository.getTotalCostByUser(eq(List.of(1L)), any()))
+            .thenReturn(List.<Object[]>of(new Object[] {1L, new BigDecimal("4.00")}));
+
+        ledger.reconcile();
+
+        assertNull(ledger.reserveForUser(1L, new BigDecimal("1.01")));
+        assertNotNull(ledger.reserveForUser(1L, new BigDecimal("1.00")));
+    }
+
+    @Test
+    void idleAccountsAreDroppedAndBusyOnesReconciledInOneQuery() {
+        when(usageMetricRepository.getTotalCostForUser(eq(2L), any())).thenReturn(new BigDecimal("1.00"));
+        assertNotNull(ledger.reserveForUser(1L, new BigDecimal("0.00")));
+        assertNotNull(ledger.reserveForUser(2L, new BigDecimal("0.00")));
+        ledger.reconcile();
+        verify(usageMetricRepository).getTotalCostByUser(argThat(ids -> ids.containsAll(List.of(1L, 2L))), any());
+
+        // Only user 1 is active until the next run; user 2's account goes and is read again on use
+        assertNotNull(ledger.reserveForUser(1L, new BigDecimal("0.00")));
+        ledger.reconcile();
+        verify(usageMetricRepository).getTotalCostByUser(eq(List.of(1L)), any());
+        ledger.reconcile();
+        verify(usageMetricRepository, times(2)).getTotalCostByUser(any(), any());
+
+        assertNotNull(ledger.reserveForUser(2L, new BigDecimal("0.00")));
+        verify(usageMetricRepository, times(2)).getTotalCostForUser(eq(2L), any());
+    }
+}
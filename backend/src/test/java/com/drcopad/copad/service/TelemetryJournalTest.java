@@ -0,0 +1,185 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.entity.User;
+import com.drcopad.copad.entity.responses.UsageMetric;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class TelemetryJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private OpenAIResponsesConfig responsesConfig;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        responsesConfig = new OpenAIResponsesConfig();
+        responsesConfig.getJournal().setDir(dir.toString());
+        jdbcTemplate = mock(JdbcTemplate.class);
+    }
+
+    @Test
+    void flushInsertsJournaledRowsOnce() {
+        TelemetryJournal journal = new TelemetryJournal(responsesConfig, jdbcTemplate, new SimpleMeterRegistry());
+        UsageMetric metric = usage("resp_1");
+        journal.append(metric);
+        journal.append(usage("resp_2"));
+
+        journal.flush();
+        journal.flush();
+
+        List<Object[]> rows = insertedUsageRows(1);
+        assertEquals(2, rows.size());
+        assertNotNull(metric.getJournalEntryId());
+        assertEquals(metric.getJournalEntryId(), rows.get(0)[0]);
+        // Totals are computed as the entity's @PostPersist would have
+        assertEquals(150, rows.get(0)[8]);
+        assertEquals(new BigDecimal("0.30"), rows.get(0)[13]);
+        journal.close();
+    }
+
+    @Test
+    void rowsNotYetFlushedAreReplayedAfterARestart() {
+        TelemetryJournal crashed = new TelemetryJournal(responsesConfig, jdbcTemplate, new SimpleMeterRegistry());
+        crashed.append(usage("resp_1"));
+        crashed.flush();
+        crashed.append(usage("resp_2"));
+        // No close(): the process dies before the next flush
+
+        JdbcTemplate restartedJdbc = mock(JdbcTemplate.class);
+        TelemetryJournal restarted = new TelemetryJournal(responsesConfig, restartedJdbc, new SimpleMeterRegistry());
+        restarted.replay();
+
+        ArgumentCaptor<List<Object[]>> rows = rowsCaptor();
+        verify(restartedJdbc).batchUpdate(eq(TelemetryJournal.INSERT_USAGE), rows.capture());
+        assertEquals(1, rows.getValue().size());
+        assertEquals("resp_2", rows.getValue().get(0)[2]);
+        restarted.close();
+    }
+
+    @Test
+    void fullSegmentsAreDeletedOnceFlushed() throws IOException {
+        responsesConfig.getJournal().setSegmentBytes(1024);
+        TelemetryJournal journal = new TelemetryJournal(responsesConfig, jdbcTemplate, new SimpleMeterRegistry());
+        for (int i = 0; i < 20; i++) {
+            journal.append(usage("resp_" + i));
+        }
+        long segmentsBefore = segmentCount();
+
+        journal.flush();
+
+        List<Object[]> rows = new ArrayList<>();
+        ArgumentCaptor<List<Object[]>> batches = rowsCaptor();
+        verify(jdbcTemplate, atLeastOnce()).batchUpdate(eq(TelemetryJournal.INSERT_USAGE), batches.capture());
+        batches.getAllValues().forEach(rows::addAll);
+        assertEquals(20, rows.size());
+        assertTrue(segmentsBefore > 1);
+        assertEquals(1, segmentCount());
+        verify(jdbcTemplate, never()).batchUpdate(eq(TelemetryJournal.INSERT_RESPONSE), anyList());
+        journal.close();
+    }
+
+    @Test
+    void pendingSpendIsCountedUntilFlushed() {
+        TelemetryJournal journal = new TelemetryJournal(responsesConfig, jdbcTemplate, new SimpleMeterRegistry());
+        journal.append(usage("resp_1"));
+        journal.append(usage("resp_2"));
+        assertEquals(600_000L, journal.pendingCostMicros(1L, LocalDate.now()));
+
+        // Also after a restart, for rows the previous run did not flush
+        TelemetryJournal restarted = new TelemetryJournal(responsesConfig, mock(JdbcTemplate.class), new SimpleMeterRegistry());
+        assertEquals(600_000L, restarted.pendingCostMicros(1L, LocalDate.now()));
+        restarted.flush();
+        assertEquals(0L, restarted.pendingCostMicros(1L, LocalDate.now()));
+        restarted.close();
+        journal.close();
+    }
+
+    @Test
+    void replayedRowsAlreadyInTheTableAreSkippedOnAnyDatabase() {
+        // Plain H2, not MySQL mode: the inserts must not depend on a MySQL-only upsert
+        JdbcTemplate h2 = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:telemetry_journal;DB_CLOSE_DELAY=-1"));
+        h2.execute("CREATE TABLE usage_metrics (id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+            + "journal_entry_id VARCHAR(36) UNIQUE, conversation_id VARCHAR(255), response_id VARCHAR(255), "
+            + "user_id BIGINT, guest_session_id BIGINT, model VARCHAR(255), input_tokens INT, output_tokens INT, "
+            + "total_tokens INT, cached_input_tokens INT, reasoning_tokens INT, input_cost DECIMAL(12, 6), "
+            + "output_cost DECIMAL(12, 6), total_cost DECIMAL(12, 6), tools_cost DECIMAL(12, 6), cost_micros BIGINT, "
+            + "price_version VARCHAR(64), tools_used VARCHAR(1024), api_type VARCHAR(64), created_at TIMESTAMP)");
+        TelemetryJournal journal = new TelemetryJournal(responsesConfig, h2, new SimpleMeterRegistry());
+        UsageMetric inserted = usage("resp_1");
+        journal.append(inserted);
+        journal.append(usage("resp_2"));
+        // As if a previous run inserted the row but died before checkpointing it
+        h2.update("INSERT INTO usage_metrics (journal_entry_id, response_id) VALUES (?, ?)",
+            inserted.getJournalEntryId(), "resp_1");
+
+        journal.flush();
+
+        assertEquals(List.of("resp_1", "resp_2"),
+            h2.queryForList("SELECT response_id FROM usage_metrics ORDER BY response_id", String.class));
+        assertEquals(0L, journal.pendingCostMicros(1L, LocalDate.now()));
+        journal.close();
+    }
+
+    private List<Object[]> insertedUsageRows(int batches) {
+        ArgumentCaptor<List<Object[]>> rows = rowsCaptor();
+        verify(jdbcTemplate, times(batches)).batchUpdate(eq(TelemetryJournal.INSERT_USAGE), rows.capture());
+        return rows.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<List<Object[]>> rowsCaptor() {
+        return ArgumentCaptor.forClass(List.class);
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static UsageMetric usage(String responseId) {
+        User user = new User();
+        user.setId(1L);
+        return UsageMetric.builder()
+            .conversationId("conv_1")
+            .responseId(responseId)
+            .user(user)
+            .model("o3")
+            .inputTokens(100)
+            .outputTokens(50)
+            .inputCost(new BigDecimal("0.10"))
+            .outputCost(new BigDecimal("0.20"))
+            .costMicros(300_000L)
+            .priceVersion("2025-01")
+            .build();
+    }
+}
@@ -0,0 +1,43 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.dto.ResponsesAPIRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenEstimatorTest {
+
+    private final TokenEstimator estimator = new TokenEstimator(new OpenAIResponsesConfig(), new SimpleMeterRegistry());
+
+    @Test
+    void countsMultimodalInputIncludingImages() {
+        ResponsesAPIRequest request = ResponsesAPIRequest.builder()
+            .model("o3")
+            .instructions("You are a GP.")
+            .input(List.of(Map.of("role", "user", "content", List.of(
+                Map.of("type", "input_text", "text", "What does this rash look like?"),
+                Map.of("type", "input_image", "image_url", "http://localhost/rash.jpg")))))
+            .build();
+
+        int text = estimator.count("o3", "You are a GP.") + estimator.count("o3", "What does this rash look like?");
+        assertEquals(text + 765 + 8, estimator.estimate(request));
+    }
+
+    @Test
+    void truncatesOnATokenBoundaryWithinBudget() {
+        String document = "Hemoglobin 13.5 g/dL, platelets 250 x10^9/L. ".repeat(2_000);
+
+        String truncated = estimator.truncate("o3", document, 1_000);
+
+        assertTrue(document.startsWith(truncated));
+        assertTrue(estimator.count("o3", truncated) <= 1_000);
+        assertTrue(estimator.count("o3", truncated) > 990);
+        assertEquals("short", estimator.truncate("o3", "short", 1_000));
+    }
+}
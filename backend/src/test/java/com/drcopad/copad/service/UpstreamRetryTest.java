@@ -0,0 +1,124 @@
+package com.drcopad.copad.service;
+
+import com.drcopad.copad.config.OpenAIResponsesConfig;
+import com.drcopad.copad.exception.UpstreamHttpException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Counts the upstream calls one user message can cause, which is what a brownout multiplies.
+ */
+class UpstreamRetryTest {
+
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private final Deque<ClientResponse> scripted = new ArrayDeque<>();
+    private OpenAIResponsesConfig.RetryConfig config;
+    private OpenAIResponsesConfig responsesConfig;
+    private WebClient webClient;
+
+    @BeforeEach
+    void setUp() {
+        responsesConfig = new OpenAIResponsesConfig();
+        config = responsesConfig.getRetry();
+        config.setInitialInterval(1);
+        config.setMaxInterval(1_000);
+        webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    upstreamCalls.incrementAndGet();
+                    ClientResponse next = scripted.poll();
+                    return Mono.just(next != null ? next : response(HttpStatus.SERVICE_UNAVAILABLE, null));
+                })
+                .build();
+    }
+
+    @Test
+    void persistentOutageCostsAtMostMaxAttemptsCallsPerMessage() {
+        UpstreamRetry retry = new UpstreamRetry(responsesConfig, new SimpleMeterRegistry());
+
+        assertThrows(UpstreamHttpException.class, () -> retry.retry("responses", call()).block(Duration.ofSeconds(5)));
+
+        assertEquals(config.getMaxAttempts(), upstreamCalls.get());
+    }
+
+    @Test
+    void retryBudgetCapsExtraCallsDuringBrownout() {
+        config.setBudgetMaxTokens(2);
+        config.setBudgetRatio(0.1);
+        UpstreamRetry retry = new UpstreamRetry(responsesConfig, new SimpleMeterRegistry());
+
+        int messages = 50;
+        for (int i = 0; i < messages; i++) {
+            assertThrows(UpstreamHttpException.class, () -> retry.retry("responses", call()).block(Duration.ofSeconds(5)));
+        }
+
+        // Without the budget this would be messages * maxAttempts = 150
+        assertTrue(upstreamCalls.get() <= messages + 2 + messages * 0.1,
+                "upstream calls: " + upstreamCalls.get());
+    }
+
+    @Test
+    void waitsForRetryAfterOnThrottling() {
+        scripted.add(response(HttpStatus.TOO_MANY_REQUESTS, "300"));
+        scripted.add(response(HttpStatus.OK, null));
+        UpstreamRetry retry = new UpstreamRetry(responsesConfig, new SimpleMeterRegistry());
+
+        long start = System.nanoTime();
+        assertEquals("{}", retry.retry("responses", call()).block(Duration.ofSeconds(5)));
+
+        assertEquals(2, upstreamCalls.get());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 300);
+    }
+
+    @Test
+    void errorsAfterOpenAIMayHaveStartedTheResponseAreNotRetried() {
+        UpstreamRetry retry = new UpstreamRetry(responsesConfig, new SimpleMeterRegistry());
+
+        for (HttpStatus status : new HttpStatus[] {HttpStatus.INTERNAL_SERVER_ERROR, HttpStatus.BAD_GATEWAY,
+                HttpStatus.GATEWAY_TIMEOUT}) {
+            upstreamCalls.set(0);
+            scripted.add(response(status, null));
+
+            assertThrows(UpstreamHttpException.class, () -> retry.retry("responses", call()).block(Duration.ofSeconds(5)));
+
+            assertEquals(1, upstreamCalls.get(), status + " must not be sent twice");
+        }
+    }
+
+    private Mono<String> call() {
+        return webClient.post()
+                .uri("https://api.openai.com/v1/responses")
+                .retrieve()
+                .onStatus(status -> !status.is2xxSuccessful(),
+                        resp -> resp.bodyToMono(String.class)
+                                .defaultIfEmpty("No response body")
+                                .flatMap(body -> Mono.error(new UpstreamHttpException(resp.statusCode().value(), body,
+                                        UpstreamRetry.retryAfter(resp.headers().asHttpHeaders())))))
+                .bodyToMono(String.class);
+    }
+
+    private static ClientResponse response(HttpStatus status, String retryAfterMs) {
+        ClientResponse.Builder builder = ClientResponse.create(status)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body("{}");
+        if (retryAfterMs != null) {
+            builder.header("retry-after-ms", retryAfterMs);
+        }
+        return builder.build();
+    }
+}